@@ -0,0 +1,32 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Input files for the benchmarks, random content does not compress.
+ */
+class BenchmarkFiles {
+
+	private final static int BLOCK_SIZE = 1 << 20;
+
+	static Path createRandomFile(String prefix, long size) throws IOException {
+		Path file = Files.createTempFile(prefix, ".bin");
+		Random random = new Random(size);
+		byte[] block = new byte[BLOCK_SIZE];
+		try (OutputStream out = Files.newOutputStream(file)) {
+			long remaining = size;
+			while (remaining > 0) {
+				random.nextBytes(block);
+				int cnt = (int) Math.min(remaining, BLOCK_SIZE);
+				out.write(block, 0, cnt);
+				remaining -= cnt;
+			}
+		}
+		return file;
+	}
+
+}
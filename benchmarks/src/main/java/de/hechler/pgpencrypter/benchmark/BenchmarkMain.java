@@ -0,0 +1,42 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Runs the JMH benchmarks and writes the results as JSON into the results folder,
+ * named by version and start time, so runs of different releases can be compared.
+ *
+ * All JMH options are supported, e.g. "EncrypterBenchmark -p fileSize=1048576".
+ * An explicit result format (-rf) disables the JSON default.
+ */
+public class BenchmarkMain {
+
+	private final static String RESULTS_FOLDER = "results";
+
+	public static void main(String[] args) throws Exception {
+		if (Arrays.asList(args).contains("-rf")) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		String version = BenchmarkMain.class.getPackage().getImplementationVersion();
+		if (version == null) {
+			version = "dev";
+		}
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		Path resultFile = Paths.get(RESULTS_FOLDER, "jmh-"+version+"-"+timestamp+".json");
+		Files.createDirectories(resultFile.getParent());
+		String[] jsonArgs = Arrays.copyOf(args, args.length+4);
+		jsonArgs[args.length] = "-rf";
+		jsonArgs[args.length+1] = "json";
+		jsonArgs[args.length+2] = "-rff";
+		jsonArgs[args.length+3] = resultFile.toString();
+		System.out.println("writing results to "+resultFile);
+		org.openjdk.jmh.Main.main(jsonArgs);
+	}
+
+}
@@ -0,0 +1,96 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.pgpencrypter.utils.ChecksumInputStream;
+import de.hechler.pgpencrypter.utils.ChecksumOutputStream;
+
+/**
+ * Overhead of the SHA-256 checksum streams wrapped around the encryption, compared to a plain copy.
+ * The data is copied from memory, so only the checksum is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class ChecksumStreamBenchmark {
+
+	@Param({"67108864"})
+	public int dataSize;
+
+	/** Streams.pipeAll() of the encryption uses 4 KB */
+	@Param({"4096", "65536"})
+	public int bufferSize;
+
+	private byte[] data;
+
+	@Setup(Level.Trial)
+	public void createData() {
+		data = new byte[dataSize];
+		new Random(dataSize).nextBytes(data);
+	}
+
+	@Benchmark
+	public long plainCopy() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		copy(new ByteArrayInputStream(data), out);
+		return out.getCount();
+	}
+
+	@Benchmark
+	public String checksumInputStream() throws IOException {
+		ChecksumInputStream in = new ChecksumInputStream("SHA-256", new ByteArrayInputStream(data));
+		copy(in, new CountingOutputStream());
+		return in.getMD();
+	}
+
+	@Benchmark
+	public String checksumOutputStream() throws IOException {
+		ChecksumOutputStream out = new ChecksumOutputStream("SHA-256", new CountingOutputStream());
+		copy(new ByteArrayInputStream(data), out);
+		return out.getMD();
+	}
+
+	/**
+	 * like Encrypter.encrypt(), which hashes the plaintext and the ciphertext.
+	 */
+	@Benchmark
+	public String checksumBothStreams() throws IOException {
+		ChecksumInputStream in = new ChecksumInputStream("SHA-256", new ByteArrayInputStream(data));
+		ChecksumOutputStream out = new ChecksumOutputStream("SHA-256", new CountingOutputStream());
+		copy(in, out);
+		return in.getMD()+out.getMD();
+	}
+
+	private void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[bufferSize];
+		while (true) {
+			int cnt = in.read(buffer);
+			if (cnt == -1) {
+				break;
+			}
+			out.write(buffer, 0, cnt);
+		}
+	}
+
+}
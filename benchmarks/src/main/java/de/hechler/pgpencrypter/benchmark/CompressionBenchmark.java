@@ -0,0 +1,94 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+
+/**
+ * Encrypter.encrypt() of 4 MB in memory for ascii armored/binary output and all compression settings,
+ * with compressible text and incompressible random data.
+ *
+ * The ciphertext size of each configuration is printed after the trial.
+ * The public key is read relative to the benchmarks folder, use "-p publicKey=..." to run from elsewhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompressionBenchmark {
+
+	@Param({"../testdata/keys/encryptittest.pub"})
+	public String publicKey;
+
+	@Param({"true", "false"})
+	public boolean asciiArmor;
+
+	@Param({"NONE", "ZIP", "ZLIB"})
+	public CompressionPolicy compression;
+
+	@Param({"text", "random"})
+	public String content;
+
+	@Param({"4194304"})
+	public int plaintextSize;
+
+	private Encrypter encrypter;
+	private byte[] plaintext;
+	private long targetFilesize;
+
+	@Setup(Level.Trial)
+	public void createPlaintext() {
+		encrypter = new Encrypter(Paths.get(publicKey), asciiArmor, compression);
+		plaintext = "text".equals(content) ? createText(plaintextSize) : createRandom(plaintextSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void printSize() {
+		System.out.println(String.format("armor=%-5s compression=%-4s %-6s: %9d -> %9d bytes (%5.1f%%)", 
+				asciiArmor, compression, content, plaintext.length, targetFilesize, 100.0*targetFilesize/plaintext.length));
+	}
+
+	@Benchmark
+	public EncryptResult encrypt() {
+		EncryptResult result = encrypter.encrypt(new ByteArrayInputStream(plaintext), new CountingOutputStream());
+		targetFilesize = result.targetFilesize;
+		return result;
+	}
+
+	private static byte[] createText(int size) {
+		Random random = new Random(42);
+		StringBuilder result = new StringBuilder(size+100);
+		while (result.length() < size) {
+			result.append("line ").append(random.nextInt(100000)).append(": the quick brown fox jumps over the lazy dog\n");
+		}
+		return result.substring(0, size).getBytes();
+	}
+
+	private static byte[] createRandom(int size) {
+		byte[] result = new byte[size];
+		new Random(42).nextBytes(result);
+		return result;
+	}
+
+}
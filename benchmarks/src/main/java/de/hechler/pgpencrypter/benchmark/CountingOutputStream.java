@@ -0,0 +1,26 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Discards the written data, so the benchmarks measure the processing and not the disk.
+ */
+class CountingOutputStream extends OutputStream {
+
+	private long count = 0;
+
+	@Override
+	public void write(int b) {
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		count += len;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+}
@@ -0,0 +1,110 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+import de.hechler.pgpencrypter.persist.Deserializer;
+import de.hechler.pgpencrypter.persist.FastDeserializer;
+
+/**
+ * Loading a CSV sync cache with the Deserializer and the FastDeserializer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class DeserializerBenchmark {
+
+	private static final String HASH = "46e33ffc6555cd559d7fc89e339ccd52d3bacb20153a3db7c650419d594f11e8";
+	
+	@Param({"1000000"})
+	public int lines;
+	
+	private Path csvFile;
+	
+	@Setup(Level.Trial)
+	public void createCacheFile() throws IOException {
+		csvFile = Files.createTempFile("sync-cache", ".csv");
+		try (PrintStream out = new PrintStream(csvFile.toFile(), StandardCharsets.UTF_8.name())) {
+			out.println(FileInfo.headerCSV());
+			for (int i=0; i<lines; i++) {
+				FileInfo fi = new FileInfo(Paths.get("photos/"+(2000+i%20)+"/album "+(i/1000)+"/IMG_"+i+".jpg"), 1600000000000L+i, 1500000000000L+i, 1000L*i, HASH, HASH);
+				out.println(fi.toCSV());
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteCacheFile() throws IOException {
+		Files.deleteIfExists(csvFile);
+	}
+	
+	@Benchmark
+	public void deserializer(Blackhole bh) throws IOException {
+		try (Deserializer deser = new Deserializer(new BufferedReader(Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)))) {
+			deser.nextRecord(); // skip header
+			while (true) {
+				FileInfo fi = FileInfo.fromCSV(deser);
+				if (fi == null) {
+					break;
+				}
+				bh.consume(fi);
+			}
+		}
+	}
+
+	@Benchmark
+	public void fastDeserializer(Blackhole bh) {
+		try (FastDeserializer deser = new FastDeserializer(csvFile)) {
+			deser.nextRecord(); // skip header
+			while (true) {
+				FileInfo fi = FileInfo.fromCSV(deser);
+				if (fi == null) {
+					break;
+				}
+				bh.consume(fi);
+			}
+		}
+	}
+
+	/**
+	 * parsing only, without creating Path and String objects. 
+	 */
+	@Benchmark
+	public void fastDeserializerPrimitivesOnly(Blackhole bh) {
+		try (FastDeserializer deser = new FastDeserializer(csvFile)) {
+			deser.nextRecord(); // skip header
+			while (deser.nextRecord() != FastDeserializer.NO_MORE_RECORDS) {
+				deser.skipField();
+				bh.consume(deser.nextLong(0));
+				bh.consume(deser.nextLong(0));
+				bh.consume(deser.nextLong(0));
+			}
+		}
+	}
+	
+}
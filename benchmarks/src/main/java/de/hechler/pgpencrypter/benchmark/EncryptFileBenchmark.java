@@ -0,0 +1,90 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+
+/**
+ * Encryption of a file into a local file, like the staging file of a chunked upload:
+ * encryptStreams is the path before the FileChannel streams (unbuffered FileInputStream and
+ * FileOutputStream, blockSize=4096 is the old Streams.pipeAll()), encryptChannels is Encrypter.encrypt(Path, Path).
+ *
+ * The public key is read relative to the benchmarks folder, use "-p publicKey=..." to run from elsewhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class EncryptFileBenchmark {
+
+	@Param({"../testdata/keys/encryptittest.pub"})
+	public String publicKey;
+
+	@Param({"true", "false"})
+	public boolean asciiArmor;
+
+	@Param({"104857600"})
+	public long fileSize;
+
+	@Param({"4096", "65536", "262144", "1048576"})
+	public int blockSize;
+
+	private Encrypter encrypter;
+	private Path inputFile;
+	private Path outputFile;
+
+	@Setup(Level.Trial)
+	public void createFiles() throws IOException {
+		encrypter = new Encrypter(Paths.get(publicKey), asciiArmor, CompressionPolicy.NONE);
+		encrypter.setBlockSize(blockSize);
+		inputFile = BenchmarkFiles.createRandomFile("encryptfile-benchmark", fileSize);
+		outputFile = Files.createTempFile("encryptfile-benchmark", ".pgp");
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFiles() throws IOException {
+		Files.deleteIfExists(inputFile);
+		Files.deleteIfExists(outputFile);
+	}
+
+	@Benchmark
+	public EncryptResult encryptStreams() throws IOException {
+		try (InputStream in = new FileInputStream(inputFile.toFile())) {
+			try (OutputStream out = new FileOutputStream(outputFile.toFile())) {
+				return encrypter.encrypt(in, out, inputFile.getFileName().toString());
+			}
+		}
+	}
+
+	@Benchmark
+	public EncryptResult encryptChannels() {
+		return encrypter.encrypt(inputFile, outputFile);
+	}
+
+}
@@ -0,0 +1,87 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+
+/**
+ * Encrypter.encrypt() ascii armored and binary for files from 1 KB to 1 GB.
+ *
+ * The public key is read relative to the benchmarks folder, use "-p publicKey=..." to run from elsewhere.
+ * The 1 GB files take several seconds per invocation, restrict the sizes with "-p fileSize=...".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class EncrypterBenchmark {
+
+	@Param({"../testdata/keys/encryptittest.pub"})
+	public String publicKey;
+
+	@Param({"true", "false"})
+	public boolean asciiArmor;
+
+	@Param({"1024", "1048576", "104857600", "1073741824"})
+	public long fileSize;
+
+	private Encrypter encrypter;
+	private Path inputFile;
+	private Path outputFile;
+
+	@Setup(Level.Trial)
+	public void createFiles() throws IOException {
+		// random data does not compress, like most large files (photos, videos, archives)
+		encrypter = new Encrypter(Paths.get(publicKey), asciiArmor, CompressionPolicy.NONE);
+		inputFile = BenchmarkFiles.createRandomFile("encrypter-benchmark", fileSize);
+		outputFile = Files.createTempFile("encrypter-benchmark", ".pgp");
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFiles() throws IOException {
+		Files.deleteIfExists(inputFile);
+		Files.deleteIfExists(outputFile);
+	}
+
+	/**
+	 * encryption only, the output is discarded.
+	 */
+	@Benchmark
+	public EncryptResult encryptStream() throws IOException {
+		try (InputStream in = Files.newInputStream(inputFile)) {
+			return encrypter.encrypt(in, new CountingOutputStream(), inputFile.getFileName().toString());
+		}
+	}
+
+	/**
+	 * encryption into a local file, like the sync into a local folder.
+	 */
+	@Benchmark
+	public EncryptResult encryptFile() {
+		return encrypter.encrypt(inputFile, outputFile);
+	}
+
+}
@@ -0,0 +1,98 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.pgpencrypter.hash.Sha256FileHasher;
+import de.hechler.pgpencrypter.hash.TreeFileHasher;
+
+/**
+ * SHA-256 of a file with different read buffer sizes:
+ * sha256 is the FileInputStream loop SyncEngine used before (32 KB, hex via String.format),
+ * sha256Channel the Sha256FileHasher and sha256Tree the parallel TreeFileHasher.
+ *
+ * After the first iteration the file is in the page cache, the results show the hashing and
+ * read call overhead, not the disk. Throughput in GB/s is fileSize / 1e6 / (ms/op).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1)
+public class FileHashBenchmark {
+
+	@Param({"104857600"})
+	public long fileSize;
+
+	@Param({"4096", "32768", "131072", "1048576"})
+	public int bufferSize;
+
+	private Path file;
+	private Sha256FileHasher channelHasher;
+	private TreeFileHasher treeHasher;
+
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		file = BenchmarkFiles.createRandomFile("hash-benchmark", fileSize);
+		channelHasher = new Sha256FileHasher(bufferSize);
+		treeHasher = new TreeFileHasher(TreeFileHasher.DEFAULT_SEGMENT_SIZE, bufferSize, ForkJoinPool.commonPool());
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public String sha256() throws IOException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		byte[] buffer = new byte[bufferSize];
+		try (FileInputStream in = new FileInputStream(file.toFile())) {
+			while (true) {
+				int cnt = in.read(buffer);
+				if (cnt <= 0) {
+					break;
+				}
+				md.update(buffer, 0, cnt);
+			}
+		}
+		byte[] bytes = md.digest();
+		StringBuilder result = new StringBuilder();
+		for (byte b : bytes) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	@Benchmark
+	public String sha256Channel() throws IOException {
+		return channelHasher.hash(file);
+	}
+
+	@Benchmark
+	public String sha256Tree() throws IOException {
+		return treeHasher.hash(file);
+	}
+
+}
@@ -0,0 +1,53 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * Hex encoding of a SHA-256 digest, done for every hash, short hash and chunk name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1)
+public class HexBenchmark {
+
+	private byte[] digest;
+
+	@Setup(Level.Trial)
+	public void createDigest() {
+		digest = new byte[32];
+		new Random(1).nextBytes(digest);
+	}
+
+	@Benchmark
+	public String format() {
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	@Benchmark
+	public String lookupTable() {
+		return Hex.toHex(digest);
+	}
+
+}
@@ -0,0 +1,114 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.hechler.pgpencrypter.pcloud.ChunkedUploadApi;
+import de.hechler.pgpencrypter.store.TargetStore;
+
+/**
+ * Reports each target file written under its final name with the path of its source file.
+ */
+class RecordingTargetStore implements TargetStore {
+
+	/** "name-1234abcd.ext.pgp" or "name-1234abcd.pgp" for the source file "name.ext" or "name" */
+	private final static Pattern TARGET_FILENAME = Pattern.compile("(.*)-[0-9a-f]{8}(\\.[^.]*)?\\.pgp");
+
+	interface StoredListener {
+		void stored(Path relSource);
+	}
+
+	private TargetStore delegate;
+	private StoredListener listener;
+
+	public RecordingTargetStore(TargetStore delegate, StoredListener listener) {
+		this.delegate = delegate;
+		this.listener = listener;
+	}
+
+	@Override
+	public void open() throws IOException {
+		delegate.open();
+	}
+
+	@Override
+	public void put(Path file, ContentWriter content) throws IOException {
+		delegate.put(file, content);
+		record(file);
+	}
+
+	@Override
+	public void rename(Path file, Path newFile) throws IOException {
+		delegate.rename(file, newFile);
+		record(newFile);
+	}
+
+	@Override
+	public boolean copy(Path file, Path newFile) throws IOException {
+		boolean result = delegate.copy(file, newFile);
+		if (result) {
+			record(newFile);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean delete(Path file) throws IOException {
+		return delegate.delete(file);
+	}
+
+	@Override
+	public int deleteAll(Collection<Path> files) throws IOException {
+		return delegate.deleteAll(files);
+	}
+
+	@Override
+	public boolean deleteFolder(Path folder) throws IOException {
+		return delegate.deleteFolder(folder);
+	}
+
+	@Override
+	public boolean exists(Path file) throws IOException {
+		return delegate.exists(file);
+	}
+
+	@Override
+	public List<Path> list(Path folder) throws IOException {
+		return delegate.list(folder);
+	}
+
+	@Override
+	public ChunkedUploadApi getChunkedUploadApi() {
+		return delegate.getChunkedUploadApi();
+	}
+
+	@Override
+	public void flush() {
+		delegate.flush();
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	private void record(Path targetFile) {
+		Matcher matcher = TARGET_FILENAME.matcher(targetFile.getFileName().toString());
+		if (!matcher.matches()) {
+			// staging files and chunks
+			return;
+		}
+		String sourceName = matcher.group(1) + ((matcher.group(2) == null) ? "" : matcher.group(2));
+		listener.stored(targetFile.resolveSibling(sourceName));
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+}
@@ -0,0 +1,73 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+import de.hechler.pgpencrypter.persist.Serializer;
+
+/**
+ * Writing a CSV sync cache with the Serializer, the reading side is in DeserializerBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SerializerBenchmark {
+
+	private static final String HASH = "46e33ffc6555cd559d7fc89e339ccd52d3bacb20153a3db7c650419d594f11e8";
+
+	@Param({"1000000"})
+	public int lines;
+
+	private List<FileInfo> fileInfos;
+
+	@Setup(Level.Trial)
+	public void createFileInfos() {
+		fileInfos = new ArrayList<>(lines);
+		for (int i=0; i<lines; i++) {
+			fileInfos.add(new FileInfo(Paths.get("photos/"+(2000+i%20)+"/album "+(i/1000)+"/IMG_"+i+".jpg"), 1600000000000L+i, 1500000000000L+i, 1000L*i, HASH, HASH));
+		}
+	}
+
+	/**
+	 * one Serializer and String per record, like the CSV cache file is written.
+	 */
+	@Benchmark
+	public void toCSV(Blackhole bh) {
+		for (FileInfo fi:fileInfos) {
+			bh.consume(fi.toCSV());
+		}
+	}
+
+	/**
+	 * all records into one shared Serializer.
+	 */
+	@Benchmark
+	public int toCSVRecord() {
+		Serializer ser = new Serializer(new StringBuilder(lines*160));
+		for (FileInfo fi:fileInfos) {
+			fi.toCSVRecord(ser);
+		}
+		return ser.toString().length();
+	}
+
+}
@@ -0,0 +1,280 @@
+package de.hechler.pgpencrypter.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import de.hechler.pgpencrypter.SyncEngine;
+import de.hechler.pgpencrypter.store.InMemoryTargetStore;
+import de.hechler.pgpencrypter.utils.CommandLineOptions;
+import de.hechler.pgpencrypter.utils.ConsoleLogging;
+
+/**
+ * End to end benchmark of the sync against a simulated cloud store with latency and bandwidth,
+ * configured like SyncCloudEncrypted, so no pCloud account is needed.
+ *
+ * Generates a synthetic input tree with many small and a few large files, measures the initial sync
+ * and then bursts of modifications. Reports files/s, MB/s, the latency from writing a changed file
+ * until its target file is stored (includes the quiet period of the FileChangesCollector) and the peak heap.
+ * <pre>
+ * java -cp target/benchmarks.jar de.hechler.pgpencrypter.benchmark.SyncThroughputBenchmark
+ *      --small-files=5000 --large-files=2 --large-mb=128 --bursts=3 --burst-files=200
+ *      --latency-ms=50 --mbit=100 --uploads=4
+ * </pre>
+ * The summary is also written to results/sync-&lt;version&gt;-&lt;timestamp&gt;.json.
+ */
+public class SyncThroughputBenchmark {
+
+	private final static String DEFAULT_PUBLIC_KEY = "../testdata/keys/encryptittest.pub";
+	private final static String RESULTS_FOLDER = "results";
+	private final static int FILES_PER_FOLDER = 100;
+	private final static int MAX_SMALL_FILE_SIZE = 64 << 10;
+	private final static long STORED_TIMEOUT_MS = 30*60*1000L;
+
+	private Path inputFolder;
+	private Random random;
+	private List<Path> smallFiles;
+	private List<Path> largeFiles;
+	/** written source files (relative) waiting for their target file, with the time of the write */
+	private Map<Path, Long> pending;
+	private List<Long> latencies;
+
+	public SyncThroughputBenchmark(Path inputFolder, long seed) {
+		this.inputFolder = inputFolder;
+		this.random = new Random(seed);
+		this.smallFiles = new ArrayList<>();
+		this.largeFiles = new ArrayList<>();
+		this.pending = new ConcurrentHashMap<>();
+		this.latencies = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdLine = new CommandLineOptions(args);
+		Path publicKey = Paths.get(cmdLine.getOption("public-key", DEFAULT_PUBLIC_KEY));
+		int smallFileCount = cmdLine.getIntOption("small-files", 5000);
+		int largeFileCount = cmdLine.getIntOption("large-files", 2);
+		int largeMB = cmdLine.getIntOption("large-mb", 128);
+		int bursts = cmdLine.getIntOption("bursts", 3);
+		int burstFiles = cmdLine.getIntOption("burst-files", 200);
+		int latencyMillis = cmdLine.getIntOption("latency-ms", 50);
+		int mbit = cmdLine.getIntOption("mbit", 100);
+		int uploads = cmdLine.getIntOption("uploads", 4);
+		boolean asciiArmor = cmdLine.getBooleanOption("armor", true);
+		// per file log lines would be part of the measured time
+		ConsoleLogging.configure(cmdLine.getOption("log-level", "WARNING"));
+
+		Path workFolder = Files.createTempDirectory("sync-benchmark");
+		SyncThroughputBenchmark benchmark = new SyncThroughputBenchmark(workFolder.resolve("input"), 4711);
+		System.out.println("generating "+smallFileCount+" small and "+largeFileCount+" large files in "+workFolder);
+		long inputBytes = benchmark.generateInput(smallFileCount, largeFileCount, ((long) largeMB) << 20);
+
+		// one byte per 8 bits, the bandwidth is per upload like a single pCloud upload
+		InMemoryTargetStore cloud = new InMemoryTargetStore(latencyMillis, mbit*125000L);
+		cloud.setKeepContent(false);
+		SyncEngine sync = new SyncEngine(publicKey, benchmark.inputFolder, new RecordingTargetStore(cloud, benchmark::stored), workFolder.resolve("cache/synced-files.csv"));
+		sync.setWorkers(uploads);
+		sync.setHashBeforeWrite(true);
+		sync.setAsciiArmor(asciiArmor);
+		resetPeakHeap();
+		Thread syncThread = new Thread(sync::startSync, "sync");
+		syncThread.setDaemon(true);
+
+		long start = System.currentTimeMillis();
+		benchmark.expectAll();
+		syncThread.start();
+		benchmark.awaitStored();
+		long initialMillis = System.currentTimeMillis() - start;
+		int initialFiles = smallFileCount + largeFileCount;
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"config\": {\"smallFiles\": "+smallFileCount+", \"largeFiles\": "+largeFileCount+", \"largeMB\": "+largeMB+", \"bursts\": "+bursts+", \"burstFiles\": "+burstFiles);
+		json.append(", \"latencyMillis\": "+latencyMillis+", \"mbit\": "+mbit+", \"uploads\": "+uploads+", \"asciiArmor\": "+asciiArmor+"},\n");
+		json.append("  \"initialSync\": "+report("INITIAL SYNC", initialFiles, inputBytes, initialMillis, null)+",\n");
+		benchmark.latencies.clear();
+
+		long burstBytes = 0;
+		long burstMillis = 0;
+		for (int i=0; i<bursts; i++) {
+			long burstStart = System.currentTimeMillis();
+			burstBytes += benchmark.modifySmallFiles(burstFiles);
+			benchmark.awaitStored();
+			burstMillis += System.currentTimeMillis() - burstStart;
+		}
+		List<Long> burstLatencies = new ArrayList<>(benchmark.latencies);
+		json.append("  \"bursts\": "+report("BURSTS", bursts*burstFiles, burstBytes, burstMillis, burstLatencies)+",\n");
+		long peakHeap = getPeakHeap();
+		System.out.println("PEAK HEAP: "+(peakHeap >> 20)+" MB");
+		System.out.println("STORE: "+cloud);
+		json.append("  \"peakHeapMB\": "+(peakHeap >> 20)+"\n");
+		json.append("}\n");
+		writeResult(json.toString());
+
+		syncThread.interrupt();
+		syncThread.join(10000);
+		deleteRecursive(workFolder);
+		// the folder watcher thread is not stopped by the interrupt
+		System.exit(0);
+	}
+
+	private long generateInput(int smallFileCount, int largeFileCount, long largeFileSize) throws IOException {
+		long result = 0;
+		for (int i=0; i<smallFileCount; i++) {
+			Path file = inputFolder.resolve("folder"+(i/FILES_PER_FOLDER)).resolve("file"+i+".dat");
+			result += writeRandom(file, 1+random.nextInt(MAX_SMALL_FILE_SIZE));
+			smallFiles.add(file);
+		}
+		for (int i=0; i<largeFileCount; i++) {
+			Path file = inputFolder.resolve("large").resolve("large"+i+".bin");
+			result += writeRandom(file, largeFileSize);
+			largeFiles.add(file);
+		}
+		return result;
+	}
+
+	/**
+	 * rewrite random small files with new content in a short time, like a program saving many files.
+	 */
+	private long modifySmallFiles(int count) throws IOException {
+		long result = 0;
+		List<Path> files = new ArrayList<>(smallFiles);
+		Collections.shuffle(files, random);
+		for (Path file:files.subList(0, Math.min(count, files.size()))) {
+			result += writeRandom(file, 1+random.nextInt(MAX_SMALL_FILE_SIZE));
+			pending.put(inputFolder.relativize(file), System.currentTimeMillis());
+		}
+		return result;
+	}
+
+	private long writeRandom(Path file, long size) throws IOException {
+		Files.createDirectories(file.getParent());
+		byte[] block = new byte[(int) Math.min(size, 1 << 20)];
+		try (OutputStream out = Files.newOutputStream(file)) {
+			long remaining = size;
+			while (remaining > 0) {
+				random.nextBytes(block);
+				int cnt = (int) Math.min(remaining, block.length);
+				out.write(block, 0, cnt);
+				remaining -= cnt;
+			}
+		}
+		return size;
+	}
+
+	private void expectAll() {
+		long now = System.currentTimeMillis();
+		for (Path file:smallFiles) {
+			pending.put(inputFolder.relativize(file), now);
+		}
+		for (Path file:largeFiles) {
+			pending.put(inputFolder.relativize(file), now);
+		}
+	}
+
+	/**
+	 * called by the RecordingTargetStore in the sync workers.
+	 */
+	private void stored(Path relSource) {
+		Long writeTimestamp = pending.remove(relSource);
+		if (writeTimestamp != null) {
+			latencies.add(System.currentTimeMillis() - writeTimestamp);
+		}
+	}
+
+	private void awaitStored() throws InterruptedException {
+		long timeout = System.currentTimeMillis() + STORED_TIMEOUT_MS;
+		while (!pending.isEmpty()) {
+			if (System.currentTimeMillis() > timeout) {
+				throw new IllegalStateException(pending.size()+" files not stored after "+STORED_TIMEOUT_MS+"ms");
+			}
+			Thread.sleep(100);
+		}
+	}
+
+	private static String report(String title, int files, long bytes, long millis, List<Long> latencies) {
+		double seconds = Math.max(millis, 1) / 1000.0;
+		double filesPerSecond = files / seconds;
+		double mbPerSecond = bytes / seconds / (1 << 20);
+		String text = String.format("%s: %d files, %d MB in %.1fs, %.1f files/s, %.2f MB/s", title, files, bytes >> 20, seconds, filesPerSecond, mbPerSecond);
+		String json = String.format(Locale.ROOT, "{\"files\": %d, \"bytes\": %d, \"millis\": %d, \"filesPerSecond\": %.2f, \"mbPerSecond\": %.3f", files, bytes, millis, filesPerSecond, mbPerSecond);
+		if ((latencies != null) && !latencies.isEmpty()) {
+			Collections.sort(latencies);
+			long p50 = percentile(latencies, 50);
+			long p90 = percentile(latencies, 90);
+			long p99 = percentile(latencies, 99);
+			long max = latencies.get(latencies.size()-1);
+			text += ", change to upload latency p50="+p50+"ms, p90="+p90+"ms, p99="+p99+"ms, max="+max+"ms";
+			json += ", \"latencyMillis\": {\"p50\": "+p50+", \"p90\": "+p90+", \"p99\": "+p99+", \"max\": "+max+"}";
+		}
+		System.out.println(text);
+		return json+"}";
+	}
+
+	private static long percentile(List<Long> sortedValues, int percent) {
+		int index = (int) Math.ceil(percent / 100.0 * sortedValues.size()) - 1;
+		return sortedValues.get(Math.max(0, Math.min(index, sortedValues.size()-1)));
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * sum of the peaks of the heap pools, the pools may peak at different times, so this is an upper bound.
+	 */
+	private static long getPeakHeap() {
+		long result = 0;
+		for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+
+	private static void writeResult(String json) throws IOException {
+		String version = SyncThroughputBenchmark.class.getPackage().getImplementationVersion();
+		if (version == null) {
+			version = "dev";
+		}
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		Path resultFile = Paths.get(RESULTS_FOLDER, "sync-"+version+"-"+timestamp+".json");
+		Files.createDirectories(resultFile.getParent());
+		try (PrintStream out = new PrintStream(resultFile.toFile(), StandardCharsets.UTF_8.name())) {
+			out.print(json);
+		}
+		System.out.println("results written to "+resultFile);
+	}
+
+	private static void deleteRecursive(Path folder) throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try (Stream<Path> walk = Files.walk(folder)) {
+			walk.forEach(paths::add);
+		}
+		Collections.reverse(paths);
+		for (Path path:paths) {
+			Files.deleteIfExists(path);
+		}
+	}
+
+}
@@ -3,6 +3,13 @@ package de.hechler.pgpencrypter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.pcloud.PCloudUploader;
+import de.hechler.pgpencrypter.persist.SyncStateStore;
+import de.hechler.pgpencrypter.utils.CommandLineOptions;
+import de.hechler.pgpencrypter.utils.ConsoleLogging;
 
 
 /**
@@ -14,58 +21,73 @@ import java.nio.file.Paths;
  */
 public class PGPCloudEncrypter {
 
+	private final static Logger LOG = Logger.getLogger(PGPCloudEncrypter.class.getName());
+
 	private final static String DEFAULT_PUBLIC_KEY = "./local/appdata/encrypt-key.pub";
 	private final static String DEFAULT_INPUT_FOLDER = "./local/input";
 	private final static String DEFAULT_CLOUD_FOLDERNAME = "/crypt";
 	private final static String DEFAULT_SYNC_CACHE_CSV_FILE = "./local/appdata/synced-files.csv";
-	private final static String DEFAULT_TEMP_UPLOAD_FILE = "./local/appdata/upload-file.tmp";
+	private final static int DEFAULT_UPLOAD_SLOTS = 4;
+	private final static int DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+	private final static int DEFAULT_CHUNKED_UPLOAD_MB = 64;
 	
 	
 	public static void main(String[] args) {
-		System.out.println("EncryptIt start");
-		String publicKeyFilename = DEFAULT_PUBLIC_KEY;
-		String inputFolder = DEFAULT_INPUT_FOLDER;
-		String cloudFoldername = DEFAULT_CLOUD_FOLDERNAME;
-		String syncCacheCSVFilename = DEFAULT_SYNC_CACHE_CSV_FILE;
-		String tempUploadFilename = DEFAULT_TEMP_UPLOAD_FILE;
+		CommandLineOptions cmdLine = new CommandLineOptions(args);
+		ConsoleLogging.configure(cmdLine.getOption("log-level", "INFO"));
+		LOG.info("EncryptIt start");
+		String publicKeyFilename = cmdLine.getArg(0, DEFAULT_PUBLIC_KEY);
+		String inputFolder = cmdLine.getArg(1, DEFAULT_INPUT_FOLDER);
+		String cloudFoldername = cmdLine.getArg(2, DEFAULT_CLOUD_FOLDERNAME);
+		String syncCacheCSVFilename = cmdLine.getArg(3, DEFAULT_SYNC_CACHE_CSV_FILE);
+		int uploadSlots = cmdLine.getIntOption("uploads", DEFAULT_UPLOAD_SLOTS);
+		int idleTimeoutSeconds = cmdLine.getIntOption("idle-timeout", DEFAULT_IDLE_TIMEOUT_SECONDS);
+		boolean persistFolderCache = cmdLine.getBooleanOption("folder-cache", true);
+		long chunkedUploadMB = cmdLine.getIntOption("chunked-upload-mb", DEFAULT_CHUNKED_UPLOAD_MB);
+		boolean dedup = cmdLine.getBooleanOption("dedup", true);
+		int deltaSyncMB = cmdLine.getIntOption("delta-mb", 0);
+		boolean asciiArmor = cmdLine.getBooleanOption("armor", true);
+		CompressionPolicy compression = CompressionPolicy.fromString(cmdLine.getOption("compression", CompressionPolicy.AUTO.name()));
+		SyncStateStore.Format cacheFormat = SyncStateStore.Format.valueOf(cmdLine.getOption("cache-format", SyncStateStore.Format.LOG.name()).toUpperCase());
+		SyncStateStore.Durability cacheDurability = SyncStateStore.Durability.valueOf(cmdLine.getOption("durability", SyncStateStore.Durability.BATCH.name()).toUpperCase());
+		int metricsPort = cmdLine.getIntOption("metrics-port", 0);
 		
-		if (args.length>=1) {
-			publicKeyFilename = args[0];
-		}
-		if (args.length>=2) {
-			inputFolder = args[1];
-		}
-		if (args.length>=3) {
-			cloudFoldername = args[2];
-		}
-		if (args.length>=4) {
-			syncCacheCSVFilename = args[3];
-		}
-		if (args.length>=5) {
-			tempUploadFilename = args[4];
-		}
 		Path publicKey = Paths.get(publicKeyFilename);
 		Path sourceFolder = Paths.get(inputFolder);
 		Path cloudFolder = Paths.get(cloudFoldername);
 		Path syncCacheCSVFile = Paths.get(syncCacheCSVFilename);
-		Path tempUploadFile = Paths.get(tempUploadFilename);
+		PCloudUploader.configureConnectionPool(Math.max(uploadSlots, 5), idleTimeoutSeconds);
 		while (true) {
-			SyncCloudEncrypted sync = new SyncCloudEncrypted(publicKey, sourceFolder, cloudFolder, syncCacheCSVFile, tempUploadFile);
+			SyncCloudEncrypted sync = new SyncCloudEncrypted(publicKey, sourceFolder, cloudFolder, syncCacheCSVFile);
+			sync.setUploadSlots(uploadSlots);
+			sync.setPersistFolderCache(persistFolderCache);
+			sync.setChunkedUploadThreshold(chunkedUploadMB << 20);
+			if (!dedup) {
+				sync.setDedupMinSize(Long.MAX_VALUE);
+			}
+			if (deltaSyncMB > 0) {
+				sync.setDeltaSyncThreshold(((long) deltaSyncMB) << 20);
+			}
+			sync.setAsciiArmor(asciiArmor);
+			sync.setCompression(compression);
+			sync.setCacheFormat(cacheFormat);
+			sync.setCacheDurability(cacheDurability);
+			sync.setMetricsPort(metricsPort);
 			sync.startSync();
-			System.err.println("DISCONNECTED, waiting for folder "+sourceFolder);
+			LOG.warning("DISCONNECTED, waiting for folder "+sourceFolder);
 			// MAYBE a good idea to have this outside of Java (restart java program)?
 			while (true) {
 				try {
 					Thread.sleep(60000);
 				} catch (InterruptedException e) {
-					System.out.println("EncryptIt finished");
+					LOG.info("EncryptIt finished");
 					return;
 				}
 				if (Files.isDirectory(sourceFolder)) {
 					break;
 				}
 			}				
-			System.out.println("RECONNECTING");
+			LOG.info("RECONNECTING");
 		}
 	}
 
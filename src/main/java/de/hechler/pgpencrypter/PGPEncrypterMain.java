@@ -3,6 +3,12 @@ package de.hechler.pgpencrypter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.persist.SyncStateStore;
+import de.hechler.pgpencrypter.utils.CommandLineOptions;
+import de.hechler.pgpencrypter.utils.ConsoleLogging;
 
 /**
  * https://gh.pgpainless.org/
@@ -13,53 +19,66 @@ import java.nio.file.Paths;
  */
 public class PGPEncrypterMain {
 
+	private final static Logger LOG = Logger.getLogger(PGPEncrypterMain.class.getName());
+
 	private final static String DEFAULT_PUBLIC_KEY = "./testdata/keys/encryptittest.pub";
 	private final static String DEFAULT_INPUT_FOLDER = "C:\\DEV\\NEXTCLOUD\\DATA";
 	private final static String DEFAULT_OUTPUT_FOLDER = "C:\\DEV\\NEXTCLOUD\\ENCDATA";
 	private final static String DEFAULT_SYNC_CACHE_CSV_FILE = "./testdata/cache/sync-cache.csv";
+	private final static int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 	
 	
 	
 	public static void main(String[] args) {
-		System.out.println("EncryptIt start");
-		String publicKeyFilename = DEFAULT_PUBLIC_KEY;
-		String inputFolder = DEFAULT_INPUT_FOLDER;
-		String outputFolder = DEFAULT_OUTPUT_FOLDER;
-		String syncCacheCSVFilename = DEFAULT_SYNC_CACHE_CSV_FILE;
+		CommandLineOptions cmdLine = new CommandLineOptions(args);
+		ConsoleLogging.configure(cmdLine.getOption("log-level", "INFO"));
+		LOG.info("EncryptIt start");
+		String publicKeyFilename = cmdLine.getArg(0, DEFAULT_PUBLIC_KEY);
+		String inputFolder = cmdLine.getArg(1, DEFAULT_INPUT_FOLDER);
+		String outputFolder = cmdLine.getArg(2, DEFAULT_OUTPUT_FOLDER);
+		String syncCacheCSVFilename = cmdLine.getArg(3, DEFAULT_SYNC_CACHE_CSV_FILE);
+		int workerThreads = cmdLine.getIntOption("workers", DEFAULT_WORKER_THREADS);
+		boolean dedup = cmdLine.getBooleanOption("dedup", true);
+		int deltaSyncMB = cmdLine.getIntOption("delta-mb", 0);
+		boolean asciiArmor = cmdLine.getBooleanOption("armor", true);
+		CompressionPolicy compression = CompressionPolicy.fromString(cmdLine.getOption("compression", CompressionPolicy.AUTO.name()));
+		SyncStateStore.Format cacheFormat = SyncStateStore.Format.valueOf(cmdLine.getOption("cache-format", SyncStateStore.Format.LOG.name()).toUpperCase());
+		SyncStateStore.Durability cacheDurability = SyncStateStore.Durability.valueOf(cmdLine.getOption("durability", SyncStateStore.Durability.BATCH.name()).toUpperCase());
+		int metricsPort = cmdLine.getIntOption("metrics-port", 0);
 		
-		if (args.length>=1) {
-			publicKeyFilename = args[0];
-		}
-		if (args.length>=2) {
-			inputFolder = args[1];
-		}
-		if (args.length>=3) {
-			outputFolder = args[2];
-		}
-		if (args.length>=4) {
-			syncCacheCSVFilename = args[3];
-		}
 		Path publicKey = Paths.get(publicKeyFilename);
 		Path sourceFolder = Paths.get(inputFolder);
 		Path targetFolder = Paths.get(outputFolder);
 		Path syncCacheCSVFile = Paths.get(syncCacheCSVFilename);
 		while (true) {
 			SyncEncrypted sync = new SyncEncrypted(publicKey, sourceFolder, targetFolder, syncCacheCSVFile);
+			sync.setWorkerThreads(workerThreads);
+			if (!dedup) {
+				sync.setDedupMinSize(Long.MAX_VALUE);
+			}
+			if (deltaSyncMB > 0) {
+				sync.setDeltaSyncThreshold(((long) deltaSyncMB) << 20);
+			}
+			sync.setAsciiArmor(asciiArmor);
+			sync.setCompression(compression);
+			sync.setCacheFormat(cacheFormat);
+			sync.setCacheDurability(cacheDurability);
+			sync.setMetricsPort(metricsPort);
 			sync.startSync();
-			System.err.println("DISCONNECTED, waiting for folder "+sourceFolder);
+			LOG.warning("DISCONNECTED, waiting for folder "+sourceFolder);
 			// MAYBE a good idea to have this outside of Java (restart java program)?
 			while (true) {
 				try {
 					Thread.sleep(60000);
 				} catch (InterruptedException e) {
-					System.out.println("EncryptIt finished");
+					LOG.info("EncryptIt finished");
 					return;
 				}
 				if (Files.isDirectory(sourceFolder)) {
 					break;
 				}
 			}				
-			System.out.println("RECONNECTING");
+			LOG.info("RECONNECTING");
 		}
 	}
 
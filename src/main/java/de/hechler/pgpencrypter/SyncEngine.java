@@ -0,0 +1,868 @@
+package de.hechler.pgpencrypter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+import de.hechler.pgpencrypter.delta.ChunkIndex;
+import de.hechler.pgpencrypter.delta.ChunkList;
+import de.hechler.pgpencrypter.delta.DeltaEncrypter;
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+import de.hechler.pgpencrypter.filesystem.DedupIndex;
+import de.hechler.pgpencrypter.filesystem.FileChangesCollector;
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+import de.hechler.pgpencrypter.filesystem.FolderScanner;
+import de.hechler.pgpencrypter.filesystem.FolderWatcher;
+import de.hechler.pgpencrypter.filesystem.MoveDetector;
+import de.hechler.pgpencrypter.filesystem.SyncedFilesIndex;
+import de.hechler.pgpencrypter.hash.FileHasher;
+import de.hechler.pgpencrypter.hash.Sha256FileHasher;
+import de.hechler.pgpencrypter.metrics.PrometheusEndpoint;
+import de.hechler.pgpencrypter.metrics.SyncMetrics;
+import de.hechler.pgpencrypter.metrics.SyncMetrics.Stage;
+import de.hechler.pgpencrypter.pcloud.ChunkedUploadApi;
+import de.hechler.pgpencrypter.pcloud.ChunkedUploader;
+import de.hechler.pgpencrypter.pcloud.ChunkedUploader.ChunkedUpload;
+import de.hechler.pgpencrypter.persist.SyncStateStore;
+import de.hechler.pgpencrypter.store.EncryptingContent;
+import de.hechler.pgpencrypter.store.TargetStore;
+import de.hechler.pgpencrypter.utils.Hex;
+import de.hechler.pgpencrypter.utils.UploadScheduler;
+
+
+
+
+/**
+ * Watches the input folder and writes an encrypted copy of each changed file into the target store.
+ *
+ * The name of an encrypted file contains a short hash of the content, the file is written
+ * under a temporary name and renamed when the hash is known.
+ *
+ * @author feri
+ *
+ */
+public class SyncEngine {
+
+	private final static Logger LOG = Logger.getLogger(SyncEngine.class.getName());
+
+	private static final boolean TRUST_LAST_MODIFIED_TIMESTAMP = true;
+	private static final int DEFAULT_QUEUE_SIZE = 20;
+	private static final long DEFAULT_CHUNKED_UPLOAD_THRESHOLD = 64L << 20;
+	/** staging files and progress of chunked uploads, next to the sync cache */
+	private static final String CHUNKED_UPLOADS_FOLDERNAME = "uploads";
+	private static final long IDLE_TIMEOUT_MS = 60000;
+	private static final long DEFAULT_DEDUP_MIN_SIZE = 1L << 20;
+	private static final int DELETE_BATCH_SIZE = 500;
+	private static final long DELETE_BATCH_DELAY_MS = 2000;
+	/** retry interval of deletions held back for possible moves */
+	private static final long DELETE_DEFER_MS = 30000;
+	/** chunk lists of the files synced in chunks, next to the sync cache */
+	private static final String CHUNK_INDEX_SUFFIX = ".chunks.csv";
+
+	private Path publicKey;
+	private Path inputFolder;
+	private TargetStore store;
+	private Path syncCacheCSVFile;
+
+	private int workers;
+	private int queueSize;
+	private boolean hashBeforeWrite;
+
+	private boolean asciiArmor;
+	private CompressionPolicy compression;
+
+	private SyncStateStore.Format cacheFormat;
+	private SyncStateStore.Durability cacheDurability;
+	private SyncStateStore syncStateStore;
+	private SyncedFilesIndex syncedFiles;
+
+	private ChunkedUploader chunkedUploader;
+	private long chunkedUploadThreshold;
+	private long dedupMinSize;
+	private DedupIndex dedupIndex;
+	private MoveDetector moveDetector;
+	/** deleted source paths, only used by the thread running the sync loop */
+	private List<Path> pendingDeletions;
+	private long pendingDeletionsSince;
+	private long deltaSyncThreshold;
+	private DeltaEncrypter deltaEncrypter;
+	private SyncMetrics metrics;
+	private int metricsPort;
+	private FileHasher fileHasher;
+
+	public SyncEngine(Path publicKey, Path inputFolder, TargetStore store, Path syncCacheCSVFile) {
+		this.publicKey = publicKey;
+		this.inputFolder = inputFolder;
+		this.store = store;
+		this.syncCacheCSVFile = syncCacheCSVFile;
+		this.workers = 1;
+		this.queueSize = DEFAULT_QUEUE_SIZE;
+		this.hashBeforeWrite = true;
+		this.asciiArmor = true;
+		this.compression = CompressionPolicy.AUTO;
+		this.cacheFormat = SyncStateStore.Format.LOG;
+		this.cacheDurability = SyncStateStore.Durability.BATCH;
+		this.syncStateStore = null;
+		this.syncedFiles = new SyncedFilesIndex();
+		this.chunkedUploader = null;
+		this.chunkedUploadThreshold = DEFAULT_CHUNKED_UPLOAD_THRESHOLD;
+		this.dedupMinSize = DEFAULT_DEDUP_MIN_SIZE;
+		this.dedupIndex = new DedupIndex(dedupMinSize);
+		this.moveDetector = new MoveDetector();
+		this.pendingDeletions = new ArrayList<>();
+		this.pendingDeletionsSince = 0;
+		this.deltaSyncThreshold = Long.MAX_VALUE;
+		this.deltaEncrypter = null;
+		this.metrics = new SyncMetrics();
+		this.metricsPort = 0;
+		this.fileHasher = new Sha256FileHasher();
+	}
+
+	/**
+	 * number of files encrypted and written in parallel, events for the same file are always processed one after the other.
+	 */
+	public void setWorkers(int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("at least one worker required: "+workers);
+		}
+		this.workers = workers;
+	}
+
+	/**
+	 * number of changed files waiting for a worker before the folder scan is blocked.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * hash a changed file before it is encrypted, so touched but unchanged files are not written again.
+	 * Without, the hash is calculated while encrypting and the written file is discarded if unchanged.
+	 * Reading the file twice is cheaper than an unneeded upload, but not than writing a local file.
+	 */
+	public void setHashBeforeWrite(boolean hashBeforeWrite) {
+		this.hashBeforeWrite = hashBeforeWrite;
+	}
+
+	/**
+	 * files of at least this size are uploaded in resumable chunks from a local staging file,
+	 * if the store supports chunked uploads.
+	 */
+	public void setChunkedUploadThreshold(long chunkedUploadThreshold) {
+		this.chunkedUploadThreshold = chunkedUploadThreshold;
+	}
+
+	/**
+	 * files of at least this size are hashed before encryption, if a synced file with the same content exists,
+	 * its target file is copied inside the store instead of encrypting and writing the content again.
+	 * Long.MAX_VALUE disables deduplication.
+	 */
+	public void setDedupMinSize(long dedupMinSize) {
+		this.dedupMinSize = dedupMinSize;
+	}
+
+	/**
+	 * files of at least this size are synced as content defined chunks with an encrypted manifest,
+	 * after a change only the changed chunks are encrypted and written.
+	 * Long.MAX_VALUE (default) disables the delta sync.
+	 */
+	public void setDeltaSyncThreshold(long deltaSyncThreshold) {
+		this.deltaSyncThreshold = deltaSyncThreshold;
+	}
+
+	/**
+	 * hashes changed files before encrypting, it has to calculate the plain SHA-256 like the encryption does,
+	 * the hash is compared with the synced hash and part of the target filename.
+	 */
+	public void setFileHasher(FileHasher fileHasher) {
+		this.fileHasher = fileHasher;
+	}
+
+	/**
+	 * binary output is about 25% smaller and cheaper to produce than ascii armored output.
+	 */
+	public void setAsciiArmor(boolean asciiArmor) {
+		this.asciiArmor = asciiArmor;
+	}
+
+	public void setCompression(CompressionPolicy compression) {
+		this.compression = compression;
+	}
+
+	public void setCacheFormat(SyncStateStore.Format cacheFormat) {
+		this.cacheFormat = cacheFormat;
+	}
+
+	/**
+	 * BATCH writes the cache in the background, after a crash the files synced in the last second are synced again.
+	 */
+	public void setCacheDurability(SyncStateStore.Durability cacheDurability) {
+		this.cacheDurability = cacheDurability;
+	}
+
+	/**
+	 * serve the metrics for Prometheus on http://127.0.0.1:&lt;port&gt;/metrics while syncing, 0 (default) disables the endpoint.
+	 * The metrics are always available via JMX.
+	 */
+	public void setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+
+	public TargetStore getStore() {
+		return store;
+	}
+
+	public SyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return a file next to the sync cache, named like the sync cache with the suffix instead of ".csv".
+	 */
+	protected Path getCacheSiblingFile(String suffix) {
+		String basename = syncCacheCSVFile.getFileName().toString();
+		if (basename.toLowerCase().endsWith(".csv")) {
+			basename = basename.substring(0, basename.length()-4);
+		}
+		return syncCacheCSVFile.resolveSibling(basename+suffix);
+	}
+
+	public boolean readCache() {
+		syncedFiles = new SyncedFilesIndex();
+		dedupIndex = new DedupIndex(dedupMinSize);
+		try {
+			if (syncStateStore != null) {
+				syncStateStore.close();
+			}
+			syncStateStore = SyncStateStore.open(syncCacheCSVFile, cacheFormat, cacheDurability);
+			syncStateStore.load(fi -> syncedFiles.put(fi.file, fi), file -> syncedFiles.remove(file));
+			for (FileInfo fi:syncedFiles.values()) {
+				dedupIndex.put(fi);
+			}
+			return true;
+		}
+		catch (RuntimeException e) {
+			LOG.warning("Error reading synced files cache: "+e.toString());
+			return false;
+		}
+	}
+
+
+	public boolean save(FileInfo fi) {
+		long start = System.nanoTime();
+		boolean ok = syncStateStore.save(fi);
+		metrics.record(Stage.CACHE_SAVE, start);
+		if (ok && !syncStateStore.needsCompaction(syncedFiles.size())) {
+			return true;
+		}
+		return fullSaveCache();
+	}
+
+
+	public synchronized boolean fullSaveCache() {
+		long start = System.nanoTime();
+		boolean result = syncStateStore.compact(syncedFiles.values());
+		metrics.record(Stage.CACHE_SAVE, start);
+		return result;
+	}
+
+	public void startSync() {
+		UploadScheduler scheduler = null;
+		PrometheusEndpoint metricsEndpoint = null;
+		boolean storeOpened = false;
+		try {
+			metrics.registerMBean();
+			if (metricsPort > 0) {
+				metricsEndpoint = new PrometheusEndpoint(metrics, metricsPort);
+				metricsEndpoint.start();
+			}
+			Files.createDirectories(inputFolder);
+			if (syncCacheCSVFile.getParent() != null) {
+				Files.createDirectories(syncCacheCSVFile.getParent());
+			}
+			if (!readCache()) {
+				throw new IOException("sync cache '"+syncCacheCSVFile+"' is not readable");
+			}
+			LOG.info("synced files cache entries: "+syncedFiles.size());
+			store.open();
+			storeOpened = true;
+			ChunkedUploadApi chunkedUploadApi = store.getChunkedUploadApi();
+			if (chunkedUploadApi != null) {
+				chunkedUploader = new ChunkedUploader(chunkedUploadApi, syncCacheCSVFile.resolveSibling(CHUNKED_UPLOADS_FOLDERNAME));
+			}
+			Encrypter enc = new Encrypter(publicKey, asciiArmor, compression);
+			if (deltaSyncThreshold != Long.MAX_VALUE) {
+				ChunkIndex chunkIndex = new ChunkIndex(getCacheSiblingFile(CHUNK_INDEX_SUFFIX));
+				chunkIndex.load();
+				LOG.info("chunk index entries: "+chunkIndex.size());
+				deltaEncrypter = new DeltaEncrypter(enc, store, chunkIndex);
+			}
+			FileChangesCollector collector = new FileChangesCollector();
+			collector.setDeleteListener(this::fileDeleted);
+			FolderScanner scanner = new FolderScanner(inputFolder, relPath -> syncedFiles.get(relPath), this::preCheckNoChanges, collector);
+			scanner.setSyncedFiles(syncedFiles);
+			collector.setFolderScanner(scanner);
+			FolderWatcher fw = new FolderWatcher(inputFolder, collector);
+			fw.startEventLoop();
+			// catch up with changes while not running, the watcher is already active to not miss changes during the scan
+			LOG.info("CATCHUP: scanning '"+inputFolder+"' for changes since last sync");
+			collector.rescanAll();
+			scheduler = new UploadScheduler(workers, queueSize);
+			UploadScheduler activeScheduler = scheduler;
+			metrics.setGauges(collector::getPendingCount, activeScheduler::getActiveCount);
+			String lastStatistics = "";
+			while (true) {
+				long timeout = pendingDeletions.isEmpty() ? IDLE_TIMEOUT_MS : Math.max(1, pendingDeletionsSince + DELETE_BATCH_DELAY_MS - System.currentTimeMillis());
+				FileInfo currentFI = collector.getNextChangedFile(timeout);
+				if ((currentFI != null) && isDeletionBatchDue(currentFI == FileChangesCollector.TIMEOUT_FILEINFO)) {
+					applyDeletions();
+				}
+				if (currentFI == FileChangesCollector.TIMEOUT_FILEINFO) {
+					String statistics = scheduler+", "+metrics+", "+dedupIndex+", "+moveDetector+", "+(deltaEncrypter != null ? deltaEncrypter+", " : "")+store;
+					if (!statistics.equals(lastStatistics)) {
+						LOG.info("IDLE: "+statistics);
+						lastStatistics = statistics;
+						store.flush();
+						if (deltaEncrypter != null) {
+							deltaEncrypter.getChunkIndex().save();
+						}
+					}
+					continue;
+				}
+				if (currentFI == null) {
+					// all watched folders got invalid (folder deleted?), pending deletions are not applied
+					break;
+				}
+				if (FileChangesCollector.isDeleted(currentFI)) {
+					addDeletion(currentFI.file);
+					continue;
+				}
+				scheduler.submit(currentFI.file, () -> processChangedFile(enc, currentFI));
+			}
+			scheduler.awaitIdle();
+			LOG.info("EncryptIt finished, "+scheduler+", "+metrics+", "+dedupIndex+", "+moveDetector+", "+(deltaEncrypter != null ? deltaEncrypter+", " : "")+store);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.info("EncryptIt interrupted");
+		} finally {
+			if (scheduler != null) {
+				scheduler.shutdown();
+			}
+			metrics.setGauges(() -> 0, () -> 0);
+			if (metricsEndpoint != null) {
+				metricsEndpoint.stop();
+			}
+			metrics.unregisterMBean();
+			if (chunkedUploader != null) {
+				chunkedUploader.shutdown();
+				chunkedUploader = null;
+			}
+			if (deltaEncrypter != null) {
+				deltaEncrypter.getChunkIndex().save();
+				deltaEncrypter = null;
+			}
+			if (storeOpened) {
+				store.close();
+			}
+			closeCache();
+		}
+	}
+
+	private void closeCache() {
+		if (syncStateStore != null) {
+			syncStateStore.close();
+			syncStateStore = null;
+		}
+	}
+
+	private void addDeletion(Path file) {
+		if (pendingDeletions.isEmpty()) {
+			pendingDeletionsSince = System.currentTimeMillis();
+		}
+		pendingDeletions.add(inputFolder.relativize(file));
+	}
+
+	private boolean isDeletionBatchDue(boolean idle) {
+		if (pendingDeletions.isEmpty()) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		// held back deletions move pendingDeletionsSince into the future, a full batch does not bypass that
+		return idle || ((pendingDeletions.size() >= DELETE_BATCH_SIZE) && (now >= pendingDeletionsSince)) || (now >= pendingDeletionsSince + DELETE_BATCH_DELAY_MS);
+	}
+
+	/**
+	 * remove the cache entries and target files of deleted source files and folders.
+	 * The target files are deleted in one batch, a deleted folder is removed in the store with one call.
+	 * Paths with deleted files which may still be moved are held back, the workers need their entries and target files.
+	 */
+	private void applyDeletions() {
+		List<Path> deletions = pendingDeletions;
+		pendingDeletions = new ArrayList<>();
+		if (!Files.isDirectory(inputFolder)) {
+			// unmounted, do not remove everything
+			return;
+		}
+		List<FileInfo> deletedFIs = new ArrayList<>();
+		List<Path> targetFiles = new ArrayList<>();
+		List<Path> targetFolders = new ArrayList<>();
+		List<Path> deferred = new ArrayList<>();
+		for (Path relSource:deletions) {
+			if (relSource.toString().isEmpty() || Files.exists(inputFolder.resolve(relSource))) {
+				// recreated in the meantime
+				continue;
+			}
+			if (moveDetector.hasPendingMoves(relSource)) {
+				deferred.add(relSource);
+				continue;
+			}
+			FileInfo syncedFI = syncedFiles.get(relSource);
+			if (syncedFI != null) {
+				deletedFIs.add(syncedFI);
+				targetFiles.add(calcTargetFile(relSource, syncedFI.sourceHash, syncedFI.fileSize));
+				continue;
+			}
+			List<FileInfo> syncedFIsBelow = syncedFiles.valuesBelow(relSource);
+			if (!syncedFIsBelow.isEmpty()) {
+				deletedFIs.addAll(syncedFIsBelow);
+				targetFolders.add(relSource);
+			}
+		}
+		if (!deferred.isEmpty()) {
+			pendingDeletions.addAll(deferred);
+			// due again after DELETE_DEFER_MS
+			pendingDeletionsSince = System.currentTimeMillis() + DELETE_DEFER_MS - DELETE_BATCH_DELAY_MS;
+		}
+		if (deletedFIs.isEmpty()) {
+			return;
+		}
+		// remove the cache entries first, a file recreated in the meantime is synced again
+		for (FileInfo fi:deletedFIs) {
+			syncedFiles.remove(fi.file);
+			syncStateStore.remove(fi.file);
+			dedupIndex.remove(fi.sourceHash, fi.file);
+			if (deltaEncrypter != null) {
+				deltaEncrypter.getChunkIndex().remove(fi.file);
+			}
+		}
+		if (syncStateStore.needsCompaction(syncedFiles.size())) {
+			fullSaveCache();
+		}
+		metrics.filesDeleted(deletedFIs.size());
+		long start = System.nanoTime();
+		try {
+			int cntFiles = store.deleteAll(targetFiles);
+			int cntFolders = 0;
+			for (Path folder:targetFolders) {
+				if (store.deleteFolder(folder)) {
+					cntFolders++;
+				}
+			}
+			int cntChunks = (deltaEncrypter != null) ? deltaEncrypter.deleteUnusedChunks() : 0;
+			metrics.record(Stage.DELETE, start);
+			LOG.info("DELETED "+deletedFIs.size()+" synced files, removed "+cntFiles+" target files, "+cntFolders+" target folders and "+cntChunks+" chunks");
+		} catch (IOException e) {
+			metrics.error();
+			LOG.warning("Error removing target files of "+deletedFIs.size()+" deleted files: "+e.toString());
+		}
+	}
+
+	/**
+	 * runs in a worker of the scheduler.
+	 * @return false if writing to the store failed and should be retried
+	 */
+	private boolean processChangedFile(Encrypter enc, FileInfo currentFI) {
+		try {
+			long now = System.currentTimeMillis();
+			Path sourceFile = currentFI.file;
+			Path relSource = inputFolder.relativize(sourceFile);
+			FileInfo existingFI = FileInfo.createCopy(syncedFiles.get(relSource));
+			currentFI.lastEventTimestamp = now;
+			long start = System.nanoTime();
+			currentFI.fileSize = Files.size(sourceFile);
+			currentFI.lastModifiedTimestamp = Files.getLastModifiedTime(sourceFile).toMillis();
+			metrics.record(Stage.STAT, start);
+			currentFI.sourceHash = null;
+			currentFI.targetHash = null;
+			if (preCheckNoChanges(currentFI, existingFI)) {
+				return true;
+			}
+			boolean moveCandidate = moveDetector.hasCandidates(currentFI.fileSize);
+			if (moveCandidate || dedupIndex.isCandidate(currentFI.fileSize)) {
+				currentFI.sourceHash = hashSourceFile(sourceFile);
+				if (checkNoLocalChanges(currentFI, existingFI)) {
+					return true;
+				}
+				Path moveSource = moveCandidate ? moveDetector.takeMoveSource(currentFI.fileSize, currentFI.sourceHash) : null;
+				if (moveSource != null) {
+					try {
+						if (moveSyncedFile(moveSource, currentFI, existingFI, relSource, now)) {
+							return true;
+						}
+					}
+					finally {
+						moveDetector.moveDone(moveSource);
+					}
+				}
+				if (copyDuplicate(currentFI, existingFI, relSource, now)) {
+					return true;
+				}
+			}
+			if ((deltaEncrypter != null) && (currentFI.fileSize >= deltaSyncThreshold)) {
+				return processDeltaFile(currentFI, existingFI, relSource, now);
+			}
+			if ((chunkedUploader != null) && (currentFI.fileSize >= chunkedUploadThreshold)) {
+				return processLargeFile(enc, currentFI, existingFI, relSource, now);
+			}
+			if (hashBeforeWrite && (existingFI != null) && (currentFI.sourceHash == null)) {
+				currentFI.sourceHash = hashSourceFile(sourceFile);
+				if (checkNoLocalChanges(currentFI, existingFI)) {
+					return true;
+				}
+			}
+			// the target filename contains the hash, if it is not known yet write under a temporary name and rename when the hash is known
+			boolean staging = (currentFI.sourceHash == null);
+			Path writeFile;
+			if (staging) {
+				writeFile = relSource.resolveSibling(calcStagingFilename(sourceFile.getFileName().toString()));
+			}
+			else {
+				writeFile = calcTargetFile(relSource, currentFI.sourceHash, currentFI.fileSize);
+			}
+			EncryptingContent encryptingContent = new EncryptingContent(enc, sourceFile);
+			start = System.nanoTime();
+			if (staging) {
+				store.putStaging(writeFile, encryptingContent);
+			}
+			else {
+				store.put(writeFile, encryptingContent);
+			}
+			metrics.record(Stage.WRITE, start);
+			EncryptResult encryptResult = encryptingContent.getResult();
+			if (currentFI.sourceHash == null) {
+				currentFI.sourceHash = encryptResult.sourceSHA256;
+				if (checkNoLocalChanges(currentFI, existingFI)) {
+					store.delete(writeFile);
+					return true;
+				}
+			}
+			else if ((currentFI.fileSize != encryptResult.sourceFilesize) || (!currentFI.sourceHash.equals(encryptResult.sourceSHA256))) {
+				LOG.warning("Source file '"+sourceFile+"' changed during encryption!");
+			}
+			LOG.fine("ENCRYPTED: "+relSource+"  "+encryptResult);
+			Path targetFile = calcTargetFile(relSource, encryptResult);
+			if (!targetFile.equals(writeFile)) {
+				start = System.nanoTime();
+				store.rename(writeFile, targetFile);
+				metrics.record(Stage.RENAME, start);
+			}
+			LOG.info("STORED "+targetFile);
+			removeOldTargetFile(relSource, existingFI, targetFile);
+			removeChunkList(relSource);
+			updateSyncedFile(relSource, existingFI, currentFI, encryptResult, now);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			// the scheduler retries the file
+			metrics.error();
+			LOG.warning("ERROR syncing '"+currentFI.file+"': "+e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * large files are encrypted into a local staging file and uploaded in resumable chunks,
+	 * an interrupted upload continues with the missing chunks.
+	 * @return false if the upload failed and should be retried
+	 */
+	private boolean processLargeFile(Encrypter enc, FileInfo currentFI, FileInfo existingFI, Path relSource, long now) throws IOException {
+		Path sourceFile = currentFI.file;
+		ChunkedUpload upload = chunkedUploader.resume(relSource, currentFI.fileSize, currentFI.lastModifiedTimestamp);
+		if (upload == null) {
+			if ((existingFI != null) && (currentFI.sourceHash == null)) {
+				currentFI.sourceHash = hashSourceFile(sourceFile);
+				if (checkNoLocalChanges(currentFI, existingFI)) {
+					return true;
+				}
+			}
+			long start = System.nanoTime();
+			EncryptResult encryptResult = enc.encrypt(sourceFile, chunkedUploader.getStagingFile(relSource));
+			metrics.record(Stage.ENCRYPT, start);
+			LOG.fine("ENCRYPTED: "+relSource+"  "+encryptResult);
+			if ((currentFI.sourceHash != null) && ((currentFI.fileSize != encryptResult.sourceFilesize) || (!currentFI.sourceHash.equals(encryptResult.sourceSHA256)))) {
+				LOG.warning("Source file '"+sourceFile+"' changed during encryption!");
+			}
+			upload = chunkedUploader.start(relSource, currentFI.lastModifiedTimestamp, encryptResult);
+		}
+		Path targetFile = calcTargetFile(relSource, upload.encryptResult);
+		long start = System.nanoTime();
+		long uploaded = chunkedUploader.upload(upload, targetFile);
+		metrics.record(Stage.UPLOAD, start);
+		if (uploaded == -1) {
+			metrics.error();
+			LOG.warning("ERROR uploading "+targetFile);
+			return false;
+		}
+		LOG.info("STORED "+targetFile);
+		removeOldTargetFile(relSource, existingFI, targetFile);
+		removeChunkList(relSource);
+		updateSyncedFile(relSource, existingFI, currentFI, upload.encryptResult, now);
+		return true;
+	}
+
+	/**
+	 * the file is split into content defined chunks, only chunks not in the store are encrypted and written,
+	 * the target file is an encrypted manifest of the chunks.
+	 * @return false if writing to the store failed and should be retried
+	 */
+	private boolean processDeltaFile(FileInfo currentFI, FileInfo existingFI, Path relSource, long now) throws IOException {
+		Path sourceFile = currentFI.file;
+		long start = System.nanoTime();
+		ChunkList chunkList = deltaEncrypter.split(sourceFile);
+		metrics.record(Stage.HASH, start);
+		if ((currentFI.sourceHash != null) && !currentFI.sourceHash.equals(chunkList.getSourceHash())) {
+			LOG.warning("Source file '"+sourceFile+"' changed during chunking!");
+		}
+		currentFI.sourceHash = chunkList.getSourceHash();
+		if (checkNoLocalChanges(currentFI, existingFI)) {
+			return true;
+		}
+		Path partFile = relSource.resolveSibling(calcStagingFilename(sourceFile.getFileName().toString()));
+		start = System.nanoTime();
+		EncryptResult encryptResult = deltaEncrypter.encrypt(sourceFile, chunkList, partFile);
+		metrics.record(Stage.WRITE, start);
+		LOG.fine("ENCRYPTED: "+relSource+"  "+chunkList.size()+" chunks, "+deltaEncrypter);
+		Path targetFile = calcTargetFile(relSource, encryptResult);
+		try {
+			start = System.nanoTime();
+			store.rename(partFile, targetFile);
+			metrics.record(Stage.RENAME, start);
+		}
+		catch (IOException e) {
+			deltaEncrypter.getChunkIndex().release(chunkList);
+			throw e;
+		}
+		LOG.info("STORED "+targetFile);
+		deltaEncrypter.getChunkIndex().put(relSource, chunkList);
+		removeOldTargetFile(relSource, existingFI, targetFile);
+		deltaEncrypter.deleteUnusedChunks();
+		updateSyncedFile(relSource, existingFI, currentFI, encryptResult, now);
+		return true;
+	}
+
+	/**
+	 * the target file is not a chunk manifest (anymore), release its chunks.
+	 */
+	private void removeChunkList(Path relSource) {
+		if ((deltaEncrypter != null) && (deltaEncrypter.getChunkIndex().get(relSource) != null)) {
+			deltaEncrypter.getChunkIndex().remove(relSource);
+			deltaEncrypter.deleteUnusedChunks();
+		}
+	}
+
+	/**
+	 * a synced file with the same content exists, copy its target file instead of encrypting again.
+	 * @return false if there is no such file or the copy failed
+	 */
+	private boolean copyDuplicate(FileInfo currentFI, FileInfo existingFI, Path relSource, long now) {
+		Path originalSource = dedupIndex.get(currentFI.sourceHash);
+		if ((originalSource == null) || originalSource.equals(relSource)) {
+			return false;
+		}
+		FileInfo originalFI = syncedFiles.get(originalSource);
+		if ((originalFI == null) || !currentFI.sourceHash.equals(originalFI.sourceHash) || (originalFI.targetHash == null)) {
+			// the original changed since it was indexed
+			dedupIndex.remove(currentFI.sourceHash, originalSource);
+			return false;
+		}
+		if (Files.notExists(inputFolder.resolve(originalSource)) && moveSyncedFile(originalSource, currentFI, existingFI, relSource, now)) {
+			// moved while not running or the delete event was lost
+			return true;
+		}
+		Path originalTargetFile = calcTargetFile(originalSource, originalFI.sourceHash, originalFI.fileSize);
+		Path targetFile = calcTargetFile(relSource, currentFI.sourceHash, currentFI.fileSize);
+		try {
+			if (!store.copy(originalTargetFile, targetFile)) {
+				return false;
+			}
+			LOG.info("COPIED "+originalTargetFile+" to "+targetFile);
+			if (deltaEncrypter != null) {
+				deltaEncrypter.getChunkIndex().copy(originalSource, relSource);
+				deltaEncrypter.deleteUnusedChunks();
+			}
+			removeOldTargetFile(relSource, existingFI, targetFile);
+		} catch (IOException e) {
+			LOG.warning("Error copying '"+originalTargetFile+"', encrypting again: "+e.toString());
+			dedupIndex.remove(currentFI.sourceHash, originalSource);
+			return false;
+		}
+		dedupIndex.recordHit(currentFI.fileSize);
+		EncryptResult copyResult = new EncryptResult(currentFI.fileSize, currentFI.sourceHash, -1, originalFI.targetHash);
+		updateSyncedFile(relSource, existingFI, currentFI, copyResult, now);
+		return true;
+	}
+
+	/**
+	 * the content was synced under a path which does not exist anymore, rename its target file instead of encrypting again.
+	 * @return false if the old path is not a matching synced file or the rename failed
+	 */
+	private boolean moveSyncedFile(Path fromSource, FileInfo currentFI, FileInfo existingFI, Path relSource, long now) {
+		FileInfo fromFI = syncedFiles.get(fromSource);
+		if ((fromFI == null) || (fromFI.fileSize != currentFI.fileSize) || !currentFI.sourceHash.equals(fromFI.sourceHash) || (fromFI.targetHash == null)) {
+			return false;
+		}
+		if (Files.exists(inputFolder.resolve(fromSource))) {
+			// recreated in the meantime
+			return false;
+		}
+		Path fromTargetFile = calcTargetFile(fromSource, fromFI.sourceHash, fromFI.fileSize);
+		Path targetFile = calcTargetFile(relSource, currentFI.sourceHash, currentFI.fileSize);
+		try {
+			store.rename(fromTargetFile, targetFile);
+			LOG.info("MOVED "+fromTargetFile+" to "+targetFile);
+			if (deltaEncrypter != null) {
+				deltaEncrypter.getChunkIndex().move(fromSource, relSource);
+				deltaEncrypter.deleteUnusedChunks();
+			}
+			removeOldTargetFile(relSource, existingFI, targetFile);
+		} catch (IOException e) {
+			LOG.warning("Error moving '"+fromTargetFile+"', encrypting again: "+e.toString());
+			return false;
+		}
+		moveDetector.recordMove(currentFI.fileSize);
+		syncedFiles.remove(fromSource);
+		syncStateStore.remove(fromSource);
+		dedupIndex.remove(fromFI.sourceHash, fromSource);
+		EncryptResult moveResult = new EncryptResult(currentFI.fileSize, currentFI.sourceHash, -1, fromFI.targetHash);
+		updateSyncedFile(relSource, existingFI, currentFI, moveResult, now);
+		return true;
+	}
+
+	/**
+	 * called by the FolderWatcher for deleted files and folders,
+	 * remember the synced files, a new file with the same content is a move.
+	 */
+	private void fileDeleted(Path file) {
+		Path relSource = inputFolder.relativize(file);
+		FileInfo syncedFI = syncedFiles.get(relSource);
+		if (syncedFI != null) {
+			moveDetector.fileDeleted(syncedFI);
+			return;
+		}
+		// a deleted or moved folder
+		for (FileInfo fi:syncedFiles.valuesBelow(relSource)) {
+			moveDetector.fileDeleted(fi);
+		}
+	}
+
+	private Path calcTargetFile(Path relSource, EncryptResult encryptResult) {
+		return calcTargetFile(relSource, encryptResult.sourceSHA256, encryptResult.sourceFilesize);
+	}
+
+	private Path calcTargetFile(Path relSource, String sourceHash, long sourceFilesize) {
+		String shortHash = calcShortHash(sourceHash, sourceFilesize);
+		return relSource.resolveSibling(calcHashedFilename(relSource.getFileName().toString(), shortHash));
+	}
+
+	/**
+	 * remove the target file of the previously synced content, if it is not the new target file.
+	 */
+	private void removeOldTargetFile(Path relSource, FileInfo existingFI, Path targetFile) throws IOException {
+		if (existingFI == null) {
+			return;
+		}
+		String oldShortHash = calcShortHash(existingFI.sourceHash, existingFI.fileSize);
+		Path oldTargetFile = relSource.resolveSibling(calcHashedFilename(relSource.getFileName().toString(), oldShortHash));
+		if (oldTargetFile.equals(targetFile)) {
+			return;
+		}
+		long start = System.nanoTime();
+		boolean deleted = store.delete(oldTargetFile);
+		metrics.record(Stage.DELETE, start);
+		if (deleted) {
+			LOG.info("REMOVED "+oldTargetFile);
+		}
+	}
+
+	private void updateSyncedFile(Path relSource, FileInfo existingFI, FileInfo currentFI, EncryptResult encryptResult, long now) {
+		FileInfo syncedFI = (existingFI != null) ? existingFI : new FileInfo(relSource, now, -1, -1, null, null);
+		syncedFI.lastEventTimestamp = now;
+		syncedFI.lastModifiedTimestamp = currentFI.lastModifiedTimestamp;
+		syncedFI.fileSize = encryptResult.sourceFilesize;
+		syncedFI.sourceHash = encryptResult.sourceSHA256;
+		syncedFI.targetHash = encryptResult.targetSHA256;
+		syncedFiles.put(relSource, syncedFI);
+		dedupIndex.put(syncedFI);
+		save(syncedFI);
+		metrics.fileSynced(encryptResult.sourceFilesize, encryptResult.targetFilesize);
+	}
+
+	private boolean preCheckNoChanges(FileInfo currentFI, FileInfo existingFI) {
+		if ((existingFI == null) || !TRUST_LAST_MODIFIED_TIMESTAMP) {
+			return false;
+		}
+		boolean result = (currentFI.fileSize == existingFI.fileSize) && (currentFI.lastModifiedTimestamp == existingFI.lastModifiedTimestamp);
+		metrics.preCheck(result);
+		return result;
+	}
+
+	private boolean checkNoLocalChanges(FileInfo currentFI, FileInfo existingFI) {
+		if (existingFI == null) {
+			return false;
+		}
+		if (!currentFI.sourceHash.equals(existingFI.sourceHash)) {
+			return false;
+		}
+		metrics.fileUnchanged();
+		return true;
+	}
+
+	private String calcHashedFilename(String sourceFilename, String shortHash) {
+		String result = sourceFilename;
+		int dotPos = result.lastIndexOf('.');
+		if (dotPos == -1) {
+			result = result+"-"+shortHash+".pgp";
+		}
+		else {
+			result = result.substring(0, dotPos)+"-"+shortHash+result.substring(dotPos)+".pgp";
+		}
+		return result;
+	}
+
+	private String calcStagingFilename(String sourceFilename) {
+		return "."+sourceFilename+".pgp.part";
+	}
+
+	private String hashSourceFile(Path file) throws IOException {
+		long start = System.nanoTime();
+		String result = fileHasher.hash(file);
+		metrics.record(Stage.HASH, start);
+		return result;
+	}
+
+	private String calcShortHash(String hash, long filesize) {
+		String actualParameters = "calcShortHash(\""+hash+"\","+filesize+")";
+		String result = calcSHA256(actualParameters);
+		return result.substring(0, 8);
+	}
+
+	private String calcSHA256(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return Hex.toHex(md.digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+
+}
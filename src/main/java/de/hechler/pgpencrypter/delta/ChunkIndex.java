@@ -0,0 +1,237 @@
+package de.hechler.pgpencrypter.delta;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import de.hechler.pgpencrypter.delta.ChunkList.Chunk;
+import de.hechler.pgpencrypter.persist.FastDeserializer;
+import de.hechler.pgpencrypter.persist.Serializer;
+
+/**
+ * The chunk lists of the files synced in chunks, with a reference count per chunk.
+ *
+ * Chunks are shared between files and versions of a file. A chunk is written once and deleted
+ * when no file references it anymore. Chunk lists of files being synced hold references
+ * from acquire() until they are put() or released, so their chunks are not deleted meanwhile.
+ *
+ * The index is saved next to the sync cache, it must be saved before unused chunks are deleted,
+ * otherwise a crash could leave an index referencing deleted chunks.
+ */
+public class ChunkIndex {
+
+	private final static Logger LOG = Logger.getLogger(ChunkIndex.class.getName());
+
+	private Path indexFile;
+	private Map<Path, ChunkList> files;
+	private Map<String, Integer> refs;
+	private Set<String> stored;
+	/** chunks whose reference count dropped to 0, they are deleted by takeUnused() */
+	private Set<String> unused;
+	private boolean dirty;
+
+	public ChunkIndex(Path indexFile) {
+		this.indexFile = indexFile;
+		this.files = new HashMap<>();
+		this.refs = new HashMap<>();
+		this.stored = new HashSet<>();
+		this.unused = new LinkedHashSet<>();
+		this.dirty = false;
+	}
+
+	public synchronized ChunkList get(Path file) {
+		return files.get(file);
+	}
+
+	/**
+	 * reference the chunks of a file being synced.
+	 * @return the chunks which are not stored yet, each hash only once.
+	 */
+	public synchronized List<Chunk> acquire(ChunkList chunkList) {
+		List<Chunk> result = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		for (Chunk chunk:chunkList.getChunks()) {
+			if (!seen.add(chunk.hash)) {
+				continue;
+			}
+			addRef(chunk.hash);
+			if (!stored.contains(chunk.hash)) {
+				result.add(chunk);
+			}
+		}
+		return result;
+	}
+
+	public synchronized void markStored(String hash) {
+		stored.add(hash);
+	}
+
+	/**
+	 * undo acquire(), e.g. the sync failed.
+	 */
+	public synchronized void release(ChunkList chunkList) {
+		for (String hash:chunkList.distinctHashes()) {
+			removeRef(hash);
+		}
+	}
+
+	/**
+	 * the references of the acquired chunk list go over to the file, the previous chunk list of the file is released.
+	 * @param chunkList null to remove the file.
+	 */
+	public synchronized void put(Path file, ChunkList chunkList) {
+		ChunkList previous = (chunkList == null) ? files.remove(file) : files.put(file, chunkList);
+		if (previous != null) {
+			release(previous);
+		}
+		dirty = dirty || (previous != null) || (chunkList != null);
+	}
+
+	public synchronized void remove(Path file) {
+		put(file, null);
+	}
+
+	/**
+	 * the file was copied inside the target store, the copy references the same chunks.
+	 */
+	public synchronized void copy(Path file, Path newFile) {
+		ChunkList chunkList = files.get(file);
+		if (chunkList != null) {
+			for (String hash:chunkList.distinctHashes()) {
+				addRef(hash);
+			}
+		}
+		put(newFile, chunkList);
+	}
+
+	/**
+	 * the file was renamed inside the target store.
+	 */
+	public synchronized void move(Path file, Path newFile) {
+		ChunkList chunkList = files.remove(file);
+		put(newFile, chunkList);
+	}
+
+	/**
+	 * @return the chunks not referenced anymore, they are expected to be deleted from the store by the caller.
+	 * Call while holding the lock of the index, so the chunks are not acquired again before they are deleted.
+	 */
+	public synchronized List<String> takeUnused() {
+		List<String> result = new ArrayList<>();
+		for (String hash:unused) {
+			if (!refs.containsKey(hash) && stored.remove(hash)) {
+				result.add(hash);
+			}
+		}
+		unused.clear();
+		return result;
+	}
+
+	private void addRef(String hash) {
+		refs.merge(hash, 1, Integer::sum);
+		unused.remove(hash);
+	}
+
+	private void removeRef(String hash) {
+		Integer cnt = refs.get(hash);
+		if ((cnt == null) || (cnt <= 1)) {
+			refs.remove(hash);
+			unused.add(hash);
+		}
+		else {
+			refs.put(hash, cnt-1);
+		}
+	}
+
+	public synchronized int size() {
+		return files.size();
+	}
+
+	public synchronized int getChunkCount() {
+		return stored.size();
+	}
+
+	/**
+	 * read the index saved by a previous run, all referenced chunks are stored.
+	 */
+	public synchronized void load() {
+		files.clear();
+		refs.clear();
+		stored.clear();
+		unused.clear();
+		dirty = false;
+		if (!Files.exists(indexFile)) {
+			return;
+		}
+		try (FastDeserializer deser = new FastDeserializer(indexFile)) {
+			deser.nextRecord(); // skip header
+			while (deser.nextRecord() != FastDeserializer.NO_MORE_RECORDS) {
+				Path file = Paths.get(deser.nextString());
+				long fileSize = deser.nextLong(-1);
+				String sourceHash = deser.nextString();
+				ChunkList chunkList = ChunkList.fromString(fileSize, sourceHash, deser.nextString());
+				for (String hash:chunkList.distinctHashes()) {
+					addRef(hash);
+					stored.add(hash);
+				}
+				files.put(file, chunkList);
+			}
+		}
+		catch (RuntimeException e) {
+			LOG.warning("Error reading chunk index '"+indexFile+"': "+e.toString());
+		}
+	}
+
+	/**
+	 * write the index if it changed since the last save.
+	 */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		Path tempFile = indexFile.resolveSibling(indexFile.getFileName().toString()+".tmp");
+		try {
+			try (PrintStream out = new PrintStream(tempFile.toFile(), StandardCharsets.UTF_8.name())) {
+				Serializer ser = new Serializer();
+				ser.writeHeader("file");
+				ser.writeHeader("fileSize");
+				ser.writeHeader("sourceHash");
+				ser.writeHeader("chunks");
+				out.println(ser.toString());
+				for (Map.Entry<Path, ChunkList> entry:files.entrySet()) {
+					ser = new Serializer();
+					ser.writeString(entry.getKey().toString());
+					ser.writeLong(entry.getValue().getFileSize());
+					ser.writeString(entry.getValue().getSourceHash());
+					ser.writeString(entry.getValue().chunksToString());
+					out.println(ser.toString());
+				}
+			}
+			Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		}
+		catch (IOException e) {
+			LOG.warning("Error writing chunk index '"+indexFile+"': "+e.toString());
+		}
+	}
+
+	/**
+	 * @return false if the index has unsaved changes.
+	 */
+	public synchronized boolean isSaved() {
+		return !dirty;
+	}
+
+}
@@ -0,0 +1,105 @@
+package de.hechler.pgpencrypter.delta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The content defined chunks of a file in file order, together with size and hash of the whole file.
+ */
+public class ChunkList {
+
+	public static class Chunk {
+		public final long offset;
+		public final int length;
+		public final String hash;
+		public Chunk(long offset, int length, String hash) {
+			this.offset = offset;
+			this.length = length;
+			this.hash = hash;
+		}
+		@Override
+		public String toString() {
+			return "Chunk [offset=" + offset + ", length=" + length + ", hash=" + hash + "]";
+		}
+	}
+
+	private long fileSize;
+	private String sourceHash;
+	private List<Chunk> chunks;
+
+	public ChunkList(long fileSize, String sourceHash, List<Chunk> chunks) {
+		this.fileSize = fileSize;
+		this.sourceHash = sourceHash;
+		this.chunks = Collections.unmodifiableList(chunks);
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public String getSourceHash() {
+		return sourceHash;
+	}
+
+	public List<Chunk> getChunks() {
+		return chunks;
+	}
+
+	public int size() {
+		return chunks.size();
+	}
+
+	/**
+	 * @return the hashes of all chunks, each hash only once, e.g. a file with many zero blocks.
+	 */
+	public Set<String> distinctHashes() {
+		Set<String> result = new LinkedHashSet<>();
+		for (Chunk chunk:chunks) {
+			result.add(chunk.hash);
+		}
+		return result;
+	}
+
+	/**
+	 * "hash:length,hash:length,...", the offsets follow from the lengths.
+	 */
+	public String chunksToString() {
+		StringBuilder result = new StringBuilder(chunks.size()*72);
+		for (Chunk chunk:chunks) {
+			if (result.length() > 0) {
+				result.append(',');
+			}
+			result.append(chunk.hash).append(':').append(chunk.length);
+		}
+		return result.toString();
+	}
+
+	public static ChunkList fromString(long fileSize, String sourceHash, String chunksText) {
+		List<Chunk> chunks = new ArrayList<>();
+		long offset = 0;
+		if ((chunksText != null) && !chunksText.isEmpty()) {
+			for (String chunkText:chunksText.split(",")) {
+				int colonPos = chunkText.indexOf(':');
+				if (colonPos == -1) {
+					throw new IllegalArgumentException("invalid chunk '"+chunkText+"'");
+				}
+				int length = Integer.parseInt(chunkText.substring(colonPos+1));
+				chunks.add(new Chunk(offset, length, chunkText.substring(0, colonPos)));
+				offset += length;
+			}
+		}
+		if (offset != fileSize) {
+			throw new IllegalArgumentException("chunk lengths "+offset+" do not match the file size "+fileSize);
+		}
+		return new ChunkList(fileSize, sourceHash, chunks);
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkList [fileSize=" + fileSize + ", sourceHash=" + sourceHash + ", chunks=" + chunks.size() + "]";
+	}
+
+}
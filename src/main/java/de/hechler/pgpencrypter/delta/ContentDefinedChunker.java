@@ -0,0 +1,115 @@
+package de.hechler.pgpencrypter.delta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.hechler.pgpencrypter.delta.ChunkList.Chunk;
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * Splits a file into chunks at content defined boundaries (gear rolling hash).
+ *
+ * A boundary depends only on the last 64 bytes, so inserting or appending data changes
+ * only the chunks around the modification, all other chunks keep their hash.
+ */
+public class ContentDefinedChunker {
+
+	public final static int DEFAULT_MIN_SIZE = 256 << 10;
+	public final static int DEFAULT_AVG_SIZE = 1 << 20;
+	public final static int DEFAULT_MAX_SIZE = 4 << 20;
+
+	private final static int BUFFER_SIZE = 65536;
+	/** fixed seed, the boundaries must not change between runs */
+	private final static long GEAR_SEED = 0x5EED_C0DE_0F_C4D1L;
+	private final static long[] GEAR = createGearTable();
+
+	private int minSize;
+	private int maxSize;
+	private long mask;
+
+	public ContentDefinedChunker() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param avgSize expected chunk size above minSize, rounded down to a power of two.
+	 */
+	public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+		if ((minSize < 1) || (avgSize < 2) || (maxSize < minSize)) {
+			throw new IllegalArgumentException("invalid chunk sizes "+minSize+"/"+avgSize+"/"+maxSize);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+		// the high bits of the gear hash depend on more input bytes than the low bits
+		this.mask = ((1L << bits) - 1) << (64 - bits);
+	}
+
+	public ChunkList split(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			return split(in);
+		}
+	}
+
+	public ChunkList split(InputStream in) throws IOException {
+		MessageDigest fileMD = createSHA256();
+		MessageDigest chunkMD = createSHA256();
+		List<Chunk> chunks = new ArrayList<>();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long offset = 0;
+		long chunkStart = 0;
+		int chunkLength = 0;
+		long hash = 0;
+		while (true) {
+			int cnt = in.read(buffer);
+			if (cnt == -1) {
+				break;
+			}
+			fileMD.update(buffer, 0, cnt);
+			int segmentStart = 0;
+			for (int i=0; i<cnt; i++) {
+				hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+				chunkLength++;
+				if ((chunkLength >= maxSize) || ((chunkLength >= minSize) && ((hash & mask) == 0))) {
+					chunkMD.update(buffer, segmentStart, i+1-segmentStart);
+					chunks.add(new Chunk(chunkStart, chunkLength, Hex.toHex(chunkMD.digest())));
+					segmentStart = i+1;
+					chunkStart += chunkLength;
+					chunkLength = 0;
+					hash = 0;
+				}
+			}
+			chunkMD.update(buffer, segmentStart, cnt-segmentStart);
+			offset += cnt;
+		}
+		if (chunkLength > 0) {
+			chunks.add(new Chunk(chunkStart, chunkLength, Hex.toHex(chunkMD.digest())));
+		}
+		return new ChunkList(offset, Hex.toHex(fileMD.digest()), chunks);
+	}
+
+	private static long[] createGearTable() {
+		Random random = new Random(GEAR_SEED);
+		long[] result = new long[256];
+		for (int i=0; i<result.length; i++) {
+			result[i] = random.nextLong();
+		}
+		return result;
+	}
+
+	private static MessageDigest createSHA256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+}
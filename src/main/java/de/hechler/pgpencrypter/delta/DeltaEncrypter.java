@@ -0,0 +1,209 @@
+package de.hechler.pgpencrypter.delta;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import de.hechler.pgpencrypter.delta.ChunkList.Chunk;
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+import de.hechler.pgpencrypter.store.TargetStore;
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * Syncs large files as content defined chunks, only chunks not yet in the store are encrypted and written.
+ *
+ * Each chunk is a PGP file of its own in CHUNKS_FOLDERNAME, named by a hash of its content,
+ * so chunks are shared by all files and versions with the same content.
+ * The target file of the source file is an encrypted manifest listing the chunks in file order:
+ *
+ * <pre>
+ * PGPEncrypter-Chunk-Manifest: 1
+ * file: disk.vmdk
+ * size: 8589934592
+ * sha256: &lt;hash of the whole file&gt;
+ * chunks: 8192
+ * &lt;offset&gt;;&lt;length&gt;;&lt;sha256 of the chunk&gt;;&lt;chunk file in the store&gt;
+ * ...
+ * </pre>
+ */
+public class DeltaEncrypter {
+
+	private final static Logger LOG = Logger.getLogger(DeltaEncrypter.class.getName());
+
+	public final static String CHUNKS_FOLDERNAME = ".pgpchunks";
+	public final static String MANIFEST_HEADER = "PGPEncrypter-Chunk-Manifest: 1";
+
+	private Encrypter encrypter;
+	private TargetStore store;
+	private ChunkIndex chunkIndex;
+	private ContentDefinedChunker chunker;
+	private AtomicLong files;
+	private AtomicLong chunksWritten;
+	private AtomicLong chunksReused;
+	private AtomicLong bytesReused;
+
+	public DeltaEncrypter(Encrypter encrypter, TargetStore store, ChunkIndex chunkIndex) {
+		this.encrypter = encrypter;
+		this.store = store;
+		this.chunkIndex = chunkIndex;
+		this.chunker = new ContentDefinedChunker();
+		this.files = new AtomicLong();
+		this.chunksWritten = new AtomicLong();
+		this.chunksReused = new AtomicLong();
+		this.bytesReused = new AtomicLong();
+	}
+
+	public ChunkIndex getChunkIndex() {
+		return chunkIndex;
+	}
+
+	public ChunkList split(Path sourceFile) throws IOException {
+		return chunker.split(sourceFile);
+	}
+
+	/**
+	 * write the chunks missing in the store and the manifest.
+	 * The chunks stay referenced on success, the caller puts the chunk list into the index when the manifest
+	 * got its final name or releases it.
+	 * @return sizes and hashes of the source file and the manifest
+	 */
+	public EncryptResult encrypt(Path sourceFile, ChunkList chunkList, Path manifestFile) throws IOException {
+		List<Chunk> missingChunks = chunkIndex.acquire(chunkList);
+		boolean ok = false;
+		try {
+			try (FileChannel channel = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+				for (Chunk chunk:missingChunks) {
+					putChunk(channel, sourceFile.getFileName().toString(), chunk);
+				}
+			}
+			byte[] manifest = createManifest(sourceFile.getFileName().toString(), chunkList);
+			EncryptResult manifestResult = put(manifestFile, manifest, null);
+			files.incrementAndGet();
+			chunksWritten.addAndGet(missingChunks.size());
+			long bytesWritten = 0;
+			for (Chunk chunk:missingChunks) {
+				bytesWritten += chunk.length;
+			}
+			chunksReused.addAndGet(chunkList.size()-missingChunks.size());
+			bytesReused.addAndGet(chunkList.getFileSize()-bytesWritten);
+			ok = true;
+			return new EncryptResult(chunkList.getFileSize(), chunkList.getSourceHash(), manifestResult.targetFilesize, manifestResult.targetSHA256);
+		}
+		finally {
+			if (!ok) {
+				chunkIndex.release(chunkList);
+			}
+		}
+	}
+
+	/**
+	 * the chunk is written under a temporary name, another worker may write the same chunk at the same time.
+	 */
+	private void putChunk(FileChannel channel, String filename, Chunk chunk) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(chunk.length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, chunk.offset+buffer.position()) == -1) {
+				throw new IOException("source file '"+filename+"' got shorter while syncing");
+			}
+		}
+		Path chunkFile = getChunkFile(chunk.hash);
+		Path partFile = chunkFile.resolveSibling("."+chunkFile.getFileName()+"."+Thread.currentThread().getId()+".part");
+		EncryptResult result = put(partFile, buffer.array(), filename);
+		if (!chunk.hash.equals(result.sourceSHA256)) {
+			store.delete(partFile);
+			throw new IOException("source file '"+filename+"' changed while syncing");
+		}
+		store.rename(partFile, chunkFile);
+		chunkIndex.markStored(chunk.hash);
+	}
+
+	private EncryptResult put(Path file, byte[] content, String filename) throws IOException {
+		EncryptResult[] result = new EncryptResult[1];
+		store.put(file, out -> {
+			try {
+				result[0] = encrypter.encrypt(new ByteArrayInputStream(content), out, filename);
+			}
+			catch (RuntimeException e) {
+				throw new IOException("error encrypting "+file+": "+e.toString(), e);
+			}
+		});
+		return result[0];
+	}
+
+	private byte[] createManifest(String filename, ChunkList chunkList) {
+		StringBuilder result = new StringBuilder(chunkList.size()*160);
+		result.append(MANIFEST_HEADER).append('\n');
+		result.append("file: ").append(filename).append('\n');
+		result.append("size: ").append(chunkList.getFileSize()).append('\n');
+		result.append("sha256: ").append(chunkList.getSourceHash()).append('\n');
+		result.append("chunks: ").append(chunkList.size()).append('\n');
+		for (Chunk chunk:chunkList.getChunks()) {
+			result.append(chunk.offset).append(';').append(chunk.length).append(';').append(chunk.hash).append(';');
+			result.append(getChunkFile(chunk.hash).toString().replace('\\', '/')).append('\n');
+		}
+		return result.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * like the short hashes of the target files, the name does not show the hash of the plaintext chunk directly.
+	 */
+	public static Path getChunkFile(String chunkHash) {
+		String name = calcSHA256("chunkFile(\""+chunkHash+"\")").substring(0, 32);
+		return Paths.get(CHUNKS_FOLDERNAME, name.substring(0, 2), name+".pgp");
+	}
+
+	/**
+	 * delete the chunks no file references anymore, the index is saved before.
+	 * @return number of deleted chunks
+	 */
+	public int deleteUnusedChunks() {
+		synchronized (chunkIndex) {
+			chunkIndex.save();
+			if (!chunkIndex.isSaved()) {
+				// keep the chunks, a stale index must not reference deleted chunks
+				return 0;
+			}
+			List<Path> chunkFiles = new ArrayList<>();
+			for (String hash:chunkIndex.takeUnused()) {
+				chunkFiles.add(getChunkFile(hash));
+			}
+			if (chunkFiles.isEmpty()) {
+				return 0;
+			}
+			try {
+				return store.deleteAll(chunkFiles);
+			}
+			catch (IOException e) {
+				LOG.warning("Error deleting "+chunkFiles.size()+" unused chunks: "+e.toString());
+				return 0;
+			}
+		}
+	}
+
+	private static String calcSHA256(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return Hex.toHex(md.digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "delta files="+files.get()+", chunks="+chunkIndex.getChunkCount()+", chunks written="+chunksWritten.get()+", chunks reused="+chunksReused.get()+", bytes reused="+bytesReused.get();
+	}
+
+}
@@ -0,0 +1,61 @@
+package de.hechler.pgpencrypter.encrypt;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.pgpainless.algorithm.CompressionAlgorithm;
+
+/**
+ * Compression applied to the plaintext before encryption.
+ * 
+ * AUTO uses ZIP, but skips compression for file types which are already compressed,
+ * where deflate only costs CPU without reducing the size.
+ */
+public enum CompressionPolicy {
+
+	NONE, ZIP, ZLIB, AUTO;
+
+	private final static Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"jpg", "jpeg", "png", "gif", "webp", "heic", "heif",
+			"mp3", "m4a", "aac", "ogg", "opus", "flac",
+			"mp4", "m4v", "mkv", "mov", "avi", "webm", "wmv",
+			"zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "jar", "apk",
+			"docx", "xlsx", "pptx", "odt", "ods", "odp", "epub",
+			"pgp", "gpg"
+	));
+
+	public CompressionAlgorithm algorithmFor(String filename) {
+		switch (this) {
+		case NONE:
+			return CompressionAlgorithm.UNCOMPRESSED;
+		case ZIP:
+			return CompressionAlgorithm.ZIP;
+		case ZLIB:
+			return CompressionAlgorithm.ZLIB;
+		default:
+			return isCompressedFormat(filename) ? CompressionAlgorithm.UNCOMPRESSED : CompressionAlgorithm.ZIP;
+		}
+	}
+
+	public static boolean isCompressedFormat(String filename) {
+		if (filename == null) {
+			return false;
+		}
+		int dotPos = filename.lastIndexOf('.');
+		if (dotPos == -1) {
+			return false;
+		}
+		return COMPRESSED_EXTENSIONS.contains(filename.substring(dotPos+1).toLowerCase(Locale.ROOT));
+	}
+
+	public static CompressionPolicy fromString(String text) {
+		try {
+			return valueOf(text.trim().toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("unknown compression '"+text+"', expected one of "+Arrays.toString(values()), e);
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package de.hechler.pgpencrypter.encrypt;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,19 +8,27 @@ import java.nio.file.Path;
 
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPPublicKeyRing;
-import org.bouncycastle.util.io.Streams;
 import org.pgpainless.PGPainless;
 import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
 import org.pgpainless.encryption_signing.EncryptionOptions;
 import org.pgpainless.encryption_signing.EncryptionStream;
 import org.pgpainless.encryption_signing.ProducerOptions;
 
+import de.hechler.pgpencrypter.utils.ChannelInputStream;
+import de.hechler.pgpencrypter.utils.ChannelOutputStream;
 import de.hechler.pgpencrypter.utils.ChecksumInputStream;
 import de.hechler.pgpencrypter.utils.ChecksumOutputStream;
 
 public class Encrypter {
 
+	/** copied and written in blocks, larger than the 4 KB of Streams.pipeAll() to save calls on large files */
+	public final static int DEFAULT_BLOCK_SIZE = 1 << 18;
+	private final static int MIN_BLOCK_SIZE = 1 << 12;
+
 	private PGPPublicKeyRing publicKey;
+	private boolean asciiArmor;
+	private CompressionPolicy compression;
+	private int blockSize;
 	
 	public static class EncryptResult {
 		public long sourceFilesize;
@@ -44,6 +50,13 @@ public class Encrypter {
 	}
 	
 	public Encrypter(Path publicKeyFilename) { 
+		this(publicKeyFilename, true, CompressionPolicy.ZIP);
+	}
+
+	public Encrypter(Path publicKeyFilename, boolean asciiArmor, CompressionPolicy compression) { 
+		this.asciiArmor = asciiArmor;
+		this.compression = compression;
+		this.blockSize = DEFAULT_BLOCK_SIZE;
 		try {
 			String publicKeyText = new String(Files.readAllBytes(publicKeyFilename));
 			this.publicKey = PGPainless.readKeyRing().publicKeyRing(publicKeyText);
@@ -53,6 +66,13 @@ public class Encrypter {
 	}
 
 	public Encrypter(String publicKeyText) {
+		this(publicKeyText, true, CompressionPolicy.ZIP);
+	}
+
+	public Encrypter(String publicKeyText, boolean asciiArmor, CompressionPolicy compression) {
+		this.asciiArmor = asciiArmor;
+		this.compression = compression;
+		this.blockSize = DEFAULT_BLOCK_SIZE;
 		try {
 			this.publicKey = PGPainless.readKeyRing().publicKeyRing(publicKeyText);
 		} catch (IOException e) {
@@ -60,11 +80,38 @@ public class Encrypter {
 		}
 	}
 
+	/**
+	 * size of the blocks read from the plaintext and of the writes into an output file.
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("invalid block size "+blockSize);
+		}
+		this.blockSize = blockSize;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the block size for reading or writing a file, small files do not get the full block.
+	 */
+	public int getBlockSize(long filesize) {
+		return (int) Math.min(blockSize, Math.max(filesize, MIN_BLOCK_SIZE));
+	}
+
+	/**
+	 * file to file with FileChannels, the output file is preallocated with the expected size and
+	 * truncated to the written size when closed.
+	 */
 	public EncryptResult encrypt(Path inputFilename, Path outputFilename) {
 		try {
-			try (InputStream in = new FileInputStream(inputFilename.toFile())) {
-				try (OutputStream out = new FileOutputStream(outputFilename.toFile())) {
-					return encrypt(in, out);
+			long sourceFilesize = Files.size(inputFilename);
+			int fileBlockSize = getBlockSize(sourceFilesize);
+			try (InputStream in = new ChannelInputStream(inputFilename, fileBlockSize)) {
+				try (OutputStream out = new ChannelOutputStream(outputFilename, fileBlockSize, estimateTargetFilesize(sourceFilesize))) {
+					return encrypt(in, out, inputFilename.getFileName().toString());
 				}
 			}
 		} catch (Exception e) {
@@ -73,8 +120,28 @@ public class Encrypter {
 		
 	}
 
+	/**
+	 * size of the uncompressed output, compression only makes it smaller.
+	 */
+	public long estimateTargetFilesize(long sourceFilesize) {
+		// key packet, headers and partial length packets
+		long result = sourceFilesize + (sourceFilesize >> 8) + 1024;
+		if (asciiArmor) {
+			// base64 with a line break every 64 characters
+			result = result / 3 * 4 * 65 / 64 + 256;
+		}
+		return result;
+	}
+
 	
 	public EncryptResult encrypt(InputStream plaintextInputStream, OutputStream outputStream) {
+		return encrypt(plaintextInputStream, outputStream, null);
+	}
+
+	/**
+	 * @param filename name of the plaintext file, used to skip compression of already compressed formats, may be null.
+	 */
+	public EncryptResult encrypt(InputStream plaintextInputStream, OutputStream outputStream, String filename) {
 		try {
 			ChecksumInputStream cin = new ChecksumInputStream("SHA-256", plaintextInputStream);
 			ChecksumOutputStream cout = new ChecksumOutputStream("SHA-256", outputStream);
@@ -87,10 +154,11 @@ public class Encrypter {
 	                                        .addRecipient(publicKey)
 	                                        // optionally override symmetric encryption algorithm
 	                                        .overrideEncryptionAlgorithm(SymmetricKeyAlgorithm.AES_256)
-	                        ).setAsciiArmor(true) // Ascii armor or not
+	                        ).setAsciiArmor(asciiArmor) // Ascii armor or not
+	                        .overrideCompressionAlgorithm(compression.algorithmFor(filename))
 	                );
 	
-	        Streams.pipeAll(cin, encryptionStream);
+	        pipe(cin, encryptionStream);
 	        encryptionStream.close();
 	        long sourceFilesize = cin.getSize();
 	        String sourceSHA256 = cin.getMD();
@@ -105,5 +173,24 @@ public class Encrypter {
 		}
 
 	}
+
+	private void pipe(InputStream in, OutputStream out) throws IOException {
+		byte[] block = new byte[blockSize];
+		while (true) {
+			int cnt = in.read(block);
+			if (cnt == -1) {
+				break;
+			}
+			out.write(block, 0, cnt);
+		}
+	}
+
+	public boolean isAsciiArmor() {
+		return asciiArmor;
+	}
+
+	public CompressionPolicy getCompression() {
+		return compression;
+	}
 	
 }
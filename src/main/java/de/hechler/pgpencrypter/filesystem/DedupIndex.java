@@ -0,0 +1,73 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of synced files by content: sourceHash -&gt; one synced file with this content.
+ *
+ * Entries are not removed when a file changes, the caller has to verify the returned
+ * file against the synced files and call remove() for outdated entries.
+ * Only files of at least minSize are indexed, small files are cheaper to encrypt again
+ * than to hash in advance.
+ */
+public class DedupIndex {
+
+	private long minSize;
+	private Map<String, Path> filesByHash;
+	private AtomicLong hits;
+	private AtomicLong bytesSaved;
+
+	public DedupIndex(long minSize) {
+		this.minSize = minSize;
+		this.filesByHash = new ConcurrentHashMap<>();
+		this.hits = new AtomicLong();
+		this.bytesSaved = new AtomicLong();
+	}
+
+	public boolean isCandidate(long fileSize) {
+		return fileSize >= minSize;
+	}
+
+	public void put(FileInfo fi) {
+		if ((fi.sourceHash == null) || fi.sourceHash.isEmpty() || !isCandidate(fi.fileSize)) {
+			return;
+		}
+		filesByHash.put(fi.sourceHash, fi.file);
+	}
+
+	/**
+	 * @return a file which had this content when it was synced or null.
+	 */
+	public Path get(String sourceHash) {
+		return filesByHash.get(sourceHash);
+	}
+
+	/**
+	 * remove the entry, if it still references the file.
+	 */
+	public void remove(String sourceHash, Path file) {
+		filesByHash.remove(sourceHash, file);
+	}
+
+	public void recordHit(long fileSize) {
+		hits.incrementAndGet();
+		bytesSaved.addAndGet(fileSize);
+	}
+
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	public int size() {
+		return filesByHash.size();
+	}
+
+	@Override
+	public String toString() {
+		return "dedup entries="+filesByHash.size()+", hits="+hits.get()+", bytes saved="+bytesSaved.get();
+	}
+
+}
@@ -2,50 +2,202 @@ package de.hechler.pgpencrypter.filesystem;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 /**
  * https://docs.oracle.com/javase/tutorial/essential/io/notification.html
  * 
+ * Changed files are handed out after they were quiet (no events, same size and timestamp) for FILE_UNCHANGED_MILLIS.
+ * Pending files are ordered by their due time in a DelayQueue, so only files which are due are checked again.
+ * 
+ * Deleted files are handed out as tombstones (see isDeleted()) after they stayed deleted for the 
+ * longer delete quiet period, a file replaced by an editor (save via delete and rename) is only a change.
+ * 
  * @author feri
  */
 public class FileChangesCollector {
 
+	private final static Logger LOG = Logger.getLogger(FileChangesCollector.class.getName());
+
+	/**
+	 * due time of a file in the DelayQueue. 
+	 * There is at most one entry per file, newer events move the due time when the entry expires.
+	 */
+	private static class DueFile implements Delayed {
+		private final Path file;
+		private final long dueTimeMillis;
+		public DueFile(Path file, long dueTimeMillis) {
+			this.file = file;
+			this.dueTimeMillis = dueTimeMillis;
+		}
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueTimeMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(dueTimeMillis, ((DueFile)other).dueTimeMillis);
+		}
+	}
+	
+	private static final DueFile SHUTDOWN_MARKER = new DueFile(null, Long.MIN_VALUE);
+	
+	private final static long FILE_UNCHANGED_MILLIS = 5000;
+	private final static long DELETE_QUIET_MILLIS = 60000;
+	
+	/** fileSize and lastModifiedTimestamp of a tombstone */
+	public final static long DELETED = -1;
 	
 	private ConcurrentMap<Path, FileInfo> updatedFiles;
-	private boolean shutdown;
+	private DelayQueue<DueFile> dueFiles;
+	private long fileUnchangedMillis;
+	private long deleteQuietMillis;
+	private volatile boolean shutdown;
+	
+	private FolderScanner folderScanner;
+	private volatile Consumer<Path> deleteListener;
+	private AtomicBoolean rescanRequested;
+	private ExecutorService rescanExecutor;
 	
 	public FileChangesCollector() {
+		this(FILE_UNCHANGED_MILLIS);
+	}
+
+	public FileChangesCollector(long fileUnchangedMillis) {
 		this.updatedFiles = new ConcurrentHashMap<>();
+		this.dueFiles = new DelayQueue<>();
+		this.fileUnchangedMillis = fileUnchangedMillis;
+		this.deleteQuietMillis = Math.max(fileUnchangedMillis, DELETE_QUIET_MILLIS);
 		this.shutdown = false;
+		this.folderScanner = null;
+		this.deleteListener = null;
+		this.rescanRequested = new AtomicBoolean(false);
+		this.rescanExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread result = new Thread(r, "rescan");
+			result.setDaemon(true);
+			return result;
+		});
 	}
 
 	public void fileChanged(Path file) {
 		try {
-			long now = System.currentTimeMillis();
-//			 System.out.println("FILECHANGED: "+file + " at "+now);
+			long lastModifiedTimestamp = Files.getLastModifiedTime(file).toMillis();
+			long fileSize = Files.size(file);
+			fileChanged(file, lastModifiedTimestamp, fileSize);
+		}
+		catch (Exception e) {
+			LOG.warning(e.toString());
+			return;
+		}
+	}
+
+	/**
+	 * report a changed file with already known attributes, e.g. from a folder scan.
+	 */
+	public void fileChanged(Path file, long lastModifiedTimestamp, long fileSize) {
+		long now = System.currentTimeMillis();
+		synchronized (this) {
 			FileInfo fileInfo = updatedFiles.get(file);
 			if (fileInfo == null) {
 				fileInfo = new FileInfo(file, now, 0, 0, null, null);
 				updatedFiles.put(file, fileInfo);
+				dueFiles.put(new DueFile(file, now + fileUnchangedMillis));
 			}
 			fileInfo.lastEventTimestamp = now;
-			fileInfo.lastModifiedTimestamp = Files.getLastModifiedTime(file).toMillis();
-			fileInfo.fileSize = Files.size(file);
+			fileInfo.lastModifiedTimestamp = lastModifiedTimestamp;
+			fileInfo.fileSize = fileSize;
 		}
-		catch (Exception e) {
-			System.err.println(e.toString());
-			return;
+	}
+
+	/**
+	 * a file or folder was deleted or moved away, the path does not exist anymore.
+	 * The delete listener is informed immediately, the tombstone is handed out after the delete quiet period.
+	 */
+	public void fileDeleted(Path file) {
+		Consumer<Path> listener = deleteListener;
+		if (listener != null) {
+			listener.accept(file);
+		}
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			FileInfo fileInfo = updatedFiles.get(file);
+			if (fileInfo == null) {
+				fileInfo = new FileInfo(file, now, 0, 0, null, null);
+				updatedFiles.put(file, fileInfo);
+				dueFiles.put(new DueFile(file, now + deleteQuietMillis));
+			}
+			fileInfo.lastEventTimestamp = now;
+			fileInfo.lastModifiedTimestamp = DELETED;
+			fileInfo.fileSize = DELETED;
 		}
 	}
-	
+
+	/**
+	 * @return true if the FileInfo handed out by getNextChangedFile() is a tombstone for a deleted file or folder.
+	 */
+	public static boolean isDeleted(FileInfo fi) {
+		return fi.fileSize == DELETED;
+	}
+
+	/**
+	 * time a deleted path has to stay deleted before its tombstone is handed out, 
+	 * long enough to recognize moves and replaced files.
+	 */
+	public void setDeleteQuietMillis(long deleteQuietMillis) {
+		this.deleteQuietMillis = deleteQuietMillis;
+	}
+
+	/**
+	 * informed about deleted files and folders in the thread of the FolderWatcher.
+	 */
+	public void setDeleteListener(Consumer<Path> deleteListener) {
+		this.deleteListener = deleteListener;
+	}
+
+	public void setFolderScanner(FolderScanner folderScanner) {
+		this.folderScanner = folderScanner;
+	}
+
+	/**
+	 * check all files for changes in the background, e.g. after events were lost (OVERFLOW).
+	 * Requests during a running scan are combined into one additional scan.
+	 */
 	public void rescanAll() {
-		System.err.println("TODO: rescanAll() - check all files for changes");
+		if (folderScanner == null) {
+			LOG.warning("rescanAll(): no folder scanner configured, OVERFLOW ignored, changes may be missed until the next restart");
+			return;
+		}
+		if (rescanRequested.getAndSet(true)) {
+			return;
+		}
+		rescanExecutor.execute(() -> {
+			while (rescanRequested.getAndSet(false)) {
+				try {
+					FolderScanner.ScanResult result = folderScanner.scan();
+					LOG.info("RESCAN: "+result.changedFiles+" changed files queued, "+result.unchangedFiles()+" unchanged files skipped without hashing, "+result.missingFiles+" missing files, "+result);
+				}
+				catch (RuntimeException e) {
+					LOG.warning("ERROR in rescan: "+e.toString());
+				}
+			}
+		});
 	}
 
+	/**
+	 * @return number of changed files waiting for their quiet period to expire
+	 */
+	public int getPendingCount() {
+		return updatedFiles.size();
+	}
 	
 	public FileInfo getNextChangedFile() {
 		return getNextChangedFile(-1);
@@ -54,91 +206,99 @@ public class FileChangesCollector {
 	
 	public static final FileInfo TIMEOUT_FILEINFO = new FileInfo(null, 0, 0, 0, null, null);
 	
-	private final static long FILE_UNCHANGED_MILLIS = 5000;
-	
+	/**
+	 * blocks until the next changed file was quiet for the unchanged period.
+	 * @param timeout max milliseconds to wait, -1 for no timeout.
+	 * @return the changed file or a tombstone, TIMEOUT_FILEINFO if the timeout expired or null after shutdown.
+	 */
 	public FileInfo getNextChangedFile(long timeout) {
 		long timeoutTimeMillis = (timeout == -1) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
-		FileInfo result = null;
-		while (result == null) {
-			while (updatedFiles.isEmpty()) {
-				if (timeoutTimeMillis <= System.currentTimeMillis()) {
-					return TIMEOUT_FILEINFO;
-				}
-				try {
-					Thread.sleep(FILE_UNCHANGED_MILLIS);
-				} catch (InterruptedException e) {
-					return null;
-				}
-				if (shutdown) {
-					return null;
-				}
+		while (true) {
+			if (shutdown) {
+				return null;
 			}
-			long now = System.currentTimeMillis();
-			long maxTime = now-FILE_UNCHANGED_MILLIS;
-			Iterator<Entry<Path, FileInfo>> iterator = updatedFiles.entrySet().iterator();
-			while (iterator.hasNext()) {
-				Entry<Path, FileInfo> entry = iterator.next();
-				try {
-					FileInfo fi = entry.getValue();
-					if (fi.lastEventTimestamp>maxTime) {
-						continue;
-					}
-					long lastModifiedTime = Files.getLastModifiedTime(fi.file).toMillis();
-					long fileSize = Files.size(fi.file);
-					if ((lastModifiedTime != fi.lastModifiedTimestamp) || (fileSize != fi.fileSize)) {
-						fi.lastEventTimestamp = now;
-						continue;
-					}
-					iterator.remove();
-					result = fi;
-					break;
+			DueFile dueFile;
+			try {
+				if (timeout == -1) {
+					dueFile = dueFiles.take();
 				}
-				catch (Exception e) {
-					iterator.remove();
+				else {
+					dueFile = dueFiles.poll(timeoutTimeMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
 				}
+			} catch (InterruptedException e) {
+				return null;
 			}
-			if (result == null) {
-				try {
-					Thread.sleep(FILE_UNCHANGED_MILLIS);
-				} catch (InterruptedException e) {
-					return null;
-				}
+			if (dueFile == null) {
+				return TIMEOUT_FILEINFO;
+			}
+			if (dueFile == SHUTDOWN_MARKER) {
+				// keep the marker for other waiting threads
+				dueFiles.put(SHUTDOWN_MARKER);
+				return null;
+			}
+			FileInfo result = checkUnchanged(dueFile.file);
+			if (result != null) {
+				return result;
 			}
 		}
-		return result;
 	}
 
-
-	public FileInfo getUpdatedFileInfo(long waitTime) {
+	/**
+	 * @return the FileInfo, if the file is unchanged since the last event or still deleted, 
+	 *   otherwise null and the file is re-scheduled or dropped if it is no longer accessible.
+	 */
+	private FileInfo checkUnchanged(Path file) {
+		FileInfo fi = updatedFiles.get(file);
+		if (fi == null) {
+			return null;
+		}
 		long now = System.currentTimeMillis();
-		long maxTime = now-waitTime;
-		FileInfo result = null;
-		Iterator<Entry<Path, FileInfo>> iterator = updatedFiles.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Entry<Path, FileInfo> entry = iterator.next();
-			FileInfo fi = entry.getValue();
-			if (fi.lastEventTimestamp>maxTime) {
-				continue;
+		long lastEventTimestamp;
+		synchronized (this) {
+			lastEventTimestamp = fi.lastEventTimestamp;
+			long dueTimeMillis = lastEventTimestamp + (isDeleted(fi) ? deleteQuietMillis : fileUnchangedMillis);
+			if (dueTimeMillis > now) {
+				// events arrived after the entry was queued
+				dueFiles.put(new DueFile(file, dueTimeMillis));
+				return null;
 			}
-			try {
-				long lastModifiedTime = Files.getLastModifiedTime(fi.file).toMillis();
-				long fileSize = Files.size(fi.file);
-				if ((lastModifiedTime != fi.lastModifiedTimestamp) || (fileSize != fi.fileSize)) {
-					fi.lastEventTimestamp = now;
+		}
+		long lastModifiedTime;
+		long fileSize;
+		try {
+			lastModifiedTime = Files.getLastModifiedTime(file).toMillis();
+			fileSize = Files.size(file);
+		}
+		catch (Exception e) {
+			synchronized (this) {
+				if (fi.lastEventTimestamp != lastEventTimestamp) {
+					// e.g. the delete event arrived in the meantime
+					dueFiles.put(new DueFile(file, fi.lastEventTimestamp + (isDeleted(fi) ? deleteQuietMillis : fileUnchangedMillis)));
+					return null;
 				}
-				result = fi;
-				break;
+				updatedFiles.remove(file);
+				// a file which vanished without a delete event is dropped
+				return isDeleted(fi) ? fi : null;
 			}
-			catch (Exception e) {
-				iterator.remove();
+		}
+		synchronized (this) {
+			if ((fi.lastEventTimestamp != lastEventTimestamp) || (lastModifiedTime != fi.lastModifiedTimestamp) || (fileSize != fi.fileSize)) {
+				fi.lastEventTimestamp = Math.max(fi.lastEventTimestamp, now);
+				fi.lastModifiedTimestamp = lastModifiedTime;
+				fi.fileSize = fileSize;
+				dueFiles.put(new DueFile(file, fi.lastEventTimestamp + fileUnchangedMillis));
+				return null;
 			}
+			updatedFiles.remove(file);
+			return fi;
 		}
-		return result;
 	}
 
 	public void shutdown() {
-		System.err.println("SHUTDOWN");
+		LOG.info("SHUTDOWN");
 		shutdown = true;
+		rescanExecutor.shutdownNow();
+		dueFiles.put(SHUTDOWN_MARKER);
 	}
 
 }
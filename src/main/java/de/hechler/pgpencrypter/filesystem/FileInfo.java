@@ -5,6 +5,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import de.hechler.pgpencrypter.persist.Deserializer;
+import de.hechler.pgpencrypter.persist.FastDeserializer;
 import de.hechler.pgpencrypter.persist.Serializer;
 
 public class FileInfo {
@@ -86,7 +87,18 @@ public class FileInfo {
 		FileInfo result = new FileInfo(file, lastEventTimestamp, lastModifiedTimestamp, fileSize, sourceHash, targetHash);
 		return result;
 	}
-	
+	public static FileInfo fromCSV(FastDeserializer deserializer) {
+		if (deserializer.nextRecord() == FastDeserializer.NO_MORE_RECORDS) {
+			return null;
+		}
+		Path file = Paths.get(deserializer.nextString());
+		long lastEventTimestamp = deserializer.nextLong(0);
+		long lastModifiedTimestamp = deserializer.nextLong(0);
+		long fileSize = deserializer.nextLong(0);
+		String sourceHash = deserializer.nextString();
+		String targetHash = deserializer.nextString();
+		return new FileInfo(file, lastEventTimestamp, lastModifiedTimestamp, fileSize, sourceHash, targetHash);
+	}
 	
 	
 	@Override
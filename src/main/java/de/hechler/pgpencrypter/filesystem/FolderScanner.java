@@ -0,0 +1,208 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Walks the source folder tree in parallel (one fork/join task per folder) 
+ * and reports all files to the collector, which differ in size or last modified timestamp 
+ * from the already synced files.
+ * 
+ * Used to catch up with changes, which were not reported by the WatchService (OVERFLOW) 
+ * or happened while the sync was not running.
+ * With setSyncedFiles() synced files missing on disk are reported as deleted after a scan without errors.
+ */
+public class FolderScanner {
+
+	private final static Logger LOG = Logger.getLogger(FolderScanner.class.getName());
+
+	public static class ScanResult {
+		public long folders;
+		public long files;
+		public long changedFiles;
+		public long missingFiles;
+		public long errors;
+		public long millis;
+		public ScanResult(long folders, long files, long changedFiles, long missingFiles, long errors, long millis) {
+			this.folders = folders;
+			this.files = files;
+			this.changedFiles = changedFiles;
+			this.missingFiles = missingFiles;
+			this.errors = errors;
+			this.millis = millis;
+		}
+		/**
+		 * @return files which were identified as unchanged by their metadata, without reading the content. 
+		 */
+		public long unchangedFiles() {
+			return files - changedFiles;
+		}
+		public long filesPerSecond() {
+			return (files * 1000L) / Math.max(1, millis);
+		}
+		@Override
+		public String toString() {
+			return "ScanResult [folders=" + folders + ", files=" + files + ", changedFiles=" + changedFiles 
+					+ ", unchangedFiles=" + unchangedFiles() + ", missingFiles=" + missingFiles + ", errors=" + errors + ", millis=" + millis + ", files/s=" + filesPerSecond() + "]";
+		}
+	}
+	
+	private Path rootFolder;
+	private Function<Path, FileInfo> syncedFileLookup;
+	private BiPredicate<FileInfo, FileInfo> unchangedCheck;
+	private FileChangesCollector collector;
+	private int parallelism;
+	private SyncedFilesIndex syncedFiles;
+
+	private LongAdder folderCount;
+	private LongAdder fileCount;
+	private LongAdder changedCount;
+	private LongAdder errorCount;
+	
+	/**
+	 * @param rootFolder the watched source folder
+	 * @param syncedFileLookup returns the synced FileInfo for a path relative to rootFolder or null.
+	 * @param collector receives the changed files
+	 */
+	public FolderScanner(Path rootFolder, Function<Path, FileInfo> syncedFileLookup, FileChangesCollector collector) {
+		this(rootFolder, syncedFileLookup, FolderScanner::sameSizeAndTimestamp, collector);
+	}
+
+	/**
+	 * @param unchangedCheck called with the current (scanned) FileInfo and the synced FileInfo (may be null), 
+	 *   returns true if the file does not need to be synced. 
+	 */
+	public FolderScanner(Path rootFolder, Function<Path, FileInfo> syncedFileLookup, BiPredicate<FileInfo, FileInfo> unchangedCheck, FileChangesCollector collector) {
+		this.rootFolder = rootFolder;
+		this.syncedFileLookup = syncedFileLookup;
+		this.unchangedCheck = unchangedCheck;
+		this.collector = collector;
+		// mostly waiting for file system metadata, so use more threads than cores
+		this.parallelism = 2 * Runtime.getRuntime().availableProcessors();
+		this.syncedFiles = null;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param syncedFiles all synced files, the paths relative to rootFolder.
+	 *   Those not found by a scan are reported to the collector as deleted, e.g. deleted while the sync was not running.
+	 *   The scan uses the seen marks of the index, so no set of all scanned paths is kept in memory.
+	 */
+	public void setSyncedFiles(SyncedFilesIndex syncedFiles) {
+		this.syncedFiles = syncedFiles;
+	}
+	
+	public synchronized ScanResult scan() {
+		long startMillis = System.currentTimeMillis();
+		folderCount = new LongAdder();
+		fileCount = new LongAdder();
+		changedCount = new LongAdder();
+		errorCount = new LongAdder();
+		if (syncedFiles != null) {
+			syncedFiles.clearSeen();
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ScanFolderTask(rootFolder));
+		}
+		finally {
+			pool.shutdown();
+		}
+		long missing = reportMissingFiles();
+		long millis = System.currentTimeMillis() - startMillis;
+		return new ScanResult(folderCount.sum(), fileCount.sum(), changedCount.sum(), missing, errorCount.sum(), millis);
+	}
+
+	/**
+	 * a folder which could not be read would look like deleted files, so only after a scan without errors.
+	 * Files synced during the scan are also reported, the deletion checks whether the file exists.
+	 */
+	private long reportMissingFiles() {
+		if ((syncedFiles == null) || (errorCount.sum() > 0) || !Files.isDirectory(rootFolder)) {
+			return 0;
+		}
+		List<Path> missingFiles = syncedFiles.unseenFiles();
+		for (Path relPath:missingFiles) {
+			collector.fileDeleted(rootFolder.resolve(relPath));
+		}
+		return missingFiles.size();
+	}
+
+	private class ScanFolderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Path folder;
+		public ScanFolderTask(Path folder) {
+			this.folder = folder;
+		}
+		@Override
+		protected void compute() {
+			folderCount.increment();
+			List<ScanFolderTask> subTasks = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+				for (Path entry:entries) {
+					try {
+						BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+						if (attrs.isDirectory()) {
+							ScanFolderTask subTask = new ScanFolderTask(entry);
+							subTask.fork();
+							subTasks.add(subTask);
+						}
+						else if (attrs.isRegularFile()) {
+							checkFile(entry, attrs);
+						}
+					}
+					catch (IOException e) {
+						errorCount.increment();
+					}
+				}
+			}
+			catch (IOException e) {
+				errorCount.increment();
+				LOG.warning("error scanning folder '"+folder+"': "+e.toString());
+			}
+			for (ScanFolderTask subTask:subTasks) {
+				subTask.join();
+			}
+		}
+	}
+
+	private void checkFile(Path file, BasicFileAttributes attrs) {
+		fileCount.increment();
+		long lastModifiedTimestamp = attrs.lastModifiedTime().toMillis();
+		long fileSize = attrs.size();
+		Path relPath = rootFolder.relativize(file);
+		if (syncedFiles != null) {
+			syncedFiles.markSeen(relPath);
+		}
+		FileInfo syncedFI = syncedFileLookup.apply(relPath);
+		FileInfo currentFI = new FileInfo(relPath, 0, lastModifiedTimestamp, fileSize, null, null);
+		if (unchangedCheck.test(currentFI, syncedFI)) {
+			return;
+		}
+		changedCount.increment();
+		collector.fileChanged(file, lastModifiedTimestamp, fileSize);
+	}
+
+	private static boolean sameSizeAndTimestamp(FileInfo currentFI, FileInfo syncedFI) {
+		if (syncedFI == null) {
+			return false;
+		}
+		return (currentFI.fileSize == syncedFI.fileSize) && (currentFI.lastModifiedTimestamp == syncedFI.lastModifiedTimestamp);
+	}
+	
+}
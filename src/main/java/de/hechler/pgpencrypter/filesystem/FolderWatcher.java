@@ -20,6 +20,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
 /**
  * https://docs.oracle.com/javase/tutorial/essential/io/notification.html
@@ -28,6 +29,8 @@ import java.util.concurrent.Executors;
  */
 public class FolderWatcher {
 
+	private final static Logger LOG = Logger.getLogger(FolderWatcher.class.getName());
+
 	private Path sourceFolder;
 	private FileChangesCollector collector;
 	private WatchService watcher;
@@ -35,7 +38,7 @@ public class FolderWatcher {
 	
 	public FolderWatcher(Path sourceFolder, FileChangesCollector collector) {
 		try {
-			System.out.println("watching source folder '"+sourceFolder+"'");
+			LOG.info("watching source folder '"+sourceFolder+"'");
 			this.sourceFolder = sourceFolder;
 			this.collector = collector;
 			this.wk2folder = new HashMap<>();
@@ -57,6 +60,18 @@ public class FolderWatcher {
 		});
 	}
 
+	private void reportAllFiles(Path folder) throws IOException {
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					collector.fileChanged(file, attrs.lastModifiedTime().toMillis(), attrs.size());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
 	private void register(Path folder) throws IOException {
 		WatchKey key = folder.register(watcher,
 				 ENTRY_CREATE,
@@ -73,7 +88,7 @@ public class FolderWatcher {
      * asynchronous collect events
      */
     void eventLoop() {
-    	System.out.println("EVENTLOOP STARTED IN THREAD "+ Thread.currentThread().getId());
+    	LOG.fine("EVENTLOOP STARTED IN THREAD "+ Thread.currentThread().getId());
     	// Thread.currentThread().setDaemon(true);
         WatchKey key;
         while (true) {
@@ -107,12 +122,17 @@ public class FolderWatcher {
 //                		processFile(child, target);
                 	}
                 }
+                if (kind == ENTRY_DELETE) {
+                	collector.fileDeleted(child);
+                }
                 // if directory is created, and watching recursively, then
                 // register it and its sub-directories
                 if (kind == ENTRY_CREATE) {
                     try {
                         if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
                             registerAll(child);
+                            // a moved in folder brings its files without events for them
+                            reportAllFiles(child);
                         }
                     } catch (IOException ignore) {}
                 }
@@ -0,0 +1,168 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Correlates deleted synced files with new files, a move shows up as a delete event
+ * for the old path and a create event for the new path.
+ *
+ * Deleted synced files are remembered by size for keepMillis. A new file is only hashed
+ * for the comparison if a deleted file with the same size exists.
+ */
+public class MoveDetector {
+
+	private final static long DEFAULT_KEEP_MILLIS = 10*60*1000L;
+
+	private static class DeletedFile {
+		private final Path file;
+		private final String sourceHash;
+		private final long deletedTimestamp;
+		public DeletedFile(Path file, String sourceHash, long deletedTimestamp) {
+			this.file = file;
+			this.sourceHash = sourceHash;
+			this.deletedTimestamp = deletedTimestamp;
+		}
+	}
+
+	private long keepMillis;
+	private long nextExpireTimestamp;
+	private Map<Long, List<DeletedFile>> deletedFilesBySize;
+	/** sources taken by takeMoveSource() until moveDone() */
+	private Set<Path> movesInProgress;
+	private AtomicLong moves;
+	private AtomicLong bytesMoved;
+
+	public MoveDetector() {
+		this(DEFAULT_KEEP_MILLIS);
+	}
+
+	public MoveDetector(long keepMillis) {
+		this.keepMillis = keepMillis;
+		this.nextExpireTimestamp = 0;
+		this.deletedFilesBySize = new HashMap<>();
+		this.movesInProgress = new HashSet<>();
+		this.moves = new AtomicLong();
+		this.bytesMoved = new AtomicLong();
+	}
+
+	/**
+	 * remember the deleted synced file as possible source of a move.
+	 */
+	public synchronized void fileDeleted(FileInfo syncedFI) {
+		if ((syncedFI.sourceHash == null) || syncedFI.sourceHash.isEmpty()) {
+			return;
+		}
+		expire();
+		List<DeletedFile> candidates = deletedFilesBySize.get(syncedFI.fileSize);
+		if (candidates == null) {
+			candidates = new ArrayList<>(1);
+			deletedFilesBySize.put(syncedFI.fileSize, candidates);
+		}
+		candidates.add(new DeletedFile(syncedFI.file, syncedFI.sourceHash, System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return true if a deleted file with this size exists, only then it is worth to hash the new file.
+	 */
+	public synchronized boolean hasCandidates(long fileSize) {
+		return deletedFilesBySize.containsKey(fileSize);
+	}
+
+	/**
+	 * find and remove a deleted file with the same content, so each deleted file is moved only once.
+	 * @return the path of the deleted file or null
+	 */
+	public synchronized Path takeMoveSource(long fileSize, String sourceHash) {
+		List<DeletedFile> candidates = deletedFilesBySize.get(fileSize);
+		if (candidates == null) {
+			return null;
+		}
+		for (Iterator<DeletedFile> it = candidates.iterator(); it.hasNext(); ) {
+			DeletedFile candidate = it.next();
+			if (candidate.sourceHash.equals(sourceHash)) {
+				it.remove();
+				if (candidates.isEmpty()) {
+					deletedFilesBySize.remove(fileSize);
+				}
+				movesInProgress.add(candidate.file);
+				return candidate.file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * the move of a source returned by takeMoveSource() finished or failed.
+	 */
+	public synchronized void moveDone(Path file) {
+		movesInProgress.remove(file);
+	}
+
+	/**
+	 * @return true if the deleted file or a deleted file below the deleted folder may still be the source of a move,
+	 *   its synced entry and target file are needed until then.
+	 */
+	public synchronized boolean hasPendingMoves(Path fileOrFolder) {
+		expire();
+		for (Path file:movesInProgress) {
+			if (file.startsWith(fileOrFolder)) {
+				return true;
+			}
+		}
+		for (List<DeletedFile> candidates:deletedFilesBySize.values()) {
+			for (DeletedFile candidate:candidates) {
+				if (candidate.file.startsWith(fileOrFolder)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public void recordMove(long fileSize) {
+		moves.incrementAndGet();
+		bytesMoved.addAndGet(fileSize);
+	}
+
+	/**
+	 * drop outdated candidates, runs at most ten times per keepMillis.
+	 */
+	private void expire() {
+		long now = System.currentTimeMillis();
+		if (now < nextExpireTimestamp) {
+			return;
+		}
+		nextExpireTimestamp = now + keepMillis/10;
+		long expired = now - keepMillis;
+		Iterator<List<DeletedFile>> lists = deletedFilesBySize.values().iterator();
+		while (lists.hasNext()) {
+			List<DeletedFile> candidates = lists.next();
+			candidates.removeIf(candidate -> candidate.deletedTimestamp < expired);
+			if (candidates.isEmpty()) {
+				lists.remove();
+			}
+		}
+	}
+
+	public synchronized int size() {
+		int result = 0;
+		for (List<DeletedFile> candidates:deletedFilesBySize.values()) {
+			result += candidates.size();
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "moves="+moves.get()+", bytes moved="+bytesMoved.get();
+	}
+
+}
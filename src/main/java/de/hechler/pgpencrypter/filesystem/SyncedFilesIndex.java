@@ -0,0 +1,495 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * Memory efficient replacement for a Map&lt;Path, FileInfo&gt; with millions of entries.
+ * 
+ * <ul>
+ * <li>folder names are stored once in a dictionary, entries only reference the folder id</li>
+ * <li>file names are stored as UTF-8 bytes in one large byte array</li>
+ * <li>SHA-256 hex hashes are stored as 32 raw bytes</li>
+ * <li>timestamps and sizes are stored in primitive arrays</li>
+ * <li>lookup by an open addressing hash table of slot numbers</li>
+ * </ul>
+ * 
+ * About 130 bytes per entry instead of 400+ bytes for FileInfo objects in a HashMap.
+ * get() returns a new FileInfo, changes to it are only stored by put(). 
+ * All methods are thread safe.
+ */
+public class SyncedFilesIndex {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int SHA256_BYTES = 32;
+	private static final int HASHES_PER_SLOT = 2;
+	
+	private static final byte FLAG_USED = 0x01;
+	private static final byte FLAG_SOURCE_SHA256 = 0x02;
+	private static final byte FLAG_TARGET_SHA256 = 0x04;
+	private static final byte FLAG_IRREGULAR_HASH = 0x08;
+	/** set by markSeen() during a folder scan, kept by put() */
+	private static final byte FLAG_SEEN = 0x10;
+
+	private static final int EMPTY = 0;
+	private static final int DELETED = -1;
+	
+	// folder dictionary
+	private Map<String, Integer> folderIds;
+	private List<String> folders;
+
+	// per slot data
+	private int[] folderId;
+	private int[] nameOffset;
+	private int[] nameLength;
+	private long[] lastEventTimestamp;
+	private long[] lastModifiedTimestamp;
+	private long[] fileSize;
+	private byte[] hashes;
+	private byte[] flags;
+	/** hashes which are null, not SHA-256 hex or upper case, by slot: {sourceHash, targetHash} */
+	private Map<Integer, String[]> irregularHashes;
+	private int slotCount;
+	private int[] freeSlots;
+	private int freeSlotCount;
+	
+	// file names
+	private byte[] names;
+	private int namesUsed;
+	private int namesGarbage;
+
+	// hash table, containing slot+1, EMPTY or DELETED 
+	private int[] table;
+	private int tableUsed;
+	
+	private int size;
+	
+	public SyncedFilesIndex() {
+		clear();
+	}
+
+	public synchronized void clear() {
+		folderIds = new HashMap<>();
+		folders = new ArrayList<>();
+		int capacity = INITIAL_CAPACITY;
+		folderId = new int[capacity];
+		nameOffset = new int[capacity];
+		nameLength = new int[capacity];
+		lastEventTimestamp = new long[capacity];
+		lastModifiedTimestamp = new long[capacity];
+		fileSize = new long[capacity];
+		hashes = new byte[capacity*HASHES_PER_SLOT*SHA256_BYTES];
+		flags = new byte[capacity];
+		irregularHashes = new HashMap<>();
+		slotCount = 0;
+		freeSlots = new int[16];
+		freeSlotCount = 0;
+		names = new byte[capacity*16];
+		namesUsed = 0;
+		namesGarbage = 0;
+		table = new int[2*capacity];
+		tableUsed = 0;
+		size = 0;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	public synchronized FileInfo get(Path file) {
+		int slot = findSlot(file);
+		if (slot == -1) {
+			return null;
+		}
+		return toFileInfo(slot, file);
+	}
+
+	public synchronized boolean containsKey(Path file) {
+		return findSlot(file) != -1;
+	}
+	
+	/**
+	 * store a copy of the FileInfo fields, the FileInfo can be modified afterwards.
+	 */
+	public synchronized void put(Path file, FileInfo fi) {
+		int slot = findSlot(file);
+		if (slot == -1) {
+			slot = addSlot(file);
+		}
+		lastEventTimestamp[slot] = fi.lastEventTimestamp;
+		lastModifiedTimestamp[slot] = fi.lastModifiedTimestamp;
+		fileSize[slot] = fi.fileSize;
+		byte flag = (byte)(FLAG_USED | (flags[slot] & FLAG_SEEN));
+		irregularHashes.remove(slot);
+		if (setHash(slot, 0, fi.sourceHash)) {
+			flag |= FLAG_SOURCE_SHA256;
+		}
+		if (setHash(slot, 1, fi.targetHash)) {
+			flag |= FLAG_TARGET_SHA256;
+		}
+		if (((flag & FLAG_SOURCE_SHA256) == 0) || ((flag & FLAG_TARGET_SHA256) == 0)) {
+			flag |= FLAG_IRREGULAR_HASH;
+			irregularHashes.put(slot, new String[] {fi.sourceHash, fi.targetHash});
+		}
+		flags[slot] = flag;
+	}
+
+	public synchronized FileInfo remove(Path file) {
+		int pos = findTablePos(file);
+		if (pos == -1) {
+			return null;
+		}
+		int slot = table[pos]-1;
+		FileInfo result = toFileInfo(slot, file);
+		table[pos] = DELETED;
+		flags[slot] = 0;
+		irregularHashes.remove(slot);
+		namesGarbage += nameLength[slot];
+		if (freeSlotCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, 2*freeSlotCount);
+		}
+		freeSlots[freeSlotCount++] = slot;
+		size--;
+		return result;
+	}
+
+	/**
+	 * @return all entries in the folder and its sub folders, the folder dictionary is checked first, 
+	 *   so a folder without synced files is answered without iterating the entries.
+	 *   Otherwise this is O(capacity), all slots are checked, there is no per folder index of the slots.
+	 */
+	public synchronized List<FileInfo> valuesBelow(Path folder) {
+		List<FileInfo> result = new ArrayList<>();
+		String folderName = folder.toString();
+		String folderPrefix = folderName + folder.getFileSystem().getSeparator();
+		boolean[] matchingFolders = new boolean[folders.size()];
+		boolean found = false;
+		for (int fid=0; fid<folders.size(); fid++) {
+			String name = folders.get(fid);
+			if (name.equals(folderName) || name.startsWith(folderPrefix)) {
+				matchingFolders[fid] = true;
+				found = true;
+			}
+		}
+		if (!found) {
+			return result;
+		}
+		for (int slot=0; slot<slotCount; slot++) {
+			if (((flags[slot] & FLAG_USED) != 0) && matchingFolders[folderId[slot]]) {
+				result.add(toFileInfo(slot, pathOf(slot)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * clears the seen mark of all entries, called at the start of a full folder scan.
+	 * Only one scan at a time may use the marks.
+	 */
+	public synchronized void clearSeen() {
+		for (int slot=0; slot<slotCount; slot++) {
+			flags[slot] &= ~FLAG_SEEN;
+		}
+	}
+
+	/**
+	 * marks the entry as found by the folder scan, a flag bit in the slot instead of a set of paths.
+	 * @return false if there is no entry for the file. 
+	 */
+	public synchronized boolean markSeen(Path file) {
+		int slot = findSlot(file);
+		if (slot == -1) {
+			return false;
+		}
+		flags[slot] |= FLAG_SEEN;
+		return true;
+	}
+
+	/**
+	 * @return the files of all entries which were not marked since clearSeen(), O(capacity).
+	 */
+	public synchronized List<Path> unseenFiles() {
+		List<Path> result = new ArrayList<>();
+		for (int slot=0; slot<slotCount; slot++) {
+			if ((flags[slot] & (FLAG_USED | FLAG_SEEN)) == FLAG_USED) {
+				result.add(pathOf(slot));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a live view, the FileInfo objects are created during iteration.
+	 *   Iteration works on a snapshot of the used slots and is safe against concurrent modification.
+	 */
+	public Collection<FileInfo> values() {
+		return new AbstractCollection<FileInfo>() {
+			@Override
+			public Iterator<FileInfo> iterator() {
+				return valueIterator();
+			}
+			@Override
+			public int size() {
+				return SyncedFilesIndex.this.size();
+			}
+		};
+	}
+
+	private Iterator<FileInfo> valueIterator() {
+		int maxSlot;
+		synchronized (this) {
+			maxSlot = slotCount;
+		}
+		return new Iterator<FileInfo>() {
+			private int nextSlot = 0;
+			private FileInfo next = advance();
+			private FileInfo advance() {
+				synchronized (SyncedFilesIndex.this) {
+					while (nextSlot < maxSlot) {
+						int slot = nextSlot++;
+						if ((flags[slot] & FLAG_USED) != 0) {
+							return toFileInfo(slot, pathOf(slot));
+						}
+					}
+					return null;
+				}
+			}
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			@Override
+			public FileInfo next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				FileInfo result = next;
+				next = advance();
+				return result;
+			}
+		};
+	}
+
+	private FileInfo toFileInfo(int slot, Path file) {
+		String sourceHash;
+		String targetHash;
+		if ((flags[slot] & FLAG_IRREGULAR_HASH) != 0) {
+			String[] irregular = irregularHashes.get(slot);
+			sourceHash = ((flags[slot] & FLAG_SOURCE_SHA256) != 0) ? getHash(slot, 0) : irregular[0];
+			targetHash = ((flags[slot] & FLAG_TARGET_SHA256) != 0) ? getHash(slot, 1) : irregular[1];
+		}
+		else {
+			sourceHash = getHash(slot, 0);
+			targetHash = getHash(slot, 1);
+		}
+		return new FileInfo(file, lastEventTimestamp[slot], lastModifiedTimestamp[slot], fileSize[slot], sourceHash, targetHash);
+	}
+
+	private Path pathOf(int slot) {
+		String name = new String(names, nameOffset[slot], nameLength[slot], StandardCharsets.UTF_8);
+		String folder = folders.get(folderId[slot]);
+		if (folder.isEmpty()) {
+			return Paths.get(name);
+		}
+		return Paths.get(folder, name);
+	}
+
+	private static String folderOf(Path file) {
+		Path parent = file.getParent();
+		return (parent == null) ? "" : parent.toString();
+	}
+
+	private static byte[] nameOf(Path file) {
+		Path name = file.getFileName();
+		return ((name == null) ? "" : name.toString()).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private int findSlot(Path file) {
+		int pos = findTablePos(file);
+		return (pos == -1) ? -1 : table[pos]-1;
+	}
+
+	private int findTablePos(Path file) {
+		Integer fid = folderIds.get(folderOf(file));
+		if (fid == null) {
+			return -1;
+		}
+		byte[] name = nameOf(file);
+		int mask = table.length - 1;
+		int pos = hash(fid, name, 0, name.length) & mask;
+		while (true) {
+			int entry = table[pos];
+			if (entry == EMPTY) {
+				return -1;
+			}
+			if (entry != DELETED) {
+				int slot = entry-1;
+				if ((folderId[slot] == fid) && nameEquals(slot, name)) {
+					return pos;
+				}
+			}
+			pos = (pos + 1) & mask;
+		}
+	}
+
+	private boolean nameEquals(int slot, byte[] name) {
+		if (nameLength[slot] != name.length) {
+			return false;
+		}
+		int offset = nameOffset[slot];
+		for (int i=0; i<name.length; i++) {
+			if (names[offset+i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int hash(int fid, byte[] buf, int offset, int length) {
+		int result = fid * 0x9E3779B9;
+		for (int i=0; i<length; i++) {
+			result = 31*result + buf[offset+i];
+		}
+		return result ^ (result >>> 16);
+	}
+	
+	private int addSlot(Path file) {
+		String folder = folderOf(file);
+		Integer fid = folderIds.get(folder);
+		if (fid == null) {
+			fid = folders.size();
+			folders.add(folder);
+			folderIds.put(folder, fid);
+		}
+		byte[] name = nameOf(file);
+		int slot;
+		if (freeSlotCount > 0) {
+			slot = freeSlots[--freeSlotCount];
+		}
+		else {
+			if (slotCount == flags.length) {
+				growSlots();
+			}
+			slot = slotCount++;
+		}
+		if (namesUsed + name.length > names.length) {
+			growNames(name.length);
+		}
+		System.arraycopy(name, 0, names, namesUsed, name.length);
+		folderId[slot] = fid;
+		nameOffset[slot] = namesUsed;
+		nameLength[slot] = name.length;
+		namesUsed += name.length;
+		flags[slot] = FLAG_USED;
+		size++;
+		if (2*(tableUsed+1) > table.length) {
+			// tableUsed counts deleted entries, only grow if the live entries need the space
+			rehash((4*size > table.length) ? 2*table.length : table.length);
+		}
+		insert(slot);
+		return slot;
+	}
+
+	private void insert(int slot) {
+		int mask = table.length - 1;
+		int pos = hash(folderId[slot], names, nameOffset[slot], nameLength[slot]) & mask;
+		while (table[pos] > EMPTY) {
+			pos = (pos + 1) & mask;
+		}
+		if (table[pos] == EMPTY) {
+			tableUsed++;
+		}
+		table[pos] = slot+1;
+	}
+
+	private void rehash(int newLength) {
+		while (2*(size+1) > newLength) {
+			newLength *= 2;
+		}
+		table = new int[newLength];
+		tableUsed = 0;
+		for (int slot=0; slot<slotCount; slot++) {
+			if ((flags[slot] & FLAG_USED) != 0) {
+				insert(slot);
+			}
+		}
+	}
+	
+	/**
+	 * for tests, the table must not grow with removes and puts at a constant size.
+	 */
+	synchronized int getTableLength() {
+		return table.length;
+	}
+
+	private void growSlots() {
+		int capacity = 2*flags.length;
+		folderId = Arrays.copyOf(folderId, capacity);
+		nameOffset = Arrays.copyOf(nameOffset, capacity);
+		nameLength = Arrays.copyOf(nameLength, capacity);
+		lastEventTimestamp = Arrays.copyOf(lastEventTimestamp, capacity);
+		lastModifiedTimestamp = Arrays.copyOf(lastModifiedTimestamp, capacity);
+		fileSize = Arrays.copyOf(fileSize, capacity);
+		hashes = Arrays.copyOf(hashes, capacity*HASHES_PER_SLOT*SHA256_BYTES);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+
+	/**
+	 * drop the names of removed entries or enlarge the name storage. 
+	 */
+	private void growNames(int required) {
+		int liveBytes = namesUsed - namesGarbage;
+		int capacity = names.length;
+		if (liveBytes + required > capacity/2) {
+			capacity = 2*capacity;
+			while (liveBytes + required > capacity/2) {
+				capacity = 2*capacity;
+			}
+		}
+		byte[] newNames = new byte[capacity];
+		int used = 0;
+		for (int slot=0; slot<slotCount; slot++) {
+			if ((flags[slot] & FLAG_USED) != 0) {
+				System.arraycopy(names, nameOffset[slot], newNames, used, nameLength[slot]);
+				nameOffset[slot] = used;
+				used += nameLength[slot];
+			}
+		}
+		names = newNames;
+		namesUsed = used;
+		namesGarbage = 0;
+	}
+
+	/**
+	 * @return true if the hash is a lower case SHA-256 hex string and was stored binary.
+	 */
+	private boolean setHash(int slot, int index, String hash) {
+		if ((hash == null) || (hash.length() != 2*SHA256_BYTES)) {
+			return false;
+		}
+		int offset = (slot*HASHES_PER_SLOT + index) * SHA256_BYTES;
+		return Hex.fromHex(hash, hashes, offset);
+	}
+
+	private String getHash(int slot, int index) {
+		int offset = (slot*HASHES_PER_SLOT + index) * SHA256_BYTES;
+		return Hex.toHex(hashes, offset, SHA256_BYTES);
+	}
+	
+}
@@ -0,0 +1,13 @@
+package de.hechler.pgpencrypter.hash;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Calculates the hash of a file's content as lowercase hex string, implementations are thread safe.
+ */
+public interface FileHasher {
+
+	String hash(Path file) throws IOException;
+
+}
@@ -0,0 +1,74 @@
+package de.hechler.pgpencrypter.hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * Plain SHA-256 of the file, the same value as the hash calculated while encrypting.
+ *
+ * The file is read with a FileChannel into a direct buffer which is reused per thread,
+ * so there is no copy into a heap array per read. The digest uses the SHA intrinsics of the JVM
+ * where the CPU supports them (Java 9+ on x86 and ARM).
+ * The file is not memory mapped, on Windows a mapped file cannot be deleted or replaced
+ * until the mapping is garbage collected.
+ */
+public class Sha256FileHasher implements FileHasher {
+
+	public final static int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private int bufferSize;
+	private ThreadLocal<ByteBuffer> buffers;
+	private ThreadLocal<MessageDigest> digests;
+
+	public Sha256FileHasher() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public Sha256FileHasher(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("invalid buffer size "+bufferSize);
+		}
+		this.bufferSize = bufferSize;
+		this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.bufferSize));
+		this.digests = ThreadLocal.withInitial(Sha256FileHasher::createSHA256);
+	}
+
+	@Override
+	public String hash(Path file) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		MessageDigest md = digests.get();
+		md.reset();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (true) {
+				buffer.clear();
+				if (channel.read(buffer) == -1) {
+					break;
+				}
+				buffer.flip();
+				md.update(buffer);
+			}
+		}
+		return Hex.toHex(md.digest());
+	}
+
+	static MessageDigest createSHA256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SHA-256 buffer="+bufferSize;
+	}
+
+}
@@ -0,0 +1,124 @@
+package de.hechler.pgpencrypter.hash;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * SHA-256 tree hash: the file is split into segments of a fixed size, which are hashed in parallel,
+ * the result is the SHA-256 over the segment size and the segment hashes.
+ *
+ * A single large file is hashed by several cores, the plain SHA-256 is strictly sequential.
+ * The value differs from the plain SHA-256, so it can only be compared with tree hashes of the same
+ * segment size, not with the source hash calculated while encrypting.
+ */
+public class TreeFileHasher implements FileHasher {
+
+	public final static int DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+	private final static byte[] DOMAIN = "PGPEncrypter-Tree-SHA-256".getBytes(StandardCharsets.UTF_8);
+
+	private int segmentSize;
+	private int bufferSize;
+	private Executor executor;
+	private ThreadLocal<ByteBuffer> buffers;
+	private ThreadLocal<MessageDigest> digests;
+
+	public TreeFileHasher() {
+		this(DEFAULT_SEGMENT_SIZE, Sha256FileHasher.DEFAULT_BUFFER_SIZE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param executor runs the segment hashes, the calling thread waits for them.
+	 */
+	public TreeFileHasher(int segmentSize, int bufferSize, Executor executor) {
+		if ((segmentSize < 1) || (bufferSize < 1)) {
+			throw new IllegalArgumentException("invalid segment/buffer size "+segmentSize+"/"+bufferSize);
+		}
+		this.segmentSize = segmentSize;
+		this.bufferSize = Math.min(bufferSize, segmentSize);
+		this.executor = executor;
+		this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.bufferSize));
+		this.digests = ThreadLocal.withInitial(Sha256FileHasher::createSHA256);
+	}
+
+	@Override
+	public String hash(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			List<CompletableFuture<byte[]>> segments = new ArrayList<>();
+			// an empty file has one empty segment
+			for (long offset=0; (offset < size) || (offset == 0); offset += segmentSize) {
+				long start = offset;
+				long length = Math.min(segmentSize, size-offset);
+				segments.add(CompletableFuture.supplyAsync(() -> hashSegment(channel, start, length), executor));
+			}
+			List<byte[]> segmentHashes = new ArrayList<>(segments.size());
+			for (CompletableFuture<byte[]> segment:segments) {
+				segmentHashes.add(segment.join());
+			}
+			// a join may run segments in this thread, the thread local digest is only used afterwards
+			MessageDigest md = digests.get();
+			md.reset();
+			md.update(DOMAIN);
+			md.update(ByteBuffer.allocate(Long.BYTES).putLong(segmentSize).array());
+			for (byte[] segmentHash:segmentHashes) {
+				md.update(segmentHash);
+			}
+			return Hex.toHex(md.digest());
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * positional reads, the channel is shared by the segments of the file.
+	 */
+	private byte[] hashSegment(FileChannel channel, long offset, long length) {
+		ByteBuffer buffer = buffers.get();
+		MessageDigest md = digests.get();
+		md.reset();
+		try {
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end-position));
+				int cnt = channel.read(buffer, position);
+				if (cnt == -1) {
+					throw new IOException("file got shorter while hashing");
+				}
+				buffer.flip();
+				md.update(buffer);
+				position += cnt;
+			}
+			return md.digest();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SHA-256 tree segment="+segmentSize+" buffer="+bufferSize;
+	}
+
+}
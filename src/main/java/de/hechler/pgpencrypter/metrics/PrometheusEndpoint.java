@@ -0,0 +1,123 @@
+package de.hechler.pgpencrypter.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.hechler.pgpencrypter.metrics.SyncMetrics.Stage;
+
+/**
+ * Serves the SyncMetrics in the Prometheus text format on http://127.0.0.1:&lt;port&gt;/metrics.
+ * Only bound to the loopback interface, the file names are not exposed but the activity is.
+ */
+public class PrometheusEndpoint {
+
+	private final static Logger LOG = Logger.getLogger(PrometheusEndpoint.class.getName());
+
+	private final static String PREFIX = "pgpencrypter_";
+	private final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private SyncMetrics metrics;
+	private int port;
+	private HttpServer server;
+
+	public PrometheusEndpoint(SyncMetrics metrics, int port) {
+		this.metrics = metrics;
+		this.port = port;
+		this.server = null;
+	}
+
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", this::handle);
+		server.start();
+		LOG.info("metrics on http://"+server.getAddress().getHostString()+":"+server.getAddress().getPort()+"/metrics");
+	}
+
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+		server.stop(0);
+		server = null;
+	}
+
+	/**
+	 * @return the bound port, e.g. if started with port 0.
+	 */
+	public synchronized int getPort() {
+		return (server == null) ? port : server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = render().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	public String render() {
+		StringBuilder result = new StringBuilder(4096);
+		counter(result, "files_synced_total", "Files written, copied or moved in the target store.", metrics.getFilesSynced());
+		counter(result, "files_unchanged_total", "Changed files with the already synced content.", metrics.getFilesUnchanged());
+		counter(result, "files_deleted_total", "Deleted source files removed from the target store.", metrics.getFilesDeleted());
+		counter(result, "source_bytes_total", "Bytes of the encrypted source files.", metrics.getBytesIn());
+		counter(result, "target_bytes_total", "Bytes of the written target files.", metrics.getBytesOut());
+		counter(result, "errors_total", "Failed sync attempts.", metrics.getErrors());
+		counter(result, "precheck_hits_total", "Changed files skipped by size and timestamp.", metrics.getPreCheckHits());
+		counter(result, "precheck_misses_total", "Changed files which had to be read.", metrics.getPreCheckMisses());
+		gauge(result, "queue_depth", "Changed files waiting for the quiet period.", metrics.getQueueDepth());
+		gauge(result, "active_uploads", "Files being synced or waiting for a worker.", metrics.getActiveUploads());
+		header(result, "stage_seconds", "summary", "Time spent per pipeline stage.");
+		for (Stage stage:Stage.values()) {
+			result.append(PREFIX).append("stage_seconds_count{stage=\"").append(stage.label()).append("\"} ").append(metrics.getStageCount(stage)).append('\n');
+			result.append(PREFIX).append("stage_seconds_sum{stage=\"").append(stage.label()).append("\"} ").append(format(metrics.getStageSeconds(stage))).append('\n');
+		}
+		header(result, "stage_max_seconds", "gauge", "Longest single operation per pipeline stage.");
+		for (Stage stage:Stage.values()) {
+			result.append(PREFIX).append("stage_max_seconds{stage=\"").append(stage.label()).append("\"} ").append(format(metrics.getStageMaxSeconds(stage))).append('\n');
+		}
+		return result.toString();
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, long value) {
+		header(sb, name, "counter", help);
+		sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, long value) {
+		header(sb, name, "gauge", help);
+		sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.6f", value);
+	}
+
+}
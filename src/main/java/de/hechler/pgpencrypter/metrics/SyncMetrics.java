@@ -0,0 +1,286 @@
+package de.hechler.pgpencrypter.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and stage timings of the sync pipeline, updated by the workers without locks.
+ *
+ * Timings are taken with System.nanoTime(): <code>long start = System.nanoTime(); ...; metrics.record(Stage.HASH, start);</code>
+ */
+public class SyncMetrics implements SyncMetricsMXBean {
+
+	private final static Logger LOG = Logger.getLogger(SyncMetrics.class.getName());
+
+	public final static String OBJECT_NAME = "de.hechler.pgpencrypter:type=SyncMetrics";
+
+	/** the instance registered under OBJECT_NAME, guarded by SyncMetrics.class */
+	private static SyncMetrics registered = null;
+
+	public enum Stage {
+		/** size and timestamp of the changed file */
+		STAT,
+		/** SHA-256 of the source file before encrypting */
+		HASH,
+		/** encryption into a local staging file for a chunked upload */
+		ENCRYPT,
+		/** encryption streamed into the target store, contains the transfer */
+		WRITE,
+		/** chunked upload of a staging file */
+		UPLOAD,
+		/** rename of the written file to its hashed name */
+		RENAME,
+		/** removal of outdated or deleted target files */
+		DELETE,
+		/** persisting the synced files cache */
+		CACHE_SAVE;
+
+		public String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private static class StageTimer {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		void record(long nanos) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	private Map<Stage, StageTimer> stages;
+	private LongAdder filesSynced;
+	private LongAdder filesUnchanged;
+	private LongAdder filesDeleted;
+	private LongAdder bytesIn;
+	private LongAdder bytesOut;
+	private LongAdder errors;
+	private LongAdder preCheckHits;
+	private LongAdder preCheckMisses;
+	private volatile LongSupplier queueDepth;
+	private volatile LongSupplier activeUploads;
+
+	public SyncMetrics() {
+		this.stages = new LinkedHashMap<>();
+		for (Stage stage:Stage.values()) {
+			stages.put(stage, new StageTimer());
+		}
+		this.filesSynced = new LongAdder();
+		this.filesUnchanged = new LongAdder();
+		this.filesDeleted = new LongAdder();
+		this.bytesIn = new LongAdder();
+		this.bytesOut = new LongAdder();
+		this.errors = new LongAdder();
+		this.preCheckHits = new LongAdder();
+		this.preCheckMisses = new LongAdder();
+		this.queueDepth = () -> 0;
+		this.activeUploads = () -> 0;
+	}
+
+	/**
+	 * @param startNanos System.nanoTime() at the start of the operation
+	 */
+	public void record(Stage stage, long startNanos) {
+		stages.get(stage).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @param targetBytes -1 if nothing was written, e.g. a copy inside the store.
+	 */
+	public void fileSynced(long sourceBytes, long targetBytes) {
+		filesSynced.increment();
+		if (targetBytes >= 0) {
+			bytesIn.add(sourceBytes);
+			bytesOut.add(targetBytes);
+		}
+	}
+
+	/**
+	 * the content is the synced content, e.g. the file was only touched.
+	 */
+	public void fileUnchanged() {
+		filesUnchanged.increment();
+	}
+
+	public void filesDeleted(int count) {
+		filesDeleted.add(count);
+	}
+
+	public void error() {
+		errors.increment();
+	}
+
+	public void preCheck(boolean hit) {
+		if (hit) {
+			preCheckHits.increment();
+		}
+		else {
+			preCheckMisses.increment();
+		}
+	}
+
+	/**
+	 * sources of the current pipeline state, read when the metrics are queried.
+	 */
+	public void setGauges(LongSupplier queueDepth, LongSupplier activeUploads) {
+		this.queueDepth = queueDepth;
+		this.activeUploads = activeUploads;
+	}
+
+	@Override
+	public long getFilesSynced() {
+		return filesSynced.sum();
+	}
+
+	@Override
+	public long getFilesUnchanged() {
+		return filesUnchanged.sum();
+	}
+
+	@Override
+	public long getFilesDeleted() {
+		return filesDeleted.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getPreCheckHits() {
+		return preCheckHits.sum();
+	}
+
+	@Override
+	public long getPreCheckMisses() {
+		return preCheckMisses.sum();
+	}
+
+	@Override
+	public double getPreCheckHitRate() {
+		long hits = preCheckHits.sum();
+		long total = hits + preCheckMisses.sum();
+		return (total == 0) ? 0.0 : ((double) hits) / total;
+	}
+
+	@Override
+	public long getQueueDepth() {
+		return queueDepth.getAsLong();
+	}
+
+	@Override
+	public long getActiveUploads() {
+		return activeUploads.getAsLong();
+	}
+
+	public long getStageCount(Stage stage) {
+		return stages.get(stage).count.sum();
+	}
+
+	public double getStageSeconds(Stage stage) {
+		return stages.get(stage).totalNanos.sum() / 1e9;
+	}
+
+	public double getStageMaxSeconds(Stage stage) {
+		return stages.get(stage).maxNanos.get() / 1e9;
+	}
+
+	@Override
+	public Map<String, Long> getStageCounts() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (Stage stage:Stage.values()) {
+			result.put(stage.label(), getStageCount(stage));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Double> getStageSeconds() {
+		Map<String, Double> result = new LinkedHashMap<>();
+		for (Stage stage:Stage.values()) {
+			result.put(stage.label(), getStageSeconds(stage));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Double> getStageMaxSeconds() {
+		Map<String, Double> result = new LinkedHashMap<>();
+		for (Stage stage:Stage.values()) {
+			result.put(stage.label(), getStageMaxSeconds(stage));
+		}
+		return result;
+	}
+
+	/**
+	 * register in the platform MBeanServer, a previously registered instance (restarted sync) is replaced.
+	 */
+	public void registerMBean() {
+		synchronized (SyncMetrics.class) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(this, name);
+				registered = this;
+			}
+			catch (JMException e) {
+				LOG.warning("Error registering metrics MBean: "+e.toString());
+			}
+		}
+	}
+
+	/**
+	 * only removes the registration of this instance, not one of a newer instance.
+	 */
+	public void unregisterMBean() {
+		synchronized (SyncMetrics.class) {
+			if (registered != this) {
+				return;
+			}
+			registered = null;
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			}
+			catch (JMException e) {
+				LOG.warning("Error unregistering metrics MBean: "+e.toString());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "files synced="+getFilesSynced()+", unchanged="+getFilesUnchanged()+", deleted="+getFilesDeleted()+", errors="+getErrors()+", bytes in="+getBytesIn()+", bytes out="+getBytesOut();
+	}
+
+}
@@ -0,0 +1,50 @@
+package de.hechler.pgpencrypter.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the SyncMetrics, registered as "de.hechler.pgpencrypter:type=SyncMetrics".
+ */
+public interface SyncMetricsMXBean {
+
+	long getFilesSynced();
+
+	long getFilesUnchanged();
+
+	long getFilesDeleted();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	long getErrors();
+
+	long getPreCheckHits();
+
+	long getPreCheckMisses();
+
+	/**
+	 * @return share of the changed files with a synced entry, which were skipped by size and timestamp without hashing.
+	 */
+	double getPreCheckHitRate();
+
+	long getQueueDepth();
+
+	long getActiveUploads();
+
+	/**
+	 * @return number of timed operations per stage.
+	 */
+	Map<String, Long> getStageCounts();
+
+	/**
+	 * @return total time per stage in seconds.
+	 */
+	Map<String, Double> getStageSeconds();
+
+	/**
+	 * @return longest single operation per stage in seconds.
+	 */
+	Map<String, Double> getStageMaxSeconds();
+
+}
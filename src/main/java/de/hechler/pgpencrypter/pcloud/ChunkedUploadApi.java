@@ -0,0 +1,38 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.pcloud.sdk.ApiError;
+
+/**
+ * Upload of a file in chunks, modeled after the pCloud API methods 
+ * upload_create, upload_write, upload_save and upload_delete.
+ * 
+ * Chunks can be written in any order and in parallel, the upload stays on 
+ * the server until it is saved or deleted and can be continued after a restart. 
+ */
+public interface ChunkedUploadApi {
+
+	/** error code of the API if the upload id is unknown, e.g. the upload expired on the server */
+	public final static int ERROR_UPLOAD_NOT_FOUND = 1900;
+
+	/**
+	 * @return id of the new upload
+	 */
+	long createUpload() throws IOException, ApiError;
+
+	/**
+	 * write length bytes of data at the given offset of the upload. 
+	 */
+	void writeChunk(long uploadId, long offset, byte[] data, int length) throws IOException, ApiError;
+
+	/**
+	 * store the upload as file, an existing file is replaced.
+	 * @return id of the created file
+	 */
+	long saveUpload(long uploadId, Path cloudFile) throws IOException, ApiError;
+
+	void deleteUpload(long uploadId) throws IOException, ApiError;
+
+}
@@ -0,0 +1,403 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.pcloud.sdk.ApiError;
+
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+import de.hechler.pgpencrypter.persist.Deserializer;
+import de.hechler.pgpencrypter.persist.Serializer;
+import de.hechler.pgpencrypter.utils.Hex;
+
+/**
+ * Resumable upload of large files in chunks.
+ * 
+ * The ciphertext can not be reproduced (random session key), so a large file is encrypted once 
+ * into a local staging file and uploaded from there. The progress (upload id, finished chunks) 
+ * is saved in a small file per upload in the state folder after each chunk, after a restart the 
+ * upload continues with the missing chunks as long as the source file was not modified.
+ * Chunks of a file are transferred in parallel.
+ */
+public class ChunkedUploader {
+
+	private final static Logger LOG = Logger.getLogger(ChunkedUploader.class.getName());
+
+	public final static int DEFAULT_CHUNK_SIZE = 16 << 20;
+	public final static int DEFAULT_PARALLEL_CHUNKS = 4;
+	private final static int MAX_CHUNK_ATTEMPTS = 3;
+	private final static String PROGRESS_EXTENSION = ".progress";
+	private final static String STAGING_EXTENSION = ".pgp";
+
+	/**
+	 * persisted state of one chunked upload.
+	 */
+	public static class ChunkedUpload {
+		public final Path relSource;
+		public final long sourceLastModified;
+		public final EncryptResult encryptResult;
+		public final Path stagingFile;
+		public final int chunkSize;
+		private long uploadId;
+		private BitSet doneChunks;
+		
+		public ChunkedUpload(Path relSource, long sourceLastModified, EncryptResult encryptResult, Path stagingFile, int chunkSize, long uploadId, BitSet doneChunks) {
+			this.relSource = relSource;
+			this.sourceLastModified = sourceLastModified;
+			this.encryptResult = encryptResult;
+			this.stagingFile = stagingFile;
+			this.chunkSize = chunkSize;
+			this.uploadId = uploadId;
+			this.doneChunks = doneChunks;
+		}
+
+		public int getChunkCount() {
+			return (int) ((encryptResult.targetFilesize + chunkSize - 1) / chunkSize);
+		}
+		
+		synchronized long getUploadId() {
+			return uploadId;
+		}
+
+		public synchronized int getDoneChunkCount() {
+			return doneChunks.cardinality();
+		}
+		
+		synchronized boolean isDone(int chunk) {
+			return doneChunks.get(chunk);
+		}
+
+		synchronized void setDone(int chunk) {
+			doneChunks.set(chunk);
+		}
+
+		/**
+		 * forget the upload on the server, all chunks have to be written into a new upload.
+		 */
+		synchronized void restart() {
+			uploadId = -1;
+			doneChunks.clear();
+		}
+		
+		synchronized String toCSV() {
+			Serializer ser = new Serializer();
+			ser.writeString(relSource.toString());
+			ser.writeLong(sourceLastModified);
+			ser.writeLong(encryptResult.sourceFilesize);
+			ser.writeString(encryptResult.sourceSHA256);
+			ser.writeLong(encryptResult.targetFilesize);
+			ser.writeString(encryptResult.targetSHA256);
+			ser.writeString(stagingFile.toString());
+			ser.writeLong((long) chunkSize);
+			ser.writeLong(uploadId);
+			StringBuilder done = new StringBuilder();
+			for (int i=0; i<getChunkCount(); i++) {
+				done.append(doneChunks.get(i) ? '1' : '0');
+			}
+			ser.writeString(done.toString());
+			return ser.toString();
+		}
+		
+		static ChunkedUpload fromCSV(String line) {
+			Deserializer deser = new Deserializer(line);
+			if (deser.nextRecord() == Deserializer.NO_MORE_RECORDS) {
+				return null;
+			}
+			Path relSource = Paths.get(deser.nextString());
+			long sourceLastModified = deser.nextLong();
+			long sourceFilesize = deser.nextLong();
+			String sourceSHA256 = deser.nextString();
+			long targetFilesize = deser.nextLong();
+			String targetSHA256 = deser.nextString();
+			Path stagingFile = Paths.get(deser.nextString());
+			int chunkSize = deser.nextLong().intValue();
+			long uploadId = deser.nextLong();
+			String done = deser.nextString();
+			BitSet doneChunks = new BitSet();
+			for (int i=0; (done != null) && (i<done.length()); i++) {
+				if (done.charAt(i) == '1') {
+					doneChunks.set(i);
+				}
+			}
+			EncryptResult encryptResult = new EncryptResult(sourceFilesize, sourceSHA256, targetFilesize, targetSHA256);
+			return new ChunkedUpload(relSource, sourceLastModified, encryptResult, stagingFile, chunkSize, uploadId, doneChunks);
+		}
+	}
+	
+	private ChunkedUploadApi api;
+	private Path stateFolder;
+	private int chunkSize;
+	private ExecutorService chunkExecutor;
+	
+	public ChunkedUploader(ChunkedUploadApi api, Path stateFolder) {
+		this(api, stateFolder, DEFAULT_CHUNK_SIZE, DEFAULT_PARALLEL_CHUNKS);
+	}
+	
+	public ChunkedUploader(ChunkedUploadApi api, Path stateFolder, int chunkSize, int parallelChunks) {
+		this.api = api;
+		this.stateFolder = stateFolder;
+		this.chunkSize = chunkSize;
+		AtomicInteger cnt = new AtomicInteger();
+		this.chunkExecutor = Executors.newFixedThreadPool(parallelChunks, r -> {
+			Thread result = new Thread(r, "upload-chunk-" + cnt.incrementAndGet());
+			result.setDaemon(true);
+			return result;
+		});
+		try {
+			Files.createDirectories(stateFolder);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	/**
+	 * @return local file the source should be encrypted into before start() is called.
+	 */
+	public Path getStagingFile(Path relSource) {
+		return stateFolder.resolve(key(relSource) + STAGING_EXTENSION);
+	}
+
+	private Path getProgressFile(Path relSource) {
+		return stateFolder.resolve(key(relSource) + PROGRESS_EXTENSION);
+	}
+	
+	/**
+	 * @return the unfinished upload of the source file or null if there is none or the source file was modified since.  
+	 */
+	public ChunkedUpload resume(Path relSource, long sourceFilesize, long sourceLastModified) {
+		Path progressFile = getProgressFile(relSource);
+		if (!Files.exists(progressFile)) {
+			return null;
+		}
+		ChunkedUpload result = null;
+		try {
+			result = ChunkedUpload.fromCSV(new String(Files.readAllBytes(progressFile), StandardCharsets.UTF_8));
+		}
+		catch (IOException | RuntimeException e) {
+			LOG.warning("Error reading upload progress '"+progressFile+"': "+e.toString());
+		}
+		if ((result != null) && result.relSource.equals(relSource) && (result.sourceLastModified == sourceLastModified) 
+				&& (result.encryptResult.sourceFilesize == sourceFilesize) && (result.chunkSize == chunkSize) && isStagingFileComplete(result)) {
+			return result;
+		}
+		if (result != null) {
+			discard(result);
+		}
+		deleteQuietly(progressFile);
+		return null;
+	}
+
+	private static boolean isStagingFileComplete(ChunkedUpload upload) {
+		try {
+			return Files.size(upload.stagingFile) == upload.encryptResult.targetFilesize;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * @param encryptResult result of encrypting the source file into getStagingFile(relSource)
+	 */
+	public ChunkedUpload start(Path relSource, long sourceLastModified, EncryptResult encryptResult) {
+		ChunkedUpload result = new ChunkedUpload(relSource, sourceLastModified, encryptResult, getStagingFile(relSource), chunkSize, -1, new BitSet());
+		saveProgress(result);
+		return result;
+	}
+	
+	/**
+	 * upload the missing chunks and save the upload as cloudFile.
+	 * On success the progress and the staging file are deleted.
+	 * Transfer errors and API errors keep the progress to resume later. If the upload is gone 
+	 * on the server (expired or unknown), the next attempt starts a new upload from the staging file.
+	 * @return file id or -1 on error
+	 */
+	public long upload(ChunkedUpload upload, Path cloudFile) {
+		try {
+			if (upload.uploadId == -1) {
+				upload.uploadId = api.createUpload();
+				saveProgress(upload);
+			}
+			int alreadyDone = upload.getDoneChunkCount();
+			if (alreadyDone > 0) {
+				LOG.info("RESUME upload of '"+upload.relSource+"' with "+alreadyDone+"/"+upload.getChunkCount()+" chunks done");
+			}
+			try (FileChannel in = FileChannel.open(upload.stagingFile, StandardOpenOption.READ)) {
+				List<Future<?>> running = new ArrayList<>();
+				for (int chunk=0; chunk<upload.getChunkCount(); chunk++) {
+					if (!upload.isDone(chunk)) {
+						int currentChunk = chunk;
+						running.add(chunkExecutor.submit(() -> {
+							uploadChunk(upload, in, currentChunk);
+							return null;
+						}));
+					}
+				}
+				try {
+					for (Future<?> future:running) {
+						await(future);
+					}
+				}
+				finally {
+					// after an error, do not start the remaining chunks and let the started ones finish 
+					cancelAndWait(running);
+				}
+			}
+			long fileId = api.saveUpload(upload.uploadId, cloudFile);
+			deleteQuietly(getProgressFile(upload.relSource));
+			deleteQuietly(upload.stagingFile);
+			return fileId;
+		}
+		catch (ApiError e) {
+			if (e.errorCode() == ChunkedUploadApi.ERROR_UPLOAD_NOT_FOUND) {
+				LOG.warning("Upload of '"+cloudFile+"' is gone on the server, starting over with the next attempt: "+e.toString());
+				upload.restart();
+				saveProgress(upload);
+			}
+			else {
+				LOG.warning("Error in chunked upload of '"+cloudFile+"', "+upload.getDoneChunkCount()+"/"+upload.getChunkCount()+" chunks done: "+e.toString());
+			}
+			return -1;
+		}
+		catch (IOException e) {
+			LOG.warning("Error in chunked upload of '"+cloudFile+"', "+upload.getDoneChunkCount()+"/"+upload.getChunkCount()+" chunks done: "+e.toString());
+			return -1;
+		}
+	}
+
+	private void uploadChunk(ChunkedUpload upload, FileChannel in, int chunk) throws IOException, ApiError {
+		long offset = (long) chunk * upload.chunkSize;
+		int length = (int) Math.min(upload.chunkSize, upload.encryptResult.targetFilesize - offset);
+		byte[] data = new byte[length];
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		while (buf.hasRemaining()) {
+			if (in.read(buf, offset + buf.position()) == -1) {
+				throw new IOException("unexpected end of staging file '"+upload.stagingFile+"'");
+			}
+		}
+		for (int attempt=1; ; attempt++) {
+			try {
+				api.writeChunk(upload.uploadId, offset, data, length);
+				break;
+			}
+			catch (IOException e) {
+				if (attempt == MAX_CHUNK_ATTEMPTS) {
+					throw e;
+				}
+				LOG.warning("RETRY chunk "+chunk+" of '"+upload.relSource+"': "+e.toString());
+			}
+		}
+		upload.setDone(chunk);
+		saveProgress(upload);
+	}
+
+	private static void await(Future<?> future) throws IOException, ApiError {
+		try {
+			future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ApiError) {
+				throw (ApiError) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause.toString(), cause);
+		}
+	}
+	
+	private static void cancelAndWait(List<Future<?>> running) {
+		for (Future<?> future:running) {
+			future.cancel(false);
+		}
+		for (Future<?> future:running) {
+			try {
+				future.get();
+			}
+			catch (CancellationException | ExecutionException e) {
+				// already handled
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * forget the upload, delete the local files and the upload on the server.
+	 */
+	public void discard(ChunkedUpload upload) {
+		deleteQuietly(getProgressFile(upload.relSource));
+		deleteQuietly(upload.stagingFile);
+		if (upload.uploadId != -1) {
+			try {
+				api.deleteUpload(upload.uploadId);
+			}
+			catch (IOException | ApiError e) {
+				LOG.warning("Error deleting upload "+upload.uploadId+": "+e.toString());
+			}
+		}
+	}
+	
+	private synchronized void saveProgress(ChunkedUpload upload) {
+		Path progressFile = getProgressFile(upload.relSource);
+		Path tempFile = progressFile.resolveSibling(progressFile.getFileName().toString()+".tmp");
+		try {
+			try (PrintStream out = new PrintStream(tempFile.toFile(), StandardCharsets.UTF_8.name())) {
+				out.println(upload.toCSV());
+			}
+			Files.move(tempFile, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			LOG.warning("Error writing upload progress '"+progressFile+"': "+e.toString());
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOG.warning("Error deleting '"+file+"': "+e.toString());
+		}
+	}
+	
+	private static String key(Path relSource) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(relSource.toString().getBytes(StandardCharsets.UTF_8));
+			return Hex.toHex(hash, 0, 8);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	public void shutdown() {
+		chunkExecutor.shutdownNow();
+	}
+	
+}
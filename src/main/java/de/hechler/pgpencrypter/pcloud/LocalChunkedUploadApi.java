@@ -0,0 +1,78 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pcloud.sdk.ApiError;
+
+/**
+ * Local stand-in for the pCloud upload API, cloud paths are mapped into a root folder.
+ * Pending uploads are kept in the sub folder ".uploads".
+ */
+public class LocalChunkedUploadApi implements ChunkedUploadApi {
+
+	private Path rootFolder;
+	private Path uploadsFolder;
+	private AtomicLong nextId;
+	
+	public LocalChunkedUploadApi(Path rootFolder) {
+		this.rootFolder = rootFolder;
+		this.uploadsFolder = rootFolder.resolve(".uploads");
+		this.nextId = new AtomicLong(System.currentTimeMillis());
+	}
+
+	@Override
+	public long createUpload() throws IOException {
+		Files.createDirectories(uploadsFolder);
+		long result = nextId.incrementAndGet();
+		Files.createFile(uploadFile(result));
+		return result;
+	}
+
+	@Override
+	public void writeChunk(long uploadId, long offset, byte[] data, int length) throws IOException, ApiError {
+		try (FileChannel channel = FileChannel.open(existingUploadFile(uploadId), StandardOpenOption.WRITE)) {
+			ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+			long pos = offset;
+			while (buf.hasRemaining()) {
+				pos += channel.write(buf, pos);
+			}
+		}
+	}
+
+	@Override
+	public long saveUpload(long uploadId, Path cloudFile) throws IOException, ApiError {
+		Path target = resolve(cloudFile);
+		Files.createDirectories(target.getParent());
+		Files.move(existingUploadFile(uploadId), target, StandardCopyOption.REPLACE_EXISTING);
+		return uploadId;
+	}
+
+	@Override
+	public void deleteUpload(long uploadId) throws IOException {
+		Files.deleteIfExists(uploadFile(uploadId));
+	}
+
+	public Path resolve(Path cloudFile) {
+		return rootFolder.resolve(PCloudUploader.rPath(cloudFile).substring(1));
+	}
+	
+	private Path uploadFile(long uploadId) {
+		return uploadsFolder.resolve(Long.toString(uploadId));
+	}
+	
+	private Path existingUploadFile(long uploadId) throws ApiError {
+		Path result = uploadFile(uploadId);
+		if (!Files.exists(result)) {
+			throw new ApiError(ERROR_UPLOAD_NOT_FOUND, "Upload not found.");
+		}
+		return result;
+	}
+	
+}
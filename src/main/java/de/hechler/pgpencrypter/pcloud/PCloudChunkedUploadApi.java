@@ -0,0 +1,97 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.pcloud.sdk.ApiError;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * pCloud upload_* API methods, called directly over HTTP because the SDK does not support them.
+ * 
+ * https://docs.pcloud.com/methods/upload/
+ */
+public class PCloudChunkedUploadApi implements ChunkedUploadApi {
+
+	private final static MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+	private final static RequestBody EMPTY_BODY = RequestBody.create(OCTET_STREAM, new byte[0]);
+	
+	private PCloudUploader uploader;
+	private Path cloudFolder;
+	
+	public PCloudChunkedUploadApi(PCloudUploader uploader) {
+		this(uploader, Paths.get("/"));
+	}
+	
+	/**
+	 * relative paths of saved uploads are resolved against the cloudFolder.
+	 */
+	public PCloudChunkedUploadApi(PCloudUploader uploader, Path cloudFolder) {
+		this.uploader = uploader;
+		this.cloudFolder = cloudFolder;
+	}
+	
+	@Override
+	public long createUpload() throws IOException, ApiError {
+		return call(url("upload_create").build(), EMPTY_BODY).get("uploadid").getAsLong();
+	}
+
+	@Override
+	public void writeChunk(long uploadId, long offset, byte[] data, int length) throws IOException, ApiError {
+		HttpUrl url = url("upload_write")
+				.addQueryParameter("uploadid", Long.toString(uploadId))
+				.addQueryParameter("uploadoffset", Long.toString(offset))
+				.build();
+		call(url, RequestBody.create(OCTET_STREAM, data, 0, length));
+	}
+
+	@Override
+	public long saveUpload(long uploadId, Path file) throws IOException, ApiError {
+		Path cloudFile = cloudFolder.resolve(file);
+		long folderId = uploader.recursiveCreateFolder(cloudFile.getParent());
+		HttpUrl url = url("upload_save")
+				.addQueryParameter("uploadid", Long.toString(uploadId))
+				.addQueryParameter("folderid", Long.toString(folderId))
+				.addQueryParameter("name", cloudFile.getFileName().toString())
+				.build();
+		return call(url, EMPTY_BODY).getAsJsonObject("metadata").get("fileid").getAsLong();
+	}
+
+	@Override
+	public void deleteUpload(long uploadId) throws IOException, ApiError {
+		call(url("upload_delete").addQueryParameter("uploadid", Long.toString(uploadId)).build(), EMPTY_BODY);
+	}
+
+	private HttpUrl.Builder url(String method) {
+		return HttpUrl.parse("https://"+PCloudUploader.getConfig().getApiHost()).newBuilder().addPathSegment(method);
+	}
+	
+	private JsonObject call(HttpUrl url, RequestBody body) throws IOException, ApiError {
+		Request request = new Request.Builder()
+				.url(url)
+				.header("Authorization", "Bearer "+PCloudUploader.getConfig().getAccessToken())
+				.post(body)
+				.build();
+		try (Response response = PCloudUploader.getHttpClient().newCall(request).execute()) {
+			if (!response.isSuccessful()) {
+				throw new IOException("HTTP "+response.code()+" for "+url);
+			}
+			@SuppressWarnings("deprecation")
+			JsonObject result = new JsonParser().parse(response.body().string()).getAsJsonObject();
+			int resultCode = result.get("result").getAsInt();
+			if (resultCode != 0) {
+				throw new ApiError(resultCode, result.has("error") ? result.get("error").getAsString() : "error "+resultCode);
+			}
+			return result;
+		}
+	}
+	
+}
@@ -0,0 +1,254 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.pcloud.sdk.ApiError;
+import com.pcloud.sdk.DataSource;
+import com.pcloud.sdk.RemoteFile;
+
+import de.hechler.pgpencrypter.store.TargetStore;
+import okio.BufferedSink;
+
+/**
+ * Encrypted files are uploaded into a pCloud folder over the shared ApiClient.
+ */
+public class PCloudTargetStore implements TargetStore {
+
+	private final static Logger LOG = Logger.getLogger(PCloudTargetStore.class.getName());
+
+	private Path cloudFolder;
+	private PCloudUploader uploader;
+	private ChunkedUploadApi chunkedUploadApi;
+	private Path folderCacheFile;
+	/** staging files are renamed directly afterwards, keep them to save the lookup of the file id */
+	private Map<Path, RemoteFile> uploadedFiles;
+
+	public PCloudTargetStore(Path cloudFolder) {
+		this(cloudFolder, new PCloudUploader());
+	}
+
+	PCloudTargetStore(Path cloudFolder, PCloudUploader uploader) {
+		this.cloudFolder = cloudFolder;
+		this.uploader = uploader;
+		this.chunkedUploadApi = new PCloudChunkedUploadApi(uploader, cloudFolder);
+		this.folderCacheFile = null;
+		this.uploadedFiles = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * keep the cloud folder ids in a file, so a restart does not have to look up all folders again.
+	 * @param folderCacheFile null to not persist the folder ids.
+	 */
+	public void setFolderCacheFile(Path folderCacheFile) {
+		this.folderCacheFile = folderCacheFile;
+	}
+
+	@Override
+	public void open() {
+		if (folderCacheFile != null) {
+			uploader.getFolderCache().load(folderCacheFile);
+			LOG.info("cloud folder cache entries: "+uploader.getFolderCache().size());
+		}
+	}
+
+	@Override
+	public void put(Path file, ContentWriter content) throws IOException {
+		upload(file, content);
+	}
+
+	@Override
+	public void putStaging(Path file, ContentWriter content) throws IOException {
+		uploadedFiles.put(file, upload(file, content));
+	}
+
+	private RemoteFile upload(Path file, ContentWriter content) throws IOException {
+		Path cloudFile = cloudFolder.resolve(file);
+		RemoteFile result = uploader.uploadFile(cloudFile, new ContentDataSource(content));
+		if (result == null) {
+			throw new IOException("error uploading "+PCloudUploader.rPath(cloudFile));
+		}
+		return result;
+	}
+
+	/**
+	 * a move into another folder is a server side move followed by a rename.
+	 */
+	@Override
+	public void rename(Path file, Path newFile) throws IOException {
+		RemoteFile remoteFile = uploadedFiles.remove(file);
+		if (remoteFile == null) {
+			remoteFile = loadFile(file);
+			if (remoteFile == null) {
+				throw new IOException("file not found "+PCloudUploader.rPath(cloudFolder.resolve(file)));
+			}
+		}
+		Path cloudNewFile = cloudFolder.resolve(newFile);
+		boolean renameRequired = !remoteFile.name().equals(cloudNewFile.getFileName().toString());
+		if (!cloudFolder.resolve(file).getParent().equals(cloudNewFile.getParent())) {
+			if (renameRequired && exists(newFile.resolveSibling(remoteFile.name()))) {
+				throw new IOException("move of "+PCloudUploader.rPath(cloudFolder.resolve(file))+" would replace another file");
+			}
+			try {
+				remoteFile = uploader.moveFile(remoteFile, cloudNewFile.getParent());
+			} catch (ApiError e) {
+				throw new IOException(e.toString(), e);
+			}
+		}
+		if (renameRequired && !uploader.renameFile(remoteFile, cloudNewFile)) {
+			throw new IOException("error renaming "+PCloudUploader.rPath(cloudFolder.resolve(file)));
+		}
+	}
+
+	/**
+	 * server side copy, the content is not uploaded again.
+	 * The SDK copies without a new name, so the copy is renamed afterwards.
+	 */
+	@Override
+	public boolean copy(Path file, Path newFile) throws IOException {
+		Path cloudFile = cloudFolder.resolve(file);
+		Path cloudNewFile = cloudFolder.resolve(newFile);
+		if (cloudFile.getParent().equals(cloudNewFile.getParent())) {
+			// the copy would replace the file itself
+			return false;
+		}
+		RemoteFile remoteFile = loadFile(file);
+		if (remoteFile == null) {
+			throw new IOException("file not found "+PCloudUploader.rPath(cloudFile));
+		}
+		boolean renameRequired = !remoteFile.name().equals(cloudNewFile.getFileName().toString());
+		if (renameRequired && exists(newFile.resolveSibling(remoteFile.name()))) {
+			// the copy would replace another synced file in the target folder
+			return false;
+		}
+		RemoteFile copiedFile;
+		try {
+			copiedFile = uploader.copyFile(remoteFile, cloudNewFile.getParent());
+		} catch (ApiError e) {
+			throw new IOException(e.toString(), e);
+		}
+		if (renameRequired && !uploader.renameFile(copiedFile, cloudNewFile)) {
+			throw new IOException("error renaming copy to "+PCloudUploader.rPath(cloudNewFile));
+		}
+		return true;
+	}
+
+	@Override
+	public boolean delete(Path file) {
+		uploadedFiles.remove(file);
+		return uploader.deleteFile(cloudFolder.resolve(file));
+	}
+
+	/**
+	 * one call for the whole folder, pCloud has no batch delete for single files.
+	 */
+	@Override
+	public boolean deleteFolder(Path folder) {
+		return uploader.deleteFolder(cloudFolder.resolve(folder));
+	}
+
+	@Override
+	public boolean exists(Path file) throws IOException {
+		return loadFile(file) != null;
+	}
+
+	@Override
+	public List<Path> list(Path folder) throws IOException {
+		List<Path> result = new ArrayList<>();
+		try {
+			for (RemoteFile remoteFile:uploader.listFiles(cloudFolder.resolve(folder))) {
+				result.add(folder.resolve(remoteFile.name()));
+			}
+		} catch (ApiError e) {
+			throw new IOException(e.toString(), e);
+		}
+		return result;
+	}
+
+	private RemoteFile loadFile(Path file) throws IOException {
+		try {
+			return uploader.loadFile(cloudFolder.resolve(file));
+		} catch (ApiError e) {
+			throw new IOException(e.toString(), e);
+		}
+	}
+
+	@Override
+	public ChunkedUploadApi getChunkedUploadApi() {
+		return chunkedUploadApi;
+	}
+
+	@Override
+	public void flush() {
+		if (folderCacheFile != null) {
+			uploader.getFolderCache().save(folderCacheFile);
+		}
+	}
+
+	/**
+	 * the ApiClient is shut down, it is created again with the next call.
+	 */
+	@Override
+	public void close() {
+		flush();
+		uploadedFiles.clear();
+		PCloudUploader.shutdownApiClient();
+	}
+
+	/**
+	 * @return number of uploaded staging files waiting for their rename. 
+	 */
+	int getPendingRenameCount() {
+		return uploadedFiles.size();
+	}
+
+	@Override
+	public String toString() {
+		return PCloudUploader.getConnectionStatistics()+", "+uploader.getFolderCache();
+	}
+
+	/**
+	 * The content is written directly into the upload request, the length is not known in advance,
+	 * so the upload uses chunked transfer encoding.
+	 * If the http client writes the body more than once (retry), the content is produced again.
+	 */
+	private static class ContentDataSource extends DataSource {
+
+		private ContentWriter content;
+
+		public ContentDataSource(ContentWriter content) {
+			this.content = content;
+		}
+
+		@Override
+		public long contentLength() {
+			return -1;
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			// the sink is owned by the http client, closing the stream must not close it
+			OutputStream out = new FilterOutputStream(sink.outputStream()) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+			content.writeTo(out);
+			out.flush();
+		}
+
+	}
+
+}
@@ -1,24 +1,31 @@
 package de.hechler.pgpencrypter.pcloud;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 import com.pcloud.sdk.ApiClient;
 import com.pcloud.sdk.ApiError;
 import com.pcloud.sdk.Authenticators;
+import com.pcloud.sdk.Call;
 import com.pcloud.sdk.DataSource;
 import com.pcloud.sdk.PCloudSdk;
+import com.pcloud.sdk.RemoteEntry;
 import com.pcloud.sdk.RemoteFile;
 import com.pcloud.sdk.RemoteFolder;
 import com.pcloud.sdk.UploadOptions;
 
-import okio.BufferedSink;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 
 /**
  * Test using pCloud API - Java SDK https://github.com/pCloud/pcloud-sdk-java
@@ -32,8 +39,10 @@ import okio.BufferedSink;
 
 public class PCloudUploader {
 
+	private final static Logger LOG = Logger.getLogger(PCloudUploader.class.getName());
+
 	private final static String CONFIG_FILENAME = ".env";
-	private final static String TEMP_UPLOAD_FILENAME = "pclouduploader_file.pgp";
+	private final static int ERROR_FILE_NOT_FOUND = 2009;
 
 
 	private static PCloudConfig config;
@@ -45,51 +54,127 @@ public class PCloudUploader {
 	}
 
 
+	private final static int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+	private final static long DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+	
+	private static int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+	private static long idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+	private static ConnectionPool connectionPool;
+	private static final AtomicLong clientsCreated = new AtomicLong();
+	private static final AtomicLong calls = new AtomicLong();
+	private static final AtomicLong callsFindingIdleConnection = new AtomicLong();
+	private static final AtomicLong httpConnectionsAcquired = new AtomicLong();
+	private static final AtomicLong httpConnectionsCreated = new AtomicLong();
+	
+	/**
+	 * The ApiClient is created once and shared by all threads, connections are kept alive in a pool.
+	 * Pooled connections which were not used for idleTimeoutSeconds are closed, the client itself stays alive.
+	 * Takes effect with the next created client.
+	 */
+	public static synchronized void configureConnectionPool(int maxIdleConnections, long idleTimeoutSeconds) {
+		PCloudUploader.maxIdleConnections = maxIdleConnections;
+		PCloudUploader.idleTimeoutSeconds = idleTimeoutSeconds;
+	}
+	
 	private static ApiClient internApiClient;
 	public static synchronized ApiClient getApiClient() {
 		if (internApiClient == null) {
+			connectionPool = new ConnectionPool(maxIdleConnections, idleTimeoutSeconds, TimeUnit.SECONDS);
 			internApiClient = PCloudSdk.newClientBuilder()
 					.authenticator(Authenticators.newOAuthAuthenticator(getConfig().getAccessToken()))
 					.apiHost(getConfig().getApiHost())
-					// Other configuration...
+					.connectionPool(connectionPool)
 					.create();
+			clientsCreated.incrementAndGet();
 		}
 		return internApiClient;
 	}
+	private static OkHttpClient internHttpClient;
+	/**
+	 * plain http client for API methods not supported by the SDK, shares the connection pool with the ApiClient.
+	 */
+	public static synchronized OkHttpClient getHttpClient() {
+		if (internHttpClient == null) {
+			getApiClient();
+			internHttpClient = new OkHttpClient.Builder()
+					.connectionPool(connectionPool)
+					.eventListener(new ConnectionReuseListener())
+					.build();
+		}
+		return internHttpClient;
+	}
+	
 	public static synchronized void shutdownApiClient() {
 		if (internApiClient == null) {
 			return;
 		}
 		internApiClient.shutdown();
 		internApiClient = null;
+		internHttpClient = null;
+		connectionPool.evictAll();
+		connectionPool = null;
 	}
 	
-	
-	public static class InputStreamDataSource extends DataSource {
-		private InputStream in;
-		public InputStreamDataSource(InputStream in) {
-			this.in = in;
-		}
-        @Override
-        public long contentLength() {
-            return -1;
-        }
+	/**
+	 * counts the connections used by the plain http client and how many of them were newly connected,
+	 * the SDK does not allow to register an event listener for its own calls. 
+	 */
+	private static class ConnectionReuseListener extends EventListener {
 		@Override
-		public void writeTo(BufferedSink sink) throws IOException {
-			OutputStream out = sink.outputStream();
-			byte[] buf = new byte[4096];
-			int cnt=0;
-			while (true) {
-				cnt = in.read(buf);
-				System.out.println("CNT: "+cnt);
-				if (cnt <= 0) {
-					break;
-				}
-				out.write(buf, 0, cnt);
-			}
+		public void connectEnd(okhttp3.Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+			httpConnectionsCreated.incrementAndGet();
+		}
+		@Override
+		public void connectionAcquired(okhttp3.Call call, Connection connection) {
+			httpConnectionsAcquired.incrementAndGet();
+		}
+	}
+
+	/**
+	 * execute the call and count whether the pool had an idle connection when the call started,
+	 * this only samples the pool, the SDK call does not tell which connection it used. 
+	 */
+	private static <T> T execute(Call<T> call) throws IOException, ApiError {
+		ConnectionPool pool;
+		synchronized (PCloudUploader.class) {
+			pool = connectionPool;
+		}
+		calls.incrementAndGet();
+		if ((pool != null) && (pool.idleConnectionCount() > 0)) {
+			callsFindingIdleConnection.incrementAndGet();
 		}
+		return call.execute();
 	}
 	
+	public static synchronized String getConnectionStatistics() {
+		long cntCalls = calls.get();
+		long cntIdleFound = callsFindingIdleConnection.get();
+		long percentIdleFound = (cntCalls == 0) ? 0 : (100 * cntIdleFound / cntCalls);
+		long cntAcquired = httpConnectionsAcquired.get();
+		long cntReused = Math.max(0, cntAcquired - httpConnectionsCreated.get());
+		long percentReused = (cntAcquired == 0) ? 0 : (100 * cntReused / cntAcquired);
+		int openConnections = (connectionPool == null) ? 0 : connectionPool.connectionCount();
+		int idleConnections = (connectionPool == null) ? 0 : connectionPool.idleConnectionCount();
+		return "api clients created="+clientsCreated.get()+", api calls="+cntCalls+", api calls finding an idle pooled connection="+cntIdleFound+" ("+percentIdleFound+"%)"
+				+", http connections acquired="+cntAcquired+", reused="+cntReused+" ("+percentReused+"%)"
+				+", open connections="+openConnections+", idle="+idleConnections;
+	}
+	
+	
+	private RemoteFolderCache folderCache;
+	
+	public PCloudUploader() {
+		this.folderCache = new RemoteFolderCache(new RemoteFolderCache.FolderApi() {
+			@Override
+			public long loadFolderId(String remotePath) throws IOException, ApiError {
+				return execute(getApiClient().loadFolder(remotePath)).folderId();
+			}
+			@Override
+			public long createFolder(long parentFolderId, String name) throws IOException, ApiError {
+				return execute(getApiClient().createFolder(parentFolderId, name)).folderId();
+			}
+		});
+	}
 	
 	/**
 	 * 
@@ -101,91 +186,165 @@ public class PCloudUploader {
 		String filename = cloudPath.getFileName().toString();
 		long result = -1;
 		try {
-			long folderId = recursiveCreateFolder(getApiClient(), cloudPath.getParent());
-			RemoteFile rFile = getApiClient().createFile(folderId, filename, DataSource.create(localFile.toFile()), UploadOptions.OVERRIDE_FILE).execute();
+			long folderId = recursiveCreateFolder(cloudPath.getParent());
+			RemoteFile rFile = execute(getApiClient().createFile(folderId, filename, DataSource.create(localFile.toFile()), UploadOptions.OVERRIDE_FILE));
 			result = rFile.fileId();
         } catch (IOException | ApiError e) {
-        	e.printStackTrace();
-            System.err.println("Error upload file '"+cloudPath+"': "+e.toString());
+            LOG.warning("Error upload file '"+cloudPath+"': "+e.toString());
         }
         return result;
 	}
 
 	/**
-	 * 
-	 * @param relPath
-	 * @param in
-	 * @return file id or -1 on error
+	 * the data source is written directly into the upload request, e.g. encrypting the source file on the fly.
+	 * @return the uploaded file or null on error
 	 */
-	public long uploadFile(Path relPath, InputStream in)  {
-		ApiClient apiClient = getApiClient();
-		String filename = relPath.getFileName().toString();
-		long result = -1;
+	public RemoteFile uploadFile(Path cloudPath, DataSource data)  {
+		String filename = cloudPath.getFileName().toString();
 		try {
-			File tempFile = in2tempFile(in);
-			long folderId = recursiveCreateFolder(apiClient, relPath.getParent());
-			
-//			RemoteFile rFile = apiClient.createFile(folderId, filename, new InputStreamDataSource(in), UploadOptions.OVERRIDE_FILE).execute();
-//			RemoteFile rFile = apiClient.createFile(rPath(relPath.getParent()), filename, DataSource.create(tempFile), UploadOptions.OVERRIDE_FILE).execute();
-			RemoteFile rFile = apiClient.createFile(folderId, filename, DataSource.create(tempFile), UploadOptions.OVERRIDE_FILE).execute();
-			result = rFile.fileId();
-        } catch (IOException | ApiError e) {
-        	e.printStackTrace();
-            System.err.println("Error upload file '"+relPath+"': "+e.toString());
-        }
-		removeTempFile();
-        shutdownApiClient();
-        return result;
+			long folderId = recursiveCreateFolder(cloudPath.getParent());
+			try {
+				return execute(getApiClient().createFile(folderId, filename, data, UploadOptions.OVERRIDE_FILE));
+			}
+			catch (ApiError e) {
+				if (!RemoteFolderCache.isDirectoryDoesNotExist(e)) {
+					throw e;
+				}
+			}
+			// cached folder id is outdated, the folder was deleted in the cloud
+			folderCache.invalidate(cloudPath.getParent());
+			folderId = recursiveCreateFolder(cloudPath.getParent());
+			return execute(getApiClient().createFile(folderId, filename, data, UploadOptions.OVERRIDE_FILE));
+		} catch (IOException | ApiError | RuntimeException e) {
+			LOG.warning("Error upload file '"+cloudPath+"': "+e.toString());
+			return null;
+		}
 	}
 
-	private static File in2tempFile(InputStream in) {
+	/**
+	 * rename the file in its folder, an existing file with the new name is replaced.
+	 * @return false on error
+	 */
+	public boolean renameFile(RemoteFile file, Path cloudPath)  {
+		String newFilename = cloudPath.getFileName().toString();
 		try {
-			File tempFile = new File(TEMP_UPLOAD_FILENAME); 
-			try (OutputStream out = new FileOutputStream(tempFile)) {
-				byte[] buf = new byte[4096];
-				while (true) {
-					int cnt = in.read(buf);
-					if (cnt <= 0) {
-						break;
-					}
-					out.write(buf, 0, cnt);
+			try {
+				execute(getApiClient().renameFile(file.fileId(), newFilename));
+				return true;
+			}
+			catch (ApiError e) {
+				if (e.errorCode() != 2004) { // File or folder already exists.
+					throw e;
 				}
 			}
-			tempFile.deleteOnExit();
-			return tempFile; 
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e.toString(), e);
+			execute(getApiClient().deleteFile(rPath(cloudPath)));
+			execute(getApiClient().renameFile(file.fileId(), newFilename));
+			return true;
+		} catch (IOException | ApiError e) {
+			LOG.warning("Error renaming file to '"+cloudPath+"': "+e.toString());
+			return false;
 		}
 	}
-	private static void removeTempFile() {
+	
+	/**
+	 * @return the file or null if it does not exist.
+	 */
+	public RemoteFile loadFile(Path cloudPath) throws IOException, ApiError {
 		try {
-			Files.deleteIfExists(Paths.get(TEMP_UPLOAD_FILENAME));
-		} catch (IOException e) { }
+			return execute(getApiClient().loadFile(rPath(cloudPath)));
+		}
+		catch (ApiError e) {
+			if ((e.errorCode() == ERROR_FILE_NOT_FOUND) || RemoteFolderCache.isDirectoryDoesNotExist(e)) {
+				return null;
+			}
+			throw e;
+		}
 	}
-	
-	public long recursiveCreateFolder(ApiClient apiClient, Path folder) {
+
+	/**
+	 * server side copy into the folder, the copy keeps the name of the file. An existing file with this name is replaced.
+	 */
+	public RemoteFile copyFile(RemoteFile file, Path cloudFolder) throws IOException, ApiError {
+		long folderId = recursiveCreateFolder(cloudFolder);
+		return execute(getApiClient().copyFile(file.fileId(), folderId));
+	}
+
+	/**
+	 * move into the folder, the file keeps its name.
+	 */
+	public RemoteFile moveFile(RemoteFile file, Path cloudFolder) throws IOException, ApiError {
+		long folderId = recursiveCreateFolder(cloudFolder);
+		return execute(getApiClient().moveFile(file.fileId(), folderId));
+	}
+
+	/**
+	 * @return the files in the cloud folder, empty if the folder does not exist.
+	 */
+	public List<RemoteFile> listFiles(Path cloudFolder) throws IOException, ApiError {
+		List<RemoteFile> result = new ArrayList<>();
 		try {
-			if (folder == null) {
-				return RemoteFolder.ROOT_FOLDER_ID;
+			for (RemoteEntry entry:execute(getApiClient().listFolder(rPath(cloudFolder))).children()) {
+				if (entry.isFile()) {
+					result.add(entry.asFile());
+				}
 			}
-			try {
-				RemoteFolder fetchedFolder = apiClient.loadFolder(rPath(folder)).execute();
-				return fetchedFolder.folderId();
+		}
+		catch (ApiError e) {
+			if (!RemoteFolderCache.isDirectoryDoesNotExist(e)) {
+				throw e;
 			}
-			catch (ApiError e) {
-				if (e.errorCode() != 2005) { // Directory does not exist.
-					throw e;
-				}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return false if the file does not exist or could not be deleted.
+	 */
+	public boolean deleteFile(Path cloudPath) {
+		try {
+			return execute(getApiClient().deleteFile(rPath(cloudPath)));
+		} catch (IOException | ApiError e) {
+			LOG.warning("Error deleting '"+cloudPath+"': "+e.toString());
+			return false;
+		}
+	}
+	
+	/**
+	 * delete the folder recursively with all files and sub folders.
+	 * @return false if the folder does not exist or could not be deleted.
+	 */
+	public boolean deleteFolder(Path cloudFolder) {
+		try {
+			long folderId = execute(getApiClient().loadFolder(rPath(cloudFolder))).folderId();
+			execute(getApiClient().deleteFolder(folderId, true));
+			return true;
+		} catch (ApiError e) {
+			if (!RemoteFolderCache.isDirectoryDoesNotExist(e)) {
+				LOG.warning("Error deleting folder '"+cloudFolder+"': "+e.toString());
 			}
-			long parentID = recursiveCreateFolder(apiClient, folder.getParent());
-			RemoteFolder newFolder = apiClient.createFolder(parentID, folder.getFileName().toString()).execute();
-			return newFolder.folderId();
+			return false;
+		} catch (IOException e) {
+			LOG.warning("Error deleting folder '"+cloudFolder+"': "+e.toString());
+			return false;
+		} finally {
+			folderCache.invalidate(cloudFolder);
+		}
+	}
+	
+	/**
+	 * @return id of the folder, missing folders are created. Folder ids are cached.
+	 */
+	public long recursiveCreateFolder(Path folder) {
+		try {
+			return folderCache.getFolderId(folder);
 		} catch (IOException | ApiError e) {
 			throw new RuntimeException("Error creating folder '"+folder+"': "+e.toString(), e);
 		}
 	}
 
+	public RemoteFolderCache getFolderCache() {
+		return folderCache;
+	}
 	
 	public static String rPath(Path folder) {
 		String result = folder.toString().replace('\\', '/');
@@ -0,0 +1,213 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.pcloud.sdk.ApiError;
+import com.pcloud.sdk.RemoteFolder;
+
+import de.hechler.pgpencrypter.persist.FastDeserializer;
+import de.hechler.pgpencrypter.persist.Serializer;
+
+/**
+ * Cache of cloud folder path -> folder id, missing folders are created on the fly.
+ * 
+ * Each folder is resolved only once, concurrent requests for the same folder wait for the 
+ * running lookup/creation instead of issuing their own API calls. 
+ * Cached ids can be outdated when folders are deleted in the cloud, the caller has to 
+ * invalidate() the folder when the API reports error 2005 (directory does not exist).
+ */
+public class RemoteFolderCache {
+
+	private final static Logger LOG = Logger.getLogger(RemoteFolderCache.class.getName());
+
+	private final static int ERROR_DIRECTORY_DOES_NOT_EXIST = 2005;
+	private final static int ERROR_ALREADY_EXISTS = 2004;
+	
+	/** the API calls used by the cache */
+	public interface FolderApi {
+		/** @throws ApiError with code 2005 if the folder does not exist */
+		long loadFolderId(String remotePath) throws IOException, ApiError;
+		/** @throws ApiError with code 2004 if the folder already exists */
+		long createFolder(long parentFolderId, String name) throws IOException, ApiError;
+	}
+	
+	private FolderApi api;
+	private Map<String, Long> folderIds;
+	private Map<String, CompletableFuture<Long>> inProgress;
+	private AtomicLong hits;
+	private AtomicLong apiCalls;
+	
+	public RemoteFolderCache(FolderApi api) {
+		this.api = api;
+		this.folderIds = new ConcurrentHashMap<>();
+		this.inProgress = new ConcurrentHashMap<>();
+		this.hits = new AtomicLong();
+		this.apiCalls = new AtomicLong();
+	}
+
+	/**
+	 * @return id of the folder, missing folders (and parent folders) are created.
+	 */
+	public long getFolderId(Path folder) throws IOException, ApiError {
+		if (folder == null) {
+			return RemoteFolder.ROOT_FOLDER_ID;
+		}
+		String key = PCloudUploader.rPath(folder);
+		Long result = folderIds.get(key);
+		if (result != null) {
+			hits.incrementAndGet();
+			return result;
+		}
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		CompletableFuture<Long> running = inProgress.putIfAbsent(key, future);
+		if (running != null) {
+			hits.incrementAndGet();
+			return await(running);
+		}
+		try {
+			long folderId = resolve(folder, key);
+			folderIds.put(key, folderId);
+			future.complete(folderId);
+			return folderId;
+		}
+		catch (IOException | ApiError | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			inProgress.remove(key, future);
+		}
+	}
+
+	private long resolve(Path folder, String key) throws IOException, ApiError {
+		try {
+			apiCalls.incrementAndGet();
+			return api.loadFolderId(key);
+		}
+		catch (ApiError e) {
+			if (e.errorCode() != ERROR_DIRECTORY_DOES_NOT_EXIST) {
+				throw e;
+			}
+		}
+		long parentId = getFolderId(folder.getParent());
+		try {
+			apiCalls.incrementAndGet();
+			long result = api.createFolder(parentId, folder.getFileName().toString());
+			LOG.fine("CREATED FOLDER "+key);
+			return result;
+		}
+		catch (ApiError e) {
+			if (e.errorCode() != ERROR_ALREADY_EXISTS) {
+				throw e;
+			}
+		}
+		// created in the meantime by someone else
+		apiCalls.incrementAndGet();
+		return api.loadFolderId(key);
+	}
+
+	private static long await(CompletableFuture<Long> running) throws IOException, ApiError {
+		try {
+			return running.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for folder creation", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ApiError) {
+				throw (ApiError) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause.toString(), cause);
+		}
+	}
+	
+	/**
+	 * forget the folder and all cached sub folders, e.g. after error 2005 (directory does not exist).
+	 */
+	public void invalidate(Path folder) {
+		if (folder == null) {
+			return;
+		}
+		String key = PCloudUploader.rPath(folder);
+		String prefix = key.endsWith("/") ? key : key + "/";
+		folderIds.keySet().removeIf(path -> path.equals(key) || path.startsWith(prefix));
+	}
+
+	public static boolean isDirectoryDoesNotExist(ApiError e) {
+		return e.errorCode() == ERROR_DIRECTORY_DOES_NOT_EXIST;
+	}
+	
+	public int size() {
+		return folderIds.size();
+	}
+
+	public void clear() {
+		folderIds.clear();
+	}
+	
+	/**
+	 * read folder ids saved by a previous run, outdated ids are detected by error 2005.  
+	 */
+	public void load(Path cacheFile) {
+		if (!Files.exists(cacheFile)) {
+			return;
+		}
+		try (FastDeserializer deser = new FastDeserializer(cacheFile)) {
+			deser.nextRecord(); // skip header
+			while (deser.nextRecord() != FastDeserializer.NO_MORE_RECORDS) {
+				String path = deser.nextString();
+				long folderId = deser.nextLong(-1);
+				if ((path != null) && (folderId != -1)) {
+					folderIds.put(path, folderId);
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			LOG.warning("Error reading folder cache '"+cacheFile+"': "+e.toString());
+		}
+	}
+
+	public void save(Path cacheFile) {
+		Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName().toString()+".tmp");
+		try {
+			try (PrintStream out = new PrintStream(tempFile.toFile(), StandardCharsets.UTF_8.name())) {
+				Serializer ser = new Serializer();
+				ser.writeHeader("path");
+				ser.writeHeader("folderId");
+				out.println(ser.toString());
+				for (Map.Entry<String, Long> entry:folderIds.entrySet()) {
+					ser = new Serializer();
+					ser.writeString(entry.getKey());
+					ser.writeLong(entry.getValue());
+					out.println(ser.toString());
+				}
+			}
+			Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			LOG.warning("Error writing folder cache '"+cacheFile+"': "+e.toString());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "folder cache entries="+folderIds.size()+", hits="+hits.get()+", api calls="+apiCalls.get();
+	}
+	
+}
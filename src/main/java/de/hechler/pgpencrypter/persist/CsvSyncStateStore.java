@@ -0,0 +1,181 @@
+package de.hechler.pgpencrypter.persist;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+/**
+ * the original sync cache: each synced file is appended as CSV line,
+ * removed files are appended as tombstone line (fileSize -1, no hashes),
+ * the whole file is rewritten every hour to remove outdated lines. 
+ * The file is kept open for appending, lines are buffered until flush(). 
+ */
+public class CsvSyncStateStore implements SyncStateStore {
+
+	private final static Logger LOG = Logger.getLogger(CsvSyncStateStore.class.getName());
+
+	private static final long FULL_SAVE_INTERVAL_MS = 3600000L;   // 1h
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+	private static final long REMOVED = -1;
+
+	private Path syncCacheCSVFile;
+	private long lastFullSave;
+	private FileOutputStream fileOut;
+	private OutputStream out;
+	
+	public CsvSyncStateStore(Path syncCacheCSVFile) {
+		this.syncCacheCSVFile = syncCacheCSVFile;
+		this.lastFullSave = System.currentTimeMillis();
+		this.fileOut = null;
+		this.out = null;
+	}
+	
+	/**
+	 * appending requires an existing file with header, otherwise a full save has to create it first.
+	 */
+	private boolean openForAppend() throws IOException {
+		if (out != null) {
+			return true;
+		}
+		if (!Files.exists(syncCacheCSVFile)) {
+			return false;
+		}
+		fileOut = new FileOutputStream(syncCacheCSVFile.toFile(), true);
+		out = new BufferedOutputStream(fileOut, WRITE_BUFFER_SIZE);
+		return true;
+	}
+
+	private void closeAppend() throws IOException {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		}
+		finally {
+			out = null;
+			fileOut = null;
+		}
+	}
+	
+	@Override
+	public void load(Consumer<FileInfo> putConsumer, Consumer<Path> removeConsumer) {
+		if (!Files.exists(syncCacheCSVFile)) {
+			return;
+		}
+		try (FastDeserializer deser = new FastDeserializer(syncCacheCSVFile)) {
+			deser.nextRecord(); // skip header
+			while (true) {
+				FileInfo fileInfo = FileInfo.fromCSV(deser);
+				if (fileInfo == null) {
+					break;
+				}
+				if (fileInfo.fileSize == REMOVED) {
+					removeConsumer.accept(fileInfo.file);
+				}
+				else {
+					putConsumer.accept(fileInfo);
+				}
+			}
+		} 
+		catch (RuntimeException e) {
+			LOG.warning("Error reading synced files cache: "+e.toString());
+		}		
+	}
+
+	@Override
+	public synchronized boolean save(FileInfo fi) {
+		return appendLine(fi);
+	}
+
+	/**
+	 * appends a tombstone, removed entries are dropped with the next full save.
+	 */
+	@Override
+	public synchronized boolean remove(Path file) {
+		return appendLine(new FileInfo(file, System.currentTimeMillis(), REMOVED, REMOVED, null, null));
+	}
+
+	private boolean appendLine(FileInfo fi) {
+		try {
+			if (!openForAppend()) {
+				return false;
+			}
+			out.write(fi.toCSV().getBytes(StandardCharsets.UTF_8));
+			out.write(LINE_SEPARATOR);
+			return true;
+		}
+		catch (IOException e) {
+			LOG.warning("Error in quicksave: "+e.toString());
+			return false;
+		}
+	}
+
+	@Override
+	public boolean needsCompaction(int liveEntries) {
+		return System.currentTimeMillis() - lastFullSave >= FULL_SAVE_INTERVAL_MS;
+	}
+
+	@Override
+	public synchronized boolean compact(Collection<FileInfo> liveEntries) {
+		try {
+			LOG.info("FULLSAVE '"+syncCacheCSVFile+"'");
+			long now = System.currentTimeMillis();
+			closeAppend();
+			if (Files.exists(syncCacheCSVFile)) {
+				Path backupFile = syncCacheCSVFile.resolveSibling(syncCacheCSVFile.getFileName().toString()+"_BAK");
+				Files.move(syncCacheCSVFile, backupFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			try (PrintStream out = new PrintStream(syncCacheCSVFile.toFile(), StandardCharsets.UTF_8.toString())) {
+				out.println(FileInfo.headerCSV());
+				liveEntries.forEach(fi -> out.println(fi.toCSV()));
+			} 
+			lastFullSave = now;
+			return true;
+		}
+		catch (IOException e) {
+			LOG.warning("Error writing synced files cache: "+e.toString());
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void flush(boolean fsync) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.flush();
+			if (fsync) {
+				fileOut.getFD().sync();
+			}
+		}
+		catch (IOException e) {
+			LOG.warning("Error flushing synced files cache: "+e.toString());
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		flush(true);
+		try {
+			closeAppend();
+		}
+		catch (IOException e) {
+			LOG.warning("Error closing synced files cache: "+e.toString());
+		}
+	}
+	
+}
@@ -0,0 +1,262 @@
+package de.hechler.pgpencrypter.persist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming reader for files written by the Serializer, without per field allocations.
+ * 
+ * The UTF-8 bytes are scanned in place, nextRecord() only remembers the field boundaries.
+ * Numbers are parsed directly from the bytes into primitives, Strings are only created 
+ * when nextString() is called for a field.
+ * 
+ * Same format as the Deserializer: records separated by line breaks, empty lines are skipped,
+ * fields separated by ';', fields starting with '"' may contain ';'.  
+ */
+public class FastDeserializer implements AutoCloseable {
+
+	private final static byte DELIMITER = '"';
+	private final static byte SEPERATOR = ';';
+	private final static int BUFFER_SIZE = 1 << 20;
+	
+	public final static int NO_MORE_RECORDS = Deserializer.NO_MORE_RECORDS;
+	
+	private FileChannel channel;
+	private byte[] buf;
+	private ByteBuffer byteBuf;
+	private int bufStart;
+	private int bufEnd;
+	private boolean eof;
+
+	private int[] fieldStart;
+	private int[] fieldEnd;
+	private int fieldCount;
+	private int nextField;
+
+	public FastDeserializer(Path file) {
+		try {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+		this.buf = new byte[BUFFER_SIZE];
+		this.byteBuf = ByteBuffer.wrap(buf);
+		this.bufStart = 0;
+		this.bufEnd = 0;
+		this.eof = false;
+		this.fieldStart = new int[16];
+		this.fieldEnd = new int[16];
+		this.fieldCount = 0;
+		this.nextField = 0;
+	}
+
+	public FastDeserializer(String inputText) {
+		this.channel = null;
+		this.buf = inputText.getBytes(StandardCharsets.UTF_8);
+		this.bufStart = 0;
+		this.bufEnd = buf.length;
+		this.eof = true;
+		this.fieldStart = new int[16];
+		this.fieldEnd = new int[16];
+		this.fieldCount = 0;
+		this.nextField = 0;
+	}
+	
+	/**
+	 * @return number of fields in the next record or NO_MORE_RECORDS
+	 */
+	public int nextRecord() {
+		while (true) {
+			int lineEnd = findLineEnd();
+			if (lineEnd == -1) {
+				return NO_MORE_RECORDS;
+			}
+			int lineStart = bufStart;
+			// "\r\n" ends the line at '\r' and leaves an empty line, which is skipped
+			bufStart = Math.min(lineEnd+1, bufEnd);
+			if (!isBlank(lineStart, lineEnd)) {
+				splitFields(lineStart, lineEnd);
+				return fieldCount;
+			}
+		}
+	}
+
+	/**
+	 * @return position of the '\r' or '\n' ending the current line, refills the buffer as required.
+	 */
+	private int findLineEnd() {
+		int pos = bufStart;
+		while (true) {
+			while (pos < bufEnd) {
+				byte b = buf[pos];
+				if ((b == '\n') || (b == '\r')) {
+					return pos;
+				}
+				pos++;
+			}
+			if (eof) {
+				return (bufStart < bufEnd) ? bufEnd : -1;
+			}
+			int scanned = pos - bufStart;
+			fill();
+			pos = bufStart + scanned;
+		}
+	}
+
+	/**
+	 * move the unread data to the beginning of the buffer and read more data. 
+	 */
+	private void fill() {
+		try {
+			int remaining = bufEnd - bufStart;
+			if (remaining == buf.length) {
+				byte[] larger = new byte[2*buf.length];
+				System.arraycopy(buf, bufStart, larger, 0, remaining);
+				buf = larger;
+				byteBuf = ByteBuffer.wrap(buf);
+			}
+			else {
+				System.arraycopy(buf, bufStart, buf, 0, remaining);
+			}
+			bufStart = 0;
+			bufEnd = remaining;
+			byteBuf.limit(buf.length);
+			byteBuf.position(bufEnd);
+			int cnt = channel.read(byteBuf);
+			if (cnt == -1) {
+				eof = true;
+			}
+			else {
+				bufEnd += cnt;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+	
+	private boolean isBlank(int start, int end) {
+		for (int i=start; i<end; i++) {
+			if ((buf[i] & 0xff) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void splitFields(int start, int end) {
+		fieldCount = 0;
+		nextField = 0;
+		int fieldBegin = start;
+		boolean quoted = (start < end) && (buf[start] == DELIMITER);
+		int cntQuote = 0;
+		for (int pos=start; pos<end; pos++) {
+			byte b = buf[pos];
+			if (b == DELIMITER) {
+				cntQuote++;
+			}
+			else if ((b == SEPERATOR) && (!quoted || ((cntQuote & 0x01) == 0))) {
+				addField(fieldBegin, pos);
+				fieldBegin = pos+1;
+				quoted = (fieldBegin < end) && (buf[fieldBegin] == DELIMITER);
+				cntQuote = 0;
+			}
+		}
+		addField(fieldBegin, end);
+	}
+
+	private void addField(int start, int end) {
+		if (fieldCount == fieldStart.length) {
+			int[] largerStart = new int[2*fieldCount];
+			int[] largerEnd = new int[2*fieldCount];
+			System.arraycopy(fieldStart, 0, largerStart, 0, fieldCount);
+			System.arraycopy(fieldEnd, 0, largerEnd, 0, fieldCount);
+			fieldStart = largerStart;
+			fieldEnd = largerEnd;
+		}
+		fieldStart[fieldCount] = start;
+		fieldEnd[fieldCount] = end;
+		fieldCount++;
+	}
+
+	public void skipField() {
+		nextField++;
+	}
+
+	public boolean isNextFieldEmpty() {
+		return (nextField >= fieldCount) || (fieldStart[nextField] == fieldEnd[nextField]);
+	}
+	
+	public String nextString() {
+		if (nextField >= fieldCount) {
+			return null;
+		}
+		int start = fieldStart[nextField];
+		int end = fieldEnd[nextField];
+		nextField++;
+		if (start == end) {
+			return null;
+		}
+		if (buf[start] == DELIMITER) {
+			if ((end-start < 2) || (buf[end-1] != DELIMITER)) {
+				throw new RuntimeException("invalid string format '"+new String(buf, start, end-start, StandardCharsets.UTF_8)+"'");
+			}
+			start++;
+			end--;
+		}
+		return new String(buf, start, end-start, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return the parsed number or nullValue for an empty field.
+	 */
+	public long nextLong(long nullValue) {
+		if (nextField >= fieldCount) {
+			return nullValue;
+		}
+		int start = fieldStart[nextField];
+		int end = fieldEnd[nextField];
+		nextField++;
+		if (start == end) {
+			return nullValue;
+		}
+		boolean negative = buf[start] == '-';
+		int pos = negative ? start+1 : start;
+		if (pos == end) {
+			throw new NumberFormatException("invalid number '-'");
+		}
+		long result = 0;
+		for (; pos<end; pos++) {
+			int digit = buf[pos] - '0';
+			if ((digit < 0) || (digit > 9) || (result < -(Long.MAX_VALUE/10))) {
+				throw new NumberFormatException("invalid number '"+new String(buf, start, end-start, StandardCharsets.UTF_8)+"'");
+			}
+			// accumulate negative to cover Long.MIN_VALUE
+			result = result*10 - digit;
+		}
+		if (negative) {
+			return result;
+		}
+		if (result == Long.MIN_VALUE) {
+			throw new NumberFormatException("number too large '"+new String(buf, start, end-start, StandardCharsets.UTF_8)+"'");
+		}
+		return -result;
+	}
+
+	@Override
+	public void close() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+	
+}
@@ -0,0 +1,218 @@
+package de.hechler.pgpencrypter.persist;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+/**
+ * Background writer for a SyncStateStore.
+ * 
+ * save() and remove() only queue the change, a writer thread hands the queued changes 
+ * to the underlying store in batches and flushes them with one write and (depending on
+ * the durability) one fsync per batch. 
+ * A batch is written when BATCH_RECORDS changes are queued or the oldest change waits for
+ * BATCH_INTERVAL_MS. With Durability.ALWAYS the batch is written immediately and the 
+ * callers wait until it is fsync'ed, all changes queued in the meantime share the fsync.
+ */
+public class GroupCommitSyncStateStore implements SyncStateStore {
+
+	private final static int BATCH_RECORDS = 1000;
+	private final static long BATCH_INTERVAL_MS = 1000;
+	
+	private static class Change {
+		final FileInfo put;
+		final Path remove;
+		public Change(FileInfo put, Path remove) {
+			this.put = put;
+			this.remove = remove;
+		}
+	}
+	
+	private SyncStateStore delegate;
+	private Durability durability;
+
+	private final Object lock = new Object();
+	/** serializes writing batches and compaction */
+	private final Object writeLock = new Object();
+	private List<Change> pending;
+	private long firstPendingMillis;
+	private long queuedSeq;
+	private long writtenSeq;
+	private boolean writeFailed;
+	private boolean closed;
+	private Thread writer;
+
+	public GroupCommitSyncStateStore(SyncStateStore delegate, Durability durability) {
+		this.delegate = delegate;
+		this.durability = durability;
+		this.pending = new ArrayList<>();
+		this.queuedSeq = 0;
+		this.writtenSeq = 0;
+		this.writeFailed = false;
+		this.closed = false;
+		this.writer = new Thread(this::writerLoop, "sync-cache-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+	
+	@Override
+	public void load(Consumer<FileInfo> putConsumer, Consumer<Path> removeConsumer) {
+		delegate.load(putConsumer, removeConsumer);
+	}
+
+	/**
+	 * @return false if a previous batch could not be written, a compaction should be triggered. 
+	 */
+	@Override
+	public boolean save(FileInfo fi) {
+		return enqueue(new Change(FileInfo.createCopy(fi), null));
+	}
+
+	@Override
+	public boolean remove(Path file) {
+		return enqueue(new Change(null, file));
+	}
+
+	private boolean enqueue(Change change) {
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("sync cache is closed");
+			}
+			boolean first = pending.isEmpty();
+			if (first) {
+				firstPendingMillis = System.currentTimeMillis();
+			}
+			pending.add(change);
+			long seq = ++queuedSeq;
+			// the first change switches the writer from the untimed to the timed wait
+			if (first || (durability == Durability.ALWAYS) || (pending.size() >= BATCH_RECORDS)) {
+				lock.notifyAll();
+			}
+			if (durability == Durability.ALWAYS) {
+				// close() writes the remaining changes, so waiting ends also for a concurrent close
+				while (writtenSeq < seq) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+			return !writeFailed;
+		}
+	}
+	
+	private void writerLoop() {
+		while (true) {
+			synchronized (lock) {
+				while (!closed && !isBatchDue()) {
+					try {
+						long waitMillis = pending.isEmpty() ? 0 : Math.max(1, firstPendingMillis + BATCH_INTERVAL_MS - System.currentTimeMillis());
+						lock.wait(waitMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+			}
+			writePending(durability != Durability.NONE);
+		}
+	}
+
+	private boolean isBatchDue() {
+		if (pending.isEmpty()) {
+			return false;
+		}
+		return (durability == Durability.ALWAYS) || (pending.size() >= BATCH_RECORDS) 
+				|| (System.currentTimeMillis() - firstPendingMillis >= BATCH_INTERVAL_MS);
+	}
+	
+	/**
+	 * hand all queued changes to the store and flush them as one batch.
+	 */
+	private void writePending(boolean fsync) {
+		synchronized (writeLock) {
+			List<Change> batch;
+			long batchSeq;
+			synchronized (lock) {
+				batch = pending;
+				batchSeq = queuedSeq;
+				pending = new ArrayList<>();
+			}
+			boolean ok = true;
+			for (Change change:batch) {
+				if (change.put != null) {
+					ok = delegate.save(change.put) && ok;
+				}
+				else {
+					ok = delegate.remove(change.remove) && ok;
+				}
+			}
+			delegate.flush(fsync);
+			synchronized (lock) {
+				if (!ok) {
+					writeFailed = true;
+				}
+				writtenSeq = Math.max(writtenSeq, batchSeq);
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	@Override
+	public boolean needsCompaction(int liveEntries) {
+		return delegate.needsCompaction(liveEntries);
+	}
+
+	/**
+	 * queued changes are written before the compaction, so they can not overwrite the compacted state.
+	 */
+	@Override
+	public boolean compact(Collection<FileInfo> liveEntries) {
+		synchronized (writeLock) {
+			writePending(false);
+			boolean result = delegate.compact(liveEntries);
+			if (result) {
+				synchronized (lock) {
+					writeFailed = false;
+				}
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public void flush(boolean fsync) {
+		writePending(fsync);
+	}
+
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writePending(true);
+		delegate.close();
+	}
+	
+}
@@ -0,0 +1,476 @@
+package de.hechler.pgpencrypter.persist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+/**
+ * Binary append-only log of FileInfo changes.
+ * 
+ * <pre>
+ * file   := MAGIC record*
+ * record := int payloadLength, int crc32(payload), payload
+ * payload:= PUT path lastEventTimestamp lastModifiedTimestamp fileSize hash hash | REMOVE path
+ * path   := unsigned short length, UTF-8 bytes (max. 65535)
+ * hash   := NULL | SHA256 (32 raw bytes) | TEXT path
+ * </pre>
+ * 
+ * A torn record at the end of the file (crash while writing) is detected by length/checksum and cut off on load.
+ * Records are buffered until flush(), the log is rewritten with only the live entries when it contains 
+ * more than twice as many records as live entries. 
+ */
+public class LogSyncStateStore implements SyncStateStore {
+
+	private final static Logger LOG = Logger.getLogger(LogSyncStateStore.class.getName());
+
+	private static final byte[] MAGIC = "PGPSYNC1".getBytes(StandardCharsets.US_ASCII);
+	private static final String LOG_EXTENSION = ".synclog";
+	
+	private static final byte RECORD_PUT = 1;
+	private static final byte RECORD_REMOVE = 2;
+	private static final byte HASH_NULL = 0;
+	private static final byte HASH_SHA256 = 1;
+	private static final byte HASH_TEXT = 2;
+	private static final int SHA256_BYTES = 32;
+	private static final int MAX_STRING_BYTES = 0xffff;
+
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int MAX_RECORD_SIZE = 0x100000;
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final long MIN_COMPACTION_RECORDS = 10000;
+
+	private Path logFile;
+	private FileChannel channel;
+	private long recordCount;
+	private boolean unsynced;
+
+	private ByteBuffer writeBuffer;
+	private CRC32 crc;
+	
+	public LogSyncStateStore(Path logFile) {
+		this.logFile = logFile;
+		this.recordCount = 0;
+		this.unsynced = false;
+		this.writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		this.crc = new CRC32();
+		try {
+			this.channel = openLog(logFile);
+		} catch (IOException e) {
+			throw new RuntimeException("error opening sync log '"+logFile+"': "+e.toString(), e);
+		}
+	}
+
+	public static String logFilename(String cacheFilename) {
+		String basename = cacheFilename;
+		if (basename.toLowerCase().endsWith(".csv")) {
+			basename = basename.substring(0, basename.length()-4);
+		}
+		return basename + LOG_EXTENSION;
+	}
+
+	private static FileChannel openLog(Path file) throws IOException {
+		FileChannel result = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (result.size() == 0) {
+			result.write(ByteBuffer.wrap(MAGIC));
+			result.force(true);
+		}
+		result.position(result.size());
+		return result;
+	}
+	
+	@Override
+	public synchronized void load(Consumer<FileInfo> putConsumer, Consumer<Path> removeConsumer) {
+		long goodPosition = MAGIC.length;
+		long records = 0;
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			long readPosition = 0;
+			boolean eof = false;
+			boolean firstBlock = true;
+			CRC32 loadCrc = new CRC32();
+			while (true) {
+				if (!eof && (buf.remaining() > 0)) {
+					int cnt = channel.read(buf, readPosition);
+					if (cnt == -1) {
+						eof = true;
+					}
+					else {
+						readPosition += cnt;
+					}
+				}
+				buf.flip();
+				if (firstBlock) {
+					firstBlock = false;
+					if (buf.remaining() < MAGIC.length) {
+						throw new IOException("not a sync log file");
+					}
+					byte[] magic = new byte[MAGIC.length];
+					buf.get(magic);
+					if (!Arrays.equals(magic, MAGIC)) {
+						throw new IOException("not a sync log file");
+					}
+				}
+				boolean incomplete = false;
+				while (buf.remaining() >= RECORD_HEADER_SIZE) {
+					int length = buf.getInt(buf.position());
+					int expectedCrc = buf.getInt(buf.position()+4);
+					if ((length <= 0) || (length > MAX_RECORD_SIZE)) {
+						eof = true;
+						break;
+					}
+					if (buf.remaining() < RECORD_HEADER_SIZE + length) {
+						incomplete = true;
+						break;
+					}
+					int payloadStart = buf.position() + RECORD_HEADER_SIZE;
+					loadCrc.reset();
+					loadCrc.update(buf.array(), payloadStart, length);
+					if ((int)loadCrc.getValue() != expectedCrc) {
+						eof = true;
+						break;
+					}
+					buf.position(payloadStart);
+					decode(buf, putConsumer, removeConsumer);
+					buf.position(payloadStart + length);
+					goodPosition += RECORD_HEADER_SIZE + length;
+					records++;
+				}
+				if (eof || (!incomplete && (buf.remaining() == 0) && (readPosition >= channel.size()))) {
+					break;
+				}
+				if (buf.position() == 0 && buf.limit() == buf.capacity()) {
+					// record larger than the buffer
+					ByteBuffer larger = ByteBuffer.allocate(2*buf.capacity());
+					larger.put(buf);
+					buf = larger;
+				}
+				else {
+					buf.compact();
+				}
+			}
+			recordCount = records;
+			if (goodPosition < channel.size()) {
+				LOG.warning("sync log '"+logFile+"': cut off "+(channel.size()-goodPosition)+" bytes of incomplete records");
+				channel.truncate(goodPosition);
+				channel.force(true);
+			}
+			channel.position(channel.size());
+		}
+		catch (IOException e) {
+			throw new RuntimeException("error reading sync log '"+logFile+"': "+e.toString(), e);
+		}
+	}
+
+	private static void decode(ByteBuffer in, Consumer<FileInfo> putConsumer, Consumer<Path> removeConsumer) {
+		byte type = in.get();
+		Path file = Paths.get(readString(in));
+		if (type == RECORD_REMOVE) {
+			removeConsumer.accept(file);
+			return;
+		}
+		long lastEventTimestamp = in.getLong();
+		long lastModifiedTimestamp = in.getLong();
+		long fileSize = in.getLong();
+		String sourceHash = readHash(in);
+		String targetHash = readHash(in);
+		putConsumer.accept(new FileInfo(file, lastEventTimestamp, lastModifiedTimestamp, fileSize, sourceHash, targetHash));
+	}
+
+	@Override
+	public synchronized boolean save(FileInfo fi) {
+		try {
+			encodePut(fi);
+			appendRecords();
+			return true;
+		}
+		catch (IOException | IllegalArgumentException e) {
+			LOG.warning("Error writing sync log: "+e.toString());
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized boolean remove(Path file) {
+		try {
+			byte[] path = encodeString(file.toString());
+			int start = startRecord(1 + stringSize(path));
+			writeBuffer.put(RECORD_REMOVE);
+			writeString(writeBuffer, path);
+			endRecord(start);
+			appendRecords();
+			return true;
+		}
+		catch (IOException | IllegalArgumentException e) {
+			LOG.warning("Error writing sync log: "+e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * all strings are encoded before the record is started, so a too long string leaves no partial record in the buffer.
+	 */
+	private void encodePut(FileInfo fi) {
+		byte[] path = encodeString(fi.file.toString());
+		byte[] sourceHash = encodeHash(fi.sourceHash);
+		byte[] targetHash = encodeHash(fi.targetHash);
+		int start = startRecord(1 + stringSize(path) + 3*8 + sourceHash.length + targetHash.length);
+		writeBuffer.put(RECORD_PUT);
+		writeString(writeBuffer, path);
+		writeBuffer.putLong(fi.lastEventTimestamp);
+		writeBuffer.putLong(fi.lastModifiedTimestamp);
+		writeBuffer.putLong(fi.fileSize);
+		writeBuffer.put(sourceHash);
+		writeBuffer.put(targetHash);
+		endRecord(start);
+	}
+
+	/**
+	 * reserve space for the record header, the write buffer grows if required.
+	 * @return start position of the record
+	 */
+	private int startRecord(int maxPayloadSize) {
+		if (writeBuffer.remaining() < RECORD_HEADER_SIZE + maxPayloadSize) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2*writeBuffer.capacity(), writeBuffer.position() + RECORD_HEADER_SIZE + maxPayloadSize));
+			writeBuffer.flip();
+			larger.put(writeBuffer);
+			writeBuffer = larger;
+		}
+		int result = writeBuffer.position();
+		writeBuffer.position(result + RECORD_HEADER_SIZE);
+		return result;
+	}
+	
+	private void endRecord(int start) {
+		int length = writeBuffer.position() - start - RECORD_HEADER_SIZE;
+		crc.reset();
+		crc.update(writeBuffer.array(), start + RECORD_HEADER_SIZE, length);
+		writeBuffer.putInt(start, length);
+		writeBuffer.putInt(start+4, (int)crc.getValue());
+	}
+
+	/**
+	 * records are collected in the write buffer until it is full or flush() is called.
+	 */
+	private void appendRecords() throws IOException {
+		recordCount++;
+		if (writeBuffer.position() >= WRITE_BUFFER_SIZE) {
+			writeFully(channel);
+		}
+	}
+
+	@Override
+	public synchronized boolean needsCompaction(int liveEntries) {
+		return (recordCount > MIN_COMPACTION_RECORDS) && (recordCount > 2L * liveEntries);
+	}
+
+	@Override
+	public synchronized boolean compact(Collection<FileInfo> liveEntries) {
+		Path compactFile = logFile.resolveSibling(logFile.getFileName().toString()+".compact");
+		try {
+			long startMillis = System.currentTimeMillis();
+			Files.deleteIfExists(compactFile);
+			long records = 0;
+			// buffered records are contained in the live entries
+			writeBuffer.clear();
+			try (FileChannel compactChannel = openLog(compactFile)) {
+				for (FileInfo fi:liveEntries) {
+					try {
+						encodePut(fi);
+					}
+					catch (IllegalArgumentException e) {
+						LOG.warning("sync log '"+logFile+"': skipping entry, "+e.getMessage());
+						continue;
+					}
+					records++;
+					if (writeBuffer.position() >= WRITE_BUFFER_SIZE) {
+						writeFully(compactChannel);
+					}
+				}
+				writeFully(compactChannel);
+				compactChannel.force(true);
+			}
+			channel.close();
+			Files.move(compactFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = openLog(logFile);
+			long oldRecordCount = recordCount;
+			recordCount = records;
+			unsynced = false;
+			LOG.info("COMPACTED '"+logFile+"' from "+oldRecordCount+" to "+recordCount+" records in "+(System.currentTimeMillis()-startMillis)+"ms");
+			return true;
+		}
+		catch (IOException e) {
+			LOG.warning("Error compacting sync log: "+e.toString());
+			writeBuffer.clear();
+			try {
+				if (!channel.isOpen()) {
+					channel = openLog(logFile);
+				}
+			}
+			catch (IOException e2) {
+				throw new RuntimeException("error reopening sync log '"+logFile+"': "+e2.toString(), e2);
+			}
+			return false;
+		}
+	}
+
+	private void writeFully(FileChannel target) throws IOException {
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining()) {
+			target.write(writeBuffer);
+		}
+		writeBuffer.clear();
+		unsynced = true;
+	}
+
+	@Override
+	public synchronized void flush(boolean fsync) {
+		try {
+			if (writeBuffer.position() > 0) {
+				writeFully(channel);
+			}
+			if (fsync && unsynced) {
+				channel.force(false);
+				unsynced = false;
+			}
+		}
+		catch (IOException e) {
+			LOG.warning("Error flushing sync log: "+e.toString());
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		flush(true);
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			LOG.warning("Error closing sync log: "+e.toString());
+		}
+	}
+
+	/**
+	 * convert an existing CSV sync cache into a new sync log, only the last entry for each file is kept. 
+	 */
+	public static void importCSV(Path csvFile, Path logFile) {
+		Map<Path, FileInfo> entries = new LinkedHashMap<>();
+		new CsvSyncStateStore(csvFile).load(fi -> entries.put(fi.file, fi), file -> entries.remove(file));
+		Path importFile = logFile.resolveSibling(logFile.getFileName().toString()+".import");
+		try {
+			Files.deleteIfExists(importFile);
+		} catch (IOException e) {
+			throw new RuntimeException("error importing '"+csvFile+"': "+e.toString(), e);
+		}
+		LogSyncStateStore importLog = new LogSyncStateStore(importFile);
+		boolean ok = importLog.compact(entries.values());
+		importLog.close();
+		try {
+			if (!ok) {
+				throw new IOException("compaction failed");
+			}
+			Files.move(importFile, logFile, StandardCopyOption.ATOMIC_MOVE);
+			LOG.info("IMPORTED "+entries.size()+" entries from '"+csvFile+"' into '"+logFile+"'");
+		} catch (IOException e) {
+			throw new RuntimeException("error importing '"+csvFile+"': "+e.toString(), e);
+		}
+	}
+	
+	/**
+	 * the length of a string is written as unsigned short.
+	 * @throws IllegalArgumentException if the string is too long for the log.
+	 */
+	private static byte[] encodeString(String text) {
+		byte[] result = text.getBytes(StandardCharsets.UTF_8);
+		if (result.length > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException("string with "+result.length+" bytes exceeds "+MAX_STRING_BYTES+" bytes: '"+text.substring(0, 100)+"...'");
+		}
+		return result;
+	}
+
+	private static int stringSize(byte[] bytes) {
+		return 2 + bytes.length;
+	}
+
+	private static void writeString(ByteBuffer out, byte[] bytes) {
+		out.putShort((short)bytes.length);
+		out.put(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getShort() & 0xffff;
+		String result = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return result;
+	}
+	
+	/**
+	 * @return the complete encoded hash: type byte, followed by 32 raw bytes (lower hex SHA-256) or the string (any other hash text). 
+	 */
+	private static byte[] encodeHash(String hash) {
+		if (hash == null) {
+			return new byte[] { HASH_NULL };
+		}
+		if (!isLowerHexSHA256(hash)) {
+			byte[] text = encodeString(hash);
+			ByteBuffer result = ByteBuffer.allocate(1 + stringSize(text));
+			result.put(HASH_TEXT);
+			writeString(result, text);
+			return result.array();
+		}
+		byte[] result = new byte[1 + SHA256_BYTES];
+		result[0] = HASH_SHA256;
+		for (int i=0; i<SHA256_BYTES; i++) {
+			result[1+i] = (byte)((Character.digit(hash.charAt(2*i), 16) << 4) | Character.digit(hash.charAt(2*i+1), 16));
+		}
+		return result;
+	}
+
+	private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private static String readHash(ByteBuffer in) {
+		byte type = in.get();
+		if (type == HASH_NULL) {
+			return null;
+		}
+		if (type == HASH_TEXT) {
+			return readString(in);
+		}
+		char[] result = new char[2*SHA256_BYTES];
+		for (int i=0; i<SHA256_BYTES; i++) {
+			int b = in.get() & 0xff;
+			result[2*i] = HEX_DIGITS[b >> 4];
+			result[2*i+1] = HEX_DIGITS[b & 0x0f];
+		}
+		return new String(result);
+	}
+
+	private static boolean isLowerHexSHA256(String hash) {
+		if (hash.length() != 2*SHA256_BYTES) {
+			return false;
+		}
+		for (int i=0; i<hash.length(); i++) {
+			char c = hash.charAt(i);
+			if (!(((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'f')))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+}
@@ -0,0 +1,90 @@
+package de.hechler.pgpencrypter.persist;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+/**
+ * Persistence of the synced FileInfo entries (sync cache).
+ * 
+ * The complete state is kept in memory by the caller, the store only has to 
+ * record changes and rebuild the state on startup.
+ */
+public interface SyncStateStore extends AutoCloseable {
+
+	public enum Format { 
+		/** human readable, append-only CSV file with periodic full rewrite */
+		CSV, 
+		/** binary append-only log with checksums and compaction */
+		LOG 
+	}
+
+	public enum Durability {
+		/** changes are written by a background thread, fsync only on compaction and close */
+		NONE,
+		/** changes are written and fsync'ed by a background thread in batches, the last second of changes may be lost on power failure */
+		BATCH,
+		/** save() returns when the change is fsync'ed, concurrent saves share one fsync (group commit) */
+		ALWAYS
+	}
+	
+	/**
+	 * read all persisted changes in the order they were written, 
+	 * entries for the same file replace the previous ones. 
+	 */
+	void load(Consumer<FileInfo> putConsumer, Consumer<Path> removeConsumer);
+
+	/**
+	 * @return false if the entry could not be persisted, a compaction should be triggered.
+	 */
+	boolean save(FileInfo fi);
+
+	boolean remove(Path file);
+	
+	/**
+	 * @return true if the store should be rewritten with only the live entries.
+	 */
+	boolean needsCompaction(int liveEntries);
+	
+	/**
+	 * rewrite the store with only the given live entries.
+	 */
+	boolean compact(Collection<FileInfo> liveEntries);
+
+	/**
+	 * write all buffered changes to the file.
+	 * @param fsync also force the changes to the disk.
+	 */
+	void flush(boolean fsync);
+	
+	@Override
+	void close();
+
+	public static SyncStateStore open(Path syncCacheFile, Format format) {
+		return open(syncCacheFile, format, Durability.BATCH);
+	}
+
+	/**
+	 * @param syncCacheFile the configured cache file, e.g. "synced-files.csv". 
+	 *   The LOG format uses a sibling file with extension ".synclog" and imports an existing CSV file once.
+	 * @param durability changes are written by a background writer with this durability.  
+	 */
+	public static SyncStateStore open(Path syncCacheFile, Format format, Durability durability) {
+		return new GroupCommitSyncStateStore(openUnbuffered(syncCacheFile, format), durability);
+	}
+
+	static SyncStateStore openUnbuffered(Path syncCacheFile, Format format) {
+		if (format == Format.CSV) {
+			return new CsvSyncStateStore(syncCacheFile);
+		}
+		Path logFile = syncCacheFile.resolveSibling(LogSyncStateStore.logFilename(syncCacheFile.getFileName().toString()));
+		if (!Files.exists(logFile) && !logFile.equals(syncCacheFile) && Files.exists(syncCacheFile)) {
+			LogSyncStateStore.importCSV(syncCacheFile, logFile);
+		}
+		return new LogSyncStateStore(logFile);
+	}
+	
+}
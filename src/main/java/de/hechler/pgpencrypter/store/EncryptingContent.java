@@ -0,0 +1,58 @@
+package de.hechler.pgpencrypter.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+import de.hechler.pgpencrypter.utils.ChannelInputStream;
+
+/**
+ * Encrypts the source file directly into the target store, no ciphertext is written to a temp file.
+ */
+public class EncryptingContent implements TargetStore.ContentWriter {
+
+	private Encrypter encrypter;
+	private Path sourceFile;
+	private EncryptResult result;
+
+	public EncryptingContent(Encrypter encrypter, Path sourceFile) {
+		this.encrypter = encrypter;
+		this.sourceFile = sourceFile;
+		this.result = null;
+	}
+
+	/**
+	 * the source file is read in blocks of the encrypter's block size through a FileChannel.
+	 */
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		try (InputStream in = new ChannelInputStream(sourceFile, encrypter.getBlockSize(Files.size(sourceFile)))) {
+			result = encrypter.encrypt(in, out, sourceFile.getFileName().toString());
+		}
+		catch (RuntimeException e) {
+			throw new IOException("error encrypting '"+sourceFile+"': "+e.toString(), e);
+		}
+	}
+
+	@Override
+	public long getExpectedSize() {
+		try {
+			return encrypter.estimateTargetFilesize(Files.size(sourceFile));
+		}
+		catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return hashes and sizes of the last completed encryption or null if the content was not written.
+	 */
+	public EncryptResult getResult() {
+		return result;
+	}
+
+}
@@ -0,0 +1,187 @@
+package de.hechler.pgpencrypter.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the files in memory, to test and benchmark the sync without disk or network.
+ *
+ * Each operation waits latencyMillis (round trip), put additionally waits for the
+ * transfer time of the content with the given bandwidth.
+ */
+public class InMemoryTargetStore implements TargetStore {
+
+	private long latencyMillis;
+	private long bytesPerSecond;
+	private boolean keepContent;
+	private Map<Path, byte[]> files;
+	private AtomicLong operations;
+	private AtomicLong bytesWritten;
+
+	public InMemoryTargetStore() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param bytesPerSecond bandwidth per put, 0 for unlimited.
+	 */
+	public InMemoryTargetStore(long latencyMillis, long bytesPerSecond) {
+		this.latencyMillis = latencyMillis;
+		this.bytesPerSecond = bytesPerSecond;
+		this.keepContent = true;
+		this.files = new ConcurrentHashMap<>();
+		this.operations = new AtomicLong();
+		this.bytesWritten = new AtomicLong();
+	}
+
+	/**
+	 * without content only the file names are kept, e.g. to benchmark the sync of more data than fits into the heap.
+	 * get() returns empty content for files written while not keeping the content.
+	 */
+	public void setKeepContent(boolean keepContent) {
+		this.keepContent = keepContent;
+	}
+
+	@Override
+	public void open() {
+	}
+
+	@Override
+	public void put(Path file, ContentWriter content) throws IOException {
+		long start = System.currentTimeMillis();
+		simulateLatency(latencyMillis);
+		byte[] data;
+		long size;
+		if (keepContent) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			content.writeTo(out);
+			data = out.toByteArray();
+			size = data.length;
+		}
+		else {
+			CountingOutputStream out = new CountingOutputStream();
+			content.writeTo(out);
+			data = new byte[0];
+			size = out.count;
+		}
+		if (bytesPerSecond > 0) {
+			long transferMillis = 1000L * size / bytesPerSecond;
+			sleep(start + latencyMillis + transferMillis - System.currentTimeMillis());
+		}
+		files.put(file, data);
+		bytesWritten.addAndGet(size);
+	}
+
+	@Override
+	public void rename(Path file, Path newFile) throws IOException {
+		simulateLatency(latencyMillis);
+		byte[] data = files.remove(file);
+		if (data == null) {
+			throw new IOException("file not found '"+file+"'");
+		}
+		files.put(newFile, data);
+	}
+
+	/**
+	 * the content is shared, stored files are never modified.
+	 */
+	@Override
+	public boolean copy(Path file, Path newFile) throws IOException {
+		simulateLatency(latencyMillis);
+		byte[] data = files.get(file);
+		if (data == null) {
+			throw new IOException("file not found '"+file+"'");
+		}
+		files.put(newFile, data);
+		return true;
+	}
+
+	@Override
+	public boolean delete(Path file) throws IOException {
+		simulateLatency(latencyMillis);
+		return files.remove(file) != null;
+	}
+
+	@Override
+	public boolean deleteFolder(Path folder) throws IOException {
+		simulateLatency(latencyMillis);
+		return files.keySet().removeIf(file -> file.startsWith(folder));
+	}
+
+	@Override
+	public boolean exists(Path file) throws IOException {
+		simulateLatency(latencyMillis);
+		return files.containsKey(file);
+	}
+
+	@Override
+	public List<Path> list(Path folder) throws IOException {
+		simulateLatency(latencyMillis);
+		List<Path> result = new ArrayList<>();
+		for (Path file:files.keySet()) {
+			Path parent = file.getParent();
+			if ((parent == null) ? (folder.toString().isEmpty()) : parent.equals(folder)) {
+				result.add(file);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return content of the file or null, without simulated latency.
+	 */
+	public byte[] get(Path file) {
+		return files.get(file);
+	}
+
+	public int size() {
+		return files.size();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void simulateLatency(long millis) throws IOException {
+		operations.incrementAndGet();
+		sleep(millis);
+	}
+
+	private static void sleep(long millis) throws IOException {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.toString());
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private long count = 0;
+		@Override
+		public void write(int b) {
+			count++;
+		}
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "memory store files="+files.size()+", operations="+operations.get()+", bytes written="+bytesWritten.get();
+	}
+
+}
@@ -0,0 +1,137 @@
+package de.hechler.pgpencrypter.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.utils.ChannelOutputStream;
+
+/**
+ * Encrypted files are written into a local folder, e.g. a folder synced by a cloud client.
+ */
+public class LocalTargetStore implements TargetStore {
+
+	private final static int MIN_BLOCK_SIZE = 1 << 12;
+	private final static int MAX_BLOCK_SIZE = Encrypter.DEFAULT_BLOCK_SIZE;
+
+	private Path rootFolder;
+
+	public LocalTargetStore(Path rootFolder) {
+		this.rootFolder = rootFolder;
+	}
+
+	@Override
+	public void open() throws IOException {
+		Files.createDirectories(rootFolder);
+	}
+
+	/**
+	 * written through a FileChannel, the file is preallocated with the expected size of the content.
+	 */
+	@Override
+	public void put(Path file, ContentWriter content) throws IOException {
+		Path target = rootFolder.resolve(file);
+		Files.createDirectories(target.getParent());
+		long expectedSize = content.getExpectedSize();
+		int blockSize = (int) Math.min(MAX_BLOCK_SIZE, Math.max(expectedSize, MIN_BLOCK_SIZE));
+		try (OutputStream out = new ChannelOutputStream(target, blockSize, expectedSize)) {
+			content.writeTo(out);
+		}
+		catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(target);
+			throw e;
+		}
+	}
+
+	@Override
+	public void rename(Path file, Path newFile) throws IOException {
+		Path target = rootFolder.resolve(newFile);
+		Files.createDirectories(target.getParent());
+		Files.move(rootFolder.resolve(file), target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * stored files are never modified, so a hard link is as good as a copy.
+	 */
+	@Override
+	public boolean copy(Path file, Path newFile) throws IOException {
+		Path source = rootFolder.resolve(file);
+		Path target = rootFolder.resolve(newFile);
+		Files.createDirectories(target.getParent());
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, source);
+		}
+		catch (UnsupportedOperationException | FileSystemException e) {
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean delete(Path file) throws IOException {
+		return Files.deleteIfExists(rootFolder.resolve(file));
+	}
+
+	@Override
+	public boolean deleteFolder(Path folder) throws IOException {
+		Path localFolder = rootFolder.resolve(folder);
+		if (!Files.isDirectory(localFolder)) {
+			return false;
+		}
+		Files.walkFileTree(localFolder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean exists(Path file) {
+		return Files.exists(rootFolder.resolve(file));
+	}
+
+	@Override
+	public List<Path> list(Path folder) throws IOException {
+		List<Path> result = new ArrayList<>();
+		Path localFolder = rootFolder.resolve(folder);
+		if (!Files.isDirectory(localFolder)) {
+			return result;
+		}
+		try (Stream<Path> files = Files.list(localFolder)) {
+			files.filter(Files::isRegularFile).forEach(file -> result.add(rootFolder.relativize(file)));
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return "local store '"+rootFolder+"'";
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.hechler.pgpencrypter.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+import de.hechler.pgpencrypter.pcloud.ChunkedUploadApi;
+
+/**
+ * Destination of the encrypted files, all paths are relative to the root of the store.
+ *
+ * Implementations must be thread safe, the SyncEngine writes different files in parallel.
+ */
+public interface TargetStore {
+
+	/**
+	 * produces the content of a file, e.g. by encrypting the source file into the stream.
+	 * The length is not known in advance.
+	 */
+	public interface ContentWriter {
+		/**
+		 * the stream is owned by the store and must not be closed.
+		 */
+		void writeTo(OutputStream out) throws IOException;
+
+		/**
+		 * @return expected length of the content, stores writing files can preallocate it. 0 if unknown.
+		 */
+		default long getExpectedSize() {
+			return 0;
+		}
+	}
+
+	/**
+	 * called once before the first file is written.
+	 */
+	void open() throws IOException;
+
+	/**
+	 * write the file, an existing file is replaced.
+	 */
+	void put(Path file, ContentWriter content) throws IOException;
+
+	/**
+	 * write a file under a temporary name, it is renamed or deleted directly afterwards.
+	 * Stores can keep state of the written file for the following rename.
+	 */
+	default void putStaging(Path file, ContentWriter content) throws IOException {
+		put(file, content);
+	}
+
+	/**
+	 * rename the file, an existing file with the new name is replaced.
+	 */
+	void rename(Path file, Path newFile) throws IOException;
+
+	/**
+	 * copy the file without transferring the content again, an existing file with the new name is replaced.
+	 * @return false if the store can not copy the file this way.
+	 */
+	default boolean copy(Path file, Path newFile) throws IOException {
+		return false;
+	}
+
+	/**
+	 * @return false if the file did not exist.
+	 */
+	boolean delete(Path file) throws IOException;
+
+	/**
+	 * delete several files, stores supporting batches need fewer calls than one per file.
+	 * @return number of deleted files
+	 */
+	default int deleteAll(Collection<Path> files) throws IOException {
+		int result = 0;
+		for (Path file:files) {
+			if (delete(file)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * delete the folder with all files and sub folders in one operation.
+	 * @return false if the folder did not exist.
+	 */
+	boolean deleteFolder(Path folder) throws IOException;
+
+	boolean exists(Path file) throws IOException;
+
+	/**
+	 * @return the files (not sub folders) in the folder, empty if the folder does not exist.
+	 */
+	List<Path> list(Path folder) throws IOException;
+
+	/**
+	 * @return api to upload large files in resumable chunks or null if not supported.
+	 * Uploads are saved with paths relative to the store.
+	 */
+	default ChunkedUploadApi getChunkedUploadApi() {
+		return null;
+	}
+
+	/**
+	 * persist cached state, called when the sync is idle.
+	 */
+	default void flush() {
+	}
+
+	void close();
+
+}
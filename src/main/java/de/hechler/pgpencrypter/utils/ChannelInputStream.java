@@ -0,0 +1,76 @@
+package de.hechler.pgpencrypter.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file in blocks of a fixed size into a direct buffer, one read call per block
+ * however small the reads of the consumer are.
+ *
+ * FileInputStream allocates a native buffer for each read of more than 8 KB and copies from it,
+ * here the native buffer is allocated once per file.
+ */
+public class ChannelInputStream extends InputStream {
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean eof;
+
+	public ChannelInputStream(Path file, int blockSize) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.buffer = ByteBuffer.allocateDirect(blockSize);
+		this.buffer.flip();
+		this.eof = false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int cnt = Math.min(len, buffer.remaining());
+		buffer.get(b, off, cnt);
+		return cnt;
+	}
+
+	/**
+	 * @return false at the end of the file.
+	 */
+	private boolean fill() throws IOException {
+		while (!buffer.hasRemaining()) {
+			if (eof) {
+				return false;
+			}
+			buffer.clear();
+			eof = (channel.read(buffer) == -1);
+			buffer.flip();
+		}
+		return true;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,95 @@
+package de.hechler.pgpencrypter.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Writes a file in blocks of a fixed size through a direct buffer, the PGP streams write
+ * many small packets, which would be a system call each on an unbuffered FileOutputStream.
+ *
+ * The file can be preallocated with the expected size, so the file system can reserve contiguous space
+ * (NTFS allocates on extend, most Linux file systems create a sparse file, which costs nothing).
+ * On close the file is truncated to the written size.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long position;
+
+	/**
+	 * @param preallocateSize expected size of the file, 0 to not preallocate. An existing file is overwritten.
+	 */
+	public ChannelOutputStream(Path file, int blockSize, long preallocateSize) throws IOException {
+		this.file = new RandomAccessFile(file.toFile(), "rw");
+		try {
+			this.file.setLength(0);
+			if (preallocateSize > 0) {
+				this.file.setLength(preallocateSize);
+			}
+		}
+		catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		this.channel = this.file.getChannel();
+		this.buffer = ByteBuffer.allocateDirect(blockSize);
+		this.position = 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			writeBuffer();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				writeBuffer();
+			}
+			int cnt = Math.min(len, buffer.remaining());
+			buffer.put(b, off, cnt);
+			off += cnt;
+			len -= cnt;
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			writeBuffer();
+			if (channel.size() > position) {
+				channel.truncate(position);
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+}
@@ -22,12 +22,7 @@ public class ChecksumInputStream extends InputStream {
 	}
 
 	public String getMD() {
-		byte[] bytes = md.digest();
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
-        }
-        return result.toString();
+		return Hex.toHex(md.digest());
 	}
 
 	public long getSize() {
@@ -23,12 +23,7 @@ public class ChecksumOutputStream extends OutputStream {
 	}
 
 	public String getMD() {
-		byte[] bytes = md.digest();
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
-        }
-        return result.toString();
+		return Hex.toHex(md.digest());
 	}
 	
 	public long getSize() {
@@ -0,0 +1,76 @@
+package de.hechler.pgpencrypter.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the command line into positional arguments and options of the form "--name=value".
+ * <pre>
+ * java -jar pgpencrypter.jar key.pub /INPUT /OUTPUT cache.csv --workers=4
+ * </pre>
+ */
+public class CommandLineOptions {
+
+	private final static String OPTION_PREFIX = "--";
+	
+	private List<String> args;
+	private Map<String, String> options;
+	
+	public CommandLineOptions(String[] commandLine) {
+		this.args = new ArrayList<>();
+		this.options = new HashMap<>();
+		for (String arg:commandLine) {
+			if (!arg.startsWith(OPTION_PREFIX)) {
+				args.add(arg);
+				continue;
+			}
+			String option = arg.substring(OPTION_PREFIX.length());
+			int eqPos = option.indexOf('=');
+			if (eqPos == -1) {
+				options.put(option, "true");
+			}
+			else {
+				options.put(option.substring(0, eqPos), option.substring(eqPos+1));
+			}
+		}
+	}
+	
+	public String getArg(int index, String defaultValue) {
+		if (index >= args.size()) {
+			return defaultValue;
+		}
+		return args.get(index);
+	}
+
+	public String getOption(String name, String defaultValue) {
+		String result = options.get(name);
+		if (result == null) {
+			return defaultValue;
+		}
+		return result;
+	}
+
+	public int getIntOption(String name, int defaultValue) {
+		String value = options.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid number for option '"+OPTION_PREFIX+name+"': "+value, e);
+		}
+	}
+	
+	public boolean getBooleanOption(String name, boolean defaultValue) {
+		String value = options.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+	
+}
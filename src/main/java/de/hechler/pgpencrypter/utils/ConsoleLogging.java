@@ -0,0 +1,59 @@
+package de.hechler.pgpencrypter.utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * One line per message on stdout: "2024-05-01 12:00:00 INFO STORED docs/a-1234abcd.txt.pgp".
+ * Per file details like ENCRYPTED are logged with FINE.
+ */
+public class ConsoleLogging {
+
+	private static class LineFormatter extends Formatter {
+		private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		@Override
+		public synchronized String format(LogRecord record) {
+			StringBuilder result = new StringBuilder(128);
+			result.append(timestampFormat.format(new Date(record.getMillis()))).append(' ');
+			result.append(record.getLevel().getName()).append(' ');
+			result.append(formatMessage(record)).append(System.lineSeparator());
+			if (record.getThrown() != null) {
+				StringWriter stackTrace = new StringWriter();
+				record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+				result.append(stackTrace);
+			}
+			return result.toString();
+		}
+	}
+
+	/**
+	 * replace the handlers of the root logger with a handler writing to stdout.
+	 * @param levelName a java.util.logging level, e.g. "WARNING", "INFO" or "FINE".
+	 */
+	public static void configure(String levelName) {
+		Level level = Level.parse(levelName.toUpperCase());
+		Logger root = Logger.getLogger("");
+		for (Handler handler:root.getHandlers()) {
+			root.removeHandler(handler);
+		}
+		Handler handler = new StreamHandler(System.out, new LineFormatter()) {
+			@Override
+			public synchronized void publish(LogRecord record) {
+				super.publish(record);
+				flush();
+			}
+		};
+		handler.setLevel(level);
+		root.addHandler(handler);
+		root.setLevel(level);
+	}
+
+}
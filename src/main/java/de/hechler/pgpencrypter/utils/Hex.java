@@ -0,0 +1,53 @@
+package de.hechler.pgpencrypter.utils;
+
+/**
+ * Lowercase hex encoding with a lookup table, String.format("%02x") per byte parses the format each time.
+ */
+public class Hex {
+
+	private final static char[] DIGITS = "0123456789abcdef".toCharArray();
+
+	public static String toHex(byte[] bytes) {
+		return toHex(bytes, 0, bytes.length);
+	}
+
+	public static String toHex(byte[] bytes, int offset, int length) {
+		char[] result = new char[length*2];
+		for (int i=0; i<length; i++) {
+			int b = bytes[offset+i] & 0xff;
+			result[2*i] = DIGITS[b >>> 4];
+			result[2*i+1] = DIGITS[b & 0x0f];
+		}
+		return new String(result);
+	}
+
+	/**
+	 * decodes a lowercase hex string into bytes[offset..offset+hex.length()/2].
+	 * @return false if the string has an odd length or contains other characters than 0-9 and a-f.
+	 */
+	public static boolean fromHex(String hex, byte[] bytes, int offset) {
+		if ((hex.length() & 1) != 0) {
+			return false;
+		}
+		for (int i=0; i<hex.length()/2; i++) {
+			int hi = digitValue(hex.charAt(2*i));
+			int lo = digitValue(hex.charAt(2*i+1));
+			if ((hi == -1) || (lo == -1)) {
+				return false;
+			}
+			bytes[offset+i] = (byte)((hi << 4) | lo);
+		}
+		return true;
+	}
+
+	private static int digitValue(char c) {
+		if ((c >= '0') && (c <= '9')) {
+			return c - '0';
+		}
+		if ((c >= 'a') && (c <= 'f')) {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,124 @@
+package de.hechler.pgpencrypter.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks on a pool of worker threads, but never two tasks with the same key at the same time.
+ * 
+ * A task submitted for a key which is currently running is remembered and executed after 
+ * the running task finished. Multiple tasks waiting for the same key are coalesced, 
+ * only the last submitted one is executed.
+ * 
+ * submit() blocks if all workers are busy and the queue is full (back-pressure).
+ * 
+ * @param <K> key type, e.g. the Path of a file
+ */
+public class KeyedSerialExecutor<K> {
+
+	private final static Logger LOG = Logger.getLogger(KeyedSerialExecutor.class.getName());
+
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final Map<K, Runnable> waiting;
+	private final Map<K, Boolean> running;
+	
+	public KeyedSerialExecutor(String threadNamePrefix, int threads, int queueSize) {
+		this.executor = Executors.newFixedThreadPool(threads, newThreadFactory(threadNamePrefix));
+		this.slots = new Semaphore(threads + queueSize);
+		this.waiting = new HashMap<>();
+		this.running = new HashMap<>();
+	}
+
+	private static ThreadFactory newThreadFactory(String threadNamePrefix) {
+		AtomicInteger cnt = new AtomicInteger();
+		return r -> {
+			Thread result = new Thread(r, threadNamePrefix + "-" + cnt.incrementAndGet());
+			result.setDaemon(true);
+			return result;
+		};
+	}
+
+	public void submit(K key, Runnable task) throws InterruptedException {
+		synchronized (this) {
+			if (running.containsKey(key)) {
+				waiting.put(key, task);
+				return;
+			}
+			running.put(key, Boolean.TRUE);
+		}
+		try {
+			slots.acquire();
+		}
+		catch (InterruptedException e) {
+			finished(key);
+			throw e;
+		}
+		executor.execute(() -> runSerial(key, task));
+	}
+	
+	private void runSerial(K key, Runnable task) {
+		try {
+			Runnable current = task;
+			while (current != null) {
+				try {
+					current.run();
+				}
+				catch (Throwable e) {
+					// also an Error must not end the worker before the waiting task of the key is started
+					LOG.log(Level.SEVERE, "ERROR processing '"+key+"': "+e.toString(), e);
+				}
+				finally {
+					synchronized (this) {
+						current = waiting.remove(key);
+						if (current == null) {
+							// in the same lock, a submit() after this point starts a new run for the key
+							running.remove(key);
+							notifyAll();
+						}
+					}
+				}
+			}
+		}
+		finally {
+			slots.release();
+		}
+	}
+
+	private synchronized void finished(K key) {
+		running.remove(key);
+		notifyAll();
+	}
+
+	public synchronized int getActiveCount() {
+		return running.size();
+	}
+
+	/**
+	 * wait until all submitted tasks are finished.
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (!running.isEmpty()) {
+			wait();
+		}
+	}
+	
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+}
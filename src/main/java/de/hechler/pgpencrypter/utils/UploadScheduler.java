@@ -0,0 +1,115 @@
+package de.hechler.pgpencrypter.utils;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs uploads in a fixed number of concurrent upload slots.
+ * 
+ * submit() blocks when all slots are busy and the queue is full, so a fast producer 
+ * (folder scan, encryption) can not run ahead of the network. 
+ * Uploads of the same file never run in parallel, an upload which reports a failure 
+ * is retried with increasing delay in the same slot.
+ */
+public class UploadScheduler {
+
+	private final static Logger LOG = Logger.getLogger(UploadScheduler.class.getName());
+
+	private final static int DEFAULT_MAX_ATTEMPTS = 3;
+	private final static long DEFAULT_RETRY_DELAY_MS = 2000;
+
+	public interface UploadTask {
+		/**
+		 * @return false if the upload failed and should be retried.
+		 */
+		boolean upload();
+	}
+	
+	private KeyedSerialExecutor<Path> slots;
+	private int maxAttempts;
+	private long retryDelayMillis;
+	private AtomicLong succeeded;
+	private AtomicLong retried;
+	private AtomicLong failed;
+	
+	public UploadScheduler(int uploadSlots, int queueSize) {
+		this(uploadSlots, queueSize, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY_MS);
+	}
+	
+	/**
+	 * @param retryDelayMillis delay before the first retry, doubled for each further retry.
+	 */
+	public UploadScheduler(int uploadSlots, int queueSize, int maxAttempts, long retryDelayMillis) {
+		if (uploadSlots < 1) {
+			throw new IllegalArgumentException("at least one upload slot required: "+uploadSlots);
+		}
+		this.slots = new KeyedSerialExecutor<>("sync-worker", uploadSlots, queueSize);
+		this.maxAttempts = maxAttempts;
+		this.retryDelayMillis = retryDelayMillis;
+		this.succeeded = new AtomicLong();
+		this.retried = new AtomicLong();
+		this.failed = new AtomicLong();
+	}
+
+	public void submit(Path file, UploadTask task) throws InterruptedException {
+		slots.submit(file, () -> uploadWithRetry(file, task));
+	}
+
+	private void uploadWithRetry(Path file, UploadTask task) {
+		for (int attempt=1; attempt<=maxAttempts; attempt++) {
+			if (tryUpload(file, task)) {
+				succeeded.incrementAndGet();
+				return;
+			}
+			if (attempt == maxAttempts) {
+				break;
+			}
+			retried.incrementAndGet();
+			long delay = retryDelayMillis << (attempt-1);
+			LOG.warning("RETRY "+attempt+"/"+(maxAttempts-1)+" for '"+file+"' in "+delay+"ms");
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		failed.incrementAndGet();
+		LOG.warning("UPLOAD FAILED '"+file+"', synced again with the next change or restart");
+	}
+
+	/**
+	 * an unexpected exception is a failed attempt like a reported failure.
+	 */
+	private boolean tryUpload(Path file, UploadTask task) {
+		try {
+			return task.upload();
+		}
+		catch (RuntimeException e) {
+			LOG.warning("ERROR uploading '"+file+"': "+e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * @return number of files currently uploading or waiting for an upload slot.
+	 */
+	public int getActiveCount() {
+		return slots.getActiveCount();
+	}
+
+	public void awaitIdle() throws InterruptedException {
+		slots.awaitIdle();
+	}
+	
+	public void shutdown() {
+		slots.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "uploads succeeded="+succeeded.get()+", retried="+retried.get()+", failed="+failed.get();
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.hechler.pgpencrypter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.utils.ChannelInputStream;
+import de.hechler.pgpencrypter.utils.ChannelOutputStream;
+
+class ChannelStreamsTest {
+
+	@Test
+	void testWriteAndRead() throws IOException {
+		Path file = Files.createTempDirectory("channelstreamstest").resolve("data.bin");
+		byte[] content = new byte[10000];
+		new Random(1).nextBytes(content);
+		// preallocated larger than written, single bytes, small and larger writes than the block size
+		try (OutputStream out = new ChannelOutputStream(file, 1024, 50000)) {
+			out.write(content[0]);
+			out.write(content, 1, 99);
+			out.write(content, 100, 3000);
+			out.write(content, 3100, content.length-3100);
+		}
+		assertEquals(content.length, Files.size(file));
+		assertArrayEquals(content, Files.readAllBytes(file));
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = new ChannelInputStream(file, 1024)) {
+			result.write(in.read());
+			byte[] buffer = new byte[3000];
+			while (true) {
+				int cnt = in.read(buffer);
+				if (cnt == -1) {
+					break;
+				}
+				result.write(buffer, 0, cnt);
+			}
+			assertEquals(-1, in.read());
+		}
+		assertArrayEquals(content, result.toByteArray());
+	}
+
+	@Test
+	void testOverwriteAndEmpty() throws IOException {
+		Path file = Files.createTempDirectory("channelstreamstest").resolve("data.bin");
+		Files.write(file, new byte[5000]);
+		try (OutputStream out = new ChannelOutputStream(file, 1024, 0)) {
+			out.write(new byte[] {1, 2, 3});
+		}
+		assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file));
+		try (OutputStream out = new ChannelOutputStream(file, 1024, 4096)) {
+			// nothing written
+		}
+		assertEquals(0, Files.size(file));
+		try (InputStream in = new ChannelInputStream(file, 1024)) {
+			assertEquals(-1, in.read(new byte[10]));
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package de.hechler.pgpencrypter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+
+import de.hechler.pgpencrypter.encrypt.CompressionPolicy;
+import de.hechler.pgpencrypter.encrypt.Encrypter;
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+
+class EncrypterOptionsTest {
+
+	private static final String TESTDATA_FOLDER = "./testdata"; 
+	private static final int PLAINTEXT_SIZE = 256*1024; 
+	
+	@Test
+	void testAutoCompression() {
+		assertEquals(CompressionAlgorithm.UNCOMPRESSED, CompressionPolicy.AUTO.algorithmFor("holiday.JPG"));
+		assertEquals(CompressionAlgorithm.UNCOMPRESSED, CompressionPolicy.AUTO.algorithmFor("movie.mp4"));
+		assertEquals(CompressionAlgorithm.ZIP, CompressionPolicy.AUTO.algorithmFor("notes.txt"));
+		assertEquals(CompressionAlgorithm.ZIP, CompressionPolicy.AUTO.algorithmFor("README"));
+		assertEquals(CompressionAlgorithm.ZIP, CompressionPolicy.AUTO.algorithmFor(null));
+		assertEquals(CompressionAlgorithm.ZLIB, CompressionPolicy.ZLIB.algorithmFor("movie.mp4"));
+	}
+
+	/**
+	 * output format and ciphertext size for armored/binary output and compression, 
+	 * the timing is measured by the CompressionBenchmark in the benchmarks module.
+	 */
+	@Test
+	void testArmorAndCompression() {
+		Path publicKeyFile = Paths.get(TESTDATA_FOLDER).resolve("keys/encryptittest.pub");
+		byte[] text = createText(PLAINTEXT_SIZE);
+		byte[] random = createRandom(PLAINTEXT_SIZE);
+		byte[] armoredText = encrypt(new Encrypter(publicKeyFile, true, CompressionPolicy.NONE), text);
+		byte[] binaryText = encrypt(new Encrypter(publicKeyFile, false, CompressionPolicy.NONE), text);
+		assertTrue(new String(armoredText, StandardCharsets.US_ASCII).startsWith("-----BEGIN PGP MESSAGE-----"));
+		assertFalse(new String(binaryText, StandardCharsets.US_ASCII).startsWith("-----BEGIN PGP MESSAGE-----"));
+		assertTrue(binaryText.length < armoredText.length, "binary output "+binaryText.length+" not smaller than armored output "+armoredText.length);
+		assertTrue(binaryText.length > PLAINTEXT_SIZE);
+		for (CompressionPolicy compression:new CompressionPolicy[] {CompressionPolicy.ZIP, CompressionPolicy.ZLIB}) {
+			Encrypter enc = new Encrypter(publicKeyFile, false, compression);
+			byte[] compressedText = encrypt(enc, text);
+			assertTrue(compressedText.length < PLAINTEXT_SIZE/2, compression+": text compressed to "+compressedText.length+" bytes");
+			// random data does not compress, the overhead stays small
+			byte[] compressedRandom = encrypt(enc, random);
+			assertTrue(compressedRandom.length < PLAINTEXT_SIZE + PLAINTEXT_SIZE/100, compression+": random data expanded to "+compressedRandom.length+" bytes");
+		}
+	}
+
+	private static byte[] encrypt(Encrypter enc, byte[] plaintext) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(plaintext.length*2);
+		EncryptResult result = enc.encrypt(new ByteArrayInputStream(plaintext), out);
+		assertEquals(plaintext.length, result.sourceFilesize);
+		assertEquals(out.size(), result.targetFilesize);
+		return out.toByteArray();
+	}
+
+	private static byte[] createText(int size) {
+		Random random = new Random(42);
+		StringBuilder result = new StringBuilder(size+100);
+		while (result.length() < size) {
+			result.append("line ").append(random.nextInt(100000)).append(": the quick brown fox jumps over the lazy dog\n");
+		}
+		return result.substring(0, size).getBytes();
+	}
+
+	private static byte[] createRandom(int size) {
+		byte[] result = new byte[size];
+		new Random(42).nextBytes(result);
+		return result;
+	}
+
+}
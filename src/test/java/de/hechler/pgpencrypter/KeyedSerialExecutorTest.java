@@ -0,0 +1,131 @@
+package de.hechler.pgpencrypter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.utils.KeyedSerialExecutor;
+
+class KeyedSerialExecutorTest {
+
+	@Test
+	void testSameKeyNeverOverlaps() throws InterruptedException {
+		KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>("test", 4, 10);
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		for (int i=0; i<20; i++) {
+			executor.submit("file.txt", () -> {
+				int cnt = active.incrementAndGet();
+				maxActive.accumulateAndGet(cnt, Math::max);
+				sleep(5);
+				active.decrementAndGet();
+			});
+		}
+		executor.awaitIdle();
+		executor.shutdown();
+		assertEquals(1, maxActive.get());
+	}
+
+	@Test
+	void testWaitingTaskRunsAfterError() throws InterruptedException {
+		KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>("test", 1, 10);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger waitingRuns = new AtomicInteger();
+		executor.submit("file.txt", () -> {
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new OutOfMemoryError("test");
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.submit("file.txt", () -> waitingRuns.incrementAndGet());
+		release.countDown();
+		executor.awaitIdle();
+		// the worker survived
+		executor.submit("other.txt", () -> waitingRuns.incrementAndGet());
+		executor.awaitIdle();
+		executor.shutdown();
+		assertEquals(2, waitingRuns.get());
+	}
+
+	@Test
+	void testDifferentKeysRunInParallel() throws InterruptedException {
+		KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>("test", 2, 10);
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		AtomicInteger parallel = new AtomicInteger();
+		for (String key:new String[] {"a.txt", "b.txt"}) {
+			executor.submit(key, () -> {
+				bothStarted.countDown();
+				try {
+					if (bothStarted.await(5, TimeUnit.SECONDS)) {
+						parallel.incrementAndGet();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		executor.awaitIdle();
+		executor.shutdown();
+		assertEquals(2, parallel.get());
+	}
+
+	@Test
+	void testWaitingTasksAreCoalesced() throws InterruptedException {
+		KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>("test", 1, 10);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger runs = new AtomicInteger();
+		executor.submit("file.txt", () -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			runs.incrementAndGet();
+		});
+		for (int i=0; i<5; i++) {
+			executor.submit("file.txt", runs::incrementAndGet);
+		}
+		release.countDown();
+		executor.awaitIdle();
+		executor.shutdown();
+		assertTrue(runs.get() == 2, "expected first run plus one coalesced run, but was "+runs.get());
+	}
+
+	@Test
+	void testSubmitWhileFinishing() throws InterruptedException {
+		KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>("test", 4, 10);
+		int lost = 0;
+		for (int round=0; round<5000; round++) {
+			AtomicInteger lastRun = new AtomicInteger(-1);
+			int value = round;
+			executor.submit("file.txt", () -> {});
+			// submitted while the worker is finishing the first task, it must not get lost
+			executor.submit("file.txt", () -> lastRun.set(value));
+			executor.awaitIdle();
+			if (lastRun.get() != value) {
+				lost++;
+			}
+		}
+		executor.shutdown();
+		assertEquals(0, lost);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.hechler.pgpencrypter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.utils.UploadScheduler;
+
+class UploadSchedulerTest {
+
+	@Test
+	void testRetry() throws InterruptedException {
+		UploadScheduler uploads = new UploadScheduler(2, 10, 3, 1);
+		AtomicInteger attemptsFlaky = new AtomicInteger();
+		AtomicInteger attemptsBroken = new AtomicInteger();
+		uploads.submit(Paths.get("flaky.txt"), () -> attemptsFlaky.incrementAndGet() >= 2);
+		uploads.submit(Paths.get("broken.txt"), () -> attemptsBroken.incrementAndGet() < 0);
+		uploads.awaitIdle();
+		uploads.shutdown();
+		assertEquals(2, attemptsFlaky.get());
+		assertEquals(3, attemptsBroken.get());
+		assertEquals("uploads succeeded=1, retried=3, failed=1", uploads.toString());
+	}
+
+	@Test
+	void testExceptionIsRetried() throws InterruptedException {
+		UploadScheduler uploads = new UploadScheduler(1, 10, 3, 1);
+		AtomicInteger attempts = new AtomicInteger();
+		uploads.submit(Paths.get("unexpected.txt"), () -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new IllegalStateException("unexpected");
+			}
+			return true;
+		});
+		uploads.awaitIdle();
+		uploads.shutdown();
+		assertEquals(2, attempts.get());
+		assertEquals("uploads succeeded=1, retried=1, failed=0", uploads.toString());
+	}
+
+	@Test
+	void testUploadsOverlap() throws InterruptedException {
+		UploadScheduler uploads = new UploadScheduler(4, 10);
+		AtomicInteger parallel = new AtomicInteger();
+		AtomicInteger maxParallel = new AtomicInteger();
+		long start = System.currentTimeMillis();
+		for (int i=0; i<8; i++) {
+			uploads.submit(Paths.get("file"+i+".txt"), () -> {
+				maxParallel.accumulateAndGet(parallel.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return false;
+				}
+				parallel.decrementAndGet();
+				return true;
+			});
+		}
+		uploads.awaitIdle();
+		uploads.shutdown();
+		assertEquals(4, maxParallel.get());
+		assertTrue(System.currentTimeMillis() - start < 700);
+	}
+
+}
@@ -0,0 +1,75 @@
+package de.hechler.pgpencrypter.delta;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.delta.ChunkList.Chunk;
+
+class ChunkIndexTest {
+
+	@Test
+	void testSharedChunksAreDeletedWhenUnused() throws IOException {
+		ChunkIndex index = new ChunkIndex(Files.createTempDirectory("chunkindextest").resolve("index.chunks.csv"));
+		ChunkList v1 = ChunkList.fromString(30, "v1", "a:10,b:10,c:10");
+		assertEquals(3, index.acquire(v1).size());
+		for (String hash:v1.distinctHashes()) {
+			index.markStored(hash);
+		}
+		index.put(Paths.get("big.img"), v1);
+		// only the appended chunk is new
+		ChunkList v2 = ChunkList.fromString(40, "v2", "a:10,b:10,c:10,d:10");
+		assertEquals(Collections.singletonList("d"), hashes(index.acquire(v2)));
+		index.markStored("d");
+		index.put(Paths.get("big.img"), v2);
+		assertTrue(index.takeUnused().isEmpty());
+		ChunkList v3 = ChunkList.fromString(30, "v3", "a:10,x:10,d:10");
+		assertEquals(Collections.singletonList("x"), hashes(index.acquire(v3)));
+		index.markStored("x");
+		index.put(Paths.get("big.img"), v3);
+		index.copy(Paths.get("big.img"), Paths.get("copy.img"));
+		index.remove(Paths.get("big.img"));
+		assertEquals(Arrays.asList("b", "c"), index.takeUnused());
+		index.remove(Paths.get("copy.img"));
+		assertEquals(3, index.takeUnused().size());
+		assertEquals(0, index.getChunkCount());
+	}
+
+	@Test
+	void testSaveAndLoad() throws IOException {
+		Path indexFile = Files.createTempDirectory("chunkindextest").resolve("index.chunks.csv");
+		ChunkIndex index = new ChunkIndex(indexFile);
+		ChunkList chunkList = ChunkList.fromString(25, "hash", "a:10,b:15");
+		index.acquire(chunkList);
+		index.markStored("a");
+		index.markStored("b");
+		index.put(Paths.get("sub/big.img"), chunkList);
+		index.save();
+		assertTrue(index.isSaved());
+		ChunkIndex loaded = new ChunkIndex(indexFile);
+		loaded.load();
+		assertEquals("a:10,b:15", loaded.get(Paths.get("sub/big.img")).chunksToString());
+		assertEquals(2, loaded.getChunkCount());
+		// stored chunks are not written again
+		assertTrue(loaded.acquire(ChunkList.fromString(10, "other", "a:10")).isEmpty());
+	}
+
+	private static List<String> hashes(List<Chunk> chunks) {
+		List<String> result = new ArrayList<>();
+		for (Chunk chunk:chunks) {
+			result.add(chunk.hash);
+		}
+		return result;
+	}
+
+}
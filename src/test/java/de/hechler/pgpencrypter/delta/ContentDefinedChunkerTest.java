@@ -0,0 +1,63 @@
+package de.hechler.pgpencrypter.delta;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.delta.ChunkList.Chunk;
+
+class ContentDefinedChunkerTest {
+
+	private final static int MIN = 1024;
+	private final static int AVG = 4096;
+	private final static int MAX = 16384;
+
+	@Test
+	void testChunksCoverTheFile() throws IOException {
+		byte[] content = randomBytes(1000000, 1);
+		ChunkList chunkList = new ContentDefinedChunker(MIN, AVG, MAX).split(new ByteArrayInputStream(content));
+		assertEquals(content.length, chunkList.getFileSize());
+		long offset = 0;
+		for (Chunk chunk:chunkList.getChunks()) {
+			assertEquals(offset, chunk.offset);
+			assertTrue(chunk.length <= MAX, "chunk too large "+chunk);
+			offset += chunk.length;
+		}
+		assertEquals(content.length, offset);
+		assertTrue(chunkList.size() > 1000000/MAX, "too few chunks: "+chunkList.size());
+		ChunkList reloaded = ChunkList.fromString(chunkList.getFileSize(), chunkList.getSourceHash(), chunkList.chunksToString());
+		assertEquals(chunkList.chunksToString(), reloaded.chunksToString());
+	}
+
+	@Test
+	void testInsertChangesOnlyNearbyChunks() throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker(MIN, AVG, MAX);
+		byte[] content = randomBytes(1000000, 2);
+		byte[] inserted = new byte[content.length+100];
+		System.arraycopy(content, 0, inserted, 0, 500000);
+		System.arraycopy(content, 500000, inserted, 500100, content.length-500000);
+		ChunkList before = chunker.split(new ByteArrayInputStream(content));
+		ChunkList after = chunker.split(new ByteArrayInputStream(inserted));
+		Set<String> beforeHashes = before.distinctHashes();
+		int changed = 0;
+		for (Chunk chunk:after.getChunks()) {
+			if (!beforeHashes.contains(chunk.hash)) {
+				changed++;
+			}
+		}
+		assertTrue((changed >= 1) && (changed <= 3), "changed chunks: "+changed);
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] result = new byte[length];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+
+}
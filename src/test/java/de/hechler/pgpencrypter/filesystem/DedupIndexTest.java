@@ -0,0 +1,43 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+class DedupIndexTest {
+
+	private final static String HASH = "a3f1c1a7e1c6d0bbf8a5d7e3d0e1a2b3c4d5e6f708192a3b4c5d6e7f8091a2b3";
+
+	@Test
+	void testOnlyLargeFilesAreIndexed() {
+		DedupIndex index = new DedupIndex(1000);
+		index.put(new FileInfo(Paths.get("small.txt"), 1, 2, 999, "small", null));
+		index.put(new FileInfo(Paths.get("nohash.iso"), 1, 2, 5000, null, null));
+		index.put(new FileInfo(Paths.get("a/disk.iso"), 1, 2, 5000, HASH, HASH));
+		assertEquals(1, index.size());
+		assertNull(index.get("small"));
+		assertEquals(Paths.get("a/disk.iso"), index.get(HASH));
+	}
+
+	@Test
+	void testRemoveOnlyMatchingEntry() {
+		DedupIndex index = new DedupIndex(0);
+		Path first = Paths.get("a/disk.iso");
+		Path second = Paths.get("b/disk.iso");
+		index.put(new FileInfo(first, 1, 2, 5000, HASH, HASH));
+		index.put(new FileInfo(second, 1, 2, 5000, HASH, HASH));
+		// the outdated reference to the first file must not remove the second
+		index.remove(HASH, first);
+		assertEquals(second, index.get(HASH));
+		index.remove(HASH, second);
+		assertNull(index.get(HASH));
+		index.recordHit(5000);
+		index.recordHit(5000);
+		assertEquals("dedup entries=0, hits=2, bytes saved=10000", index.toString());
+	}
+
+}
@@ -0,0 +1,93 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+class FileChangesCollectorTest {
+
+	private static final long QUIET_MILLIS = 200;
+	
+	@Test
+	void testFileIsHandedOutAfterQuietPeriod() throws IOException {
+		Path folder = Files.createTempDirectory("collectortest");
+		Path file = write(folder.resolve("a.txt"), "content");
+		FileChangesCollector collector = new FileChangesCollector(QUIET_MILLIS);
+		long start = System.currentTimeMillis();
+		collector.fileChanged(file);
+		FileInfo fi = collector.getNextChangedFile(5000);
+		long waited = System.currentTimeMillis() - start;
+		assertEquals(file, fi.file);
+		assertTrue(waited >= QUIET_MILLIS, "handed out too early after "+waited+"ms");
+		assertTrue(waited < 5*QUIET_MILLIS, "handed out too late after "+waited+"ms");
+		assertEquals(0, collector.getPendingCount());
+	}
+
+	@Test
+	void testEventsDuringQuietPeriodDelayFile() throws IOException, InterruptedException {
+		Path folder = Files.createTempDirectory("collectortest");
+		Path file = write(folder.resolve("a.txt"), "content");
+		FileChangesCollector collector = new FileChangesCollector(QUIET_MILLIS);
+		long start = System.currentTimeMillis();
+		collector.fileChanged(file);
+		Thread.sleep(QUIET_MILLIS/2);
+		write(file, "more content");
+		collector.fileChanged(file);
+		FileInfo fi = collector.getNextChangedFile(5000);
+		long waited = System.currentTimeMillis() - start;
+		assertEquals(file, fi.file);
+		assertTrue(waited >= QUIET_MILLIS*3/2, "handed out too early after "+waited+"ms");
+	}
+
+	@Test
+	void testDeletedFileIsHandedOutAsTombstone() throws IOException {
+		Path folder = Files.createTempDirectory("collectortest");
+		Path file = folder.resolve("gone.txt");
+		FileChangesCollector collector = new FileChangesCollector(QUIET_MILLIS);
+		collector.setDeleteQuietMillis(2*QUIET_MILLIS);
+		long start = System.currentTimeMillis();
+		collector.fileDeleted(file);
+		FileInfo fi = collector.getNextChangedFile(5000);
+		long waited = System.currentTimeMillis() - start;
+		assertEquals(file, fi.file);
+		assertTrue(FileChangesCollector.isDeleted(fi));
+		assertTrue(waited >= 2*QUIET_MILLIS, "handed out too early after "+waited+"ms");
+	}
+
+	@Test
+	void testRecreatedFileIsAChange() throws IOException {
+		Path folder = Files.createTempDirectory("collectortest");
+		Path file = folder.resolve("a.txt");
+		FileChangesCollector collector = new FileChangesCollector(QUIET_MILLIS);
+		collector.setDeleteQuietMillis(2*QUIET_MILLIS);
+		collector.fileDeleted(file);
+		write(file, "new content");
+		collector.fileChanged(file);
+		FileInfo fi = collector.getNextChangedFile(5000);
+		assertEquals(file, fi.file);
+		assertFalse(FileChangesCollector.isDeleted(fi));
+		assertSame(FileChangesCollector.TIMEOUT_FILEINFO, collector.getNextChangedFile(3*QUIET_MILLIS));
+	}
+
+	@Test
+	void testTimeoutAndShutdown() {
+		FileChangesCollector collector = new FileChangesCollector(QUIET_MILLIS);
+		assertSame(FileChangesCollector.TIMEOUT_FILEINFO, collector.getNextChangedFile(50));
+		collector.shutdown();
+		assertNull(collector.getNextChangedFile());
+	}
+
+	private static Path write(Path file, String content) throws IOException {
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+	
+}
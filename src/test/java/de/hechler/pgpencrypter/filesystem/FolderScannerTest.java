@@ -0,0 +1,89 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class FolderScannerTest {
+
+	@Test
+	void testOnlyChangedFilesAreCollected() throws IOException {
+		Path root = Files.createTempDirectory("scannertest");
+		Map<Path, FileInfo> syncedFiles = new HashMap<>();
+		for (int i=0; i<10; i++) {
+			Path file = write(root.resolve("folder"+(i%3)).resolve("sub").resolve("file"+i+".txt"), "content "+i);
+			Path relPath = root.relativize(file);
+			syncedFiles.put(relPath, new FileInfo(relPath, 0, Files.getLastModifiedTime(file).toMillis(), Files.size(file), "hash", "hash"));
+		}
+		write(root.resolve("folder1/new.txt"), "new file");
+		write(root.resolve("folder2/sub/file2.txt"), "changed content");
+		
+		FileChangesCollector collector = new FileChangesCollector(100);
+		FolderScanner scanner = new FolderScanner(root, syncedFiles::get, collector);
+		FolderScanner.ScanResult result = scanner.scan();
+		
+		assertEquals(11, result.files);
+		assertEquals(2, result.changedFiles);
+		assertEquals(2, collector.getPendingCount());
+		Set<Path> changed = new HashSet<>();
+		changed.add(root.relativize(collector.getNextChangedFile(5000).file));
+		changed.add(root.relativize(collector.getNextChangedFile(5000).file));
+		assertEquals(new HashSet<>(Arrays.asList(Paths.get("folder1/new.txt"), Paths.get("folder2/sub/file2.txt"))), changed);
+	}
+
+	@Test
+	void testMissingFilesAreReportedDeleted() throws IOException {
+		Path root = Files.createTempDirectory("scannertest");
+		SyncedFilesIndex syncedFiles = new SyncedFilesIndex();
+		for (int i=0; i<4; i++) {
+			Path file = write(root.resolve("folder/file"+i+".txt"), "content "+i);
+			Path relPath = root.relativize(file);
+			syncedFiles.put(relPath, new FileInfo(relPath, 0, Files.getLastModifiedTime(file).toMillis(), Files.size(file), "hash", "hash"));
+		}
+		// deleted while the sync was not running
+		Files.delete(root.resolve("folder/file1.txt"));
+		List<Path> deleted = new ArrayList<>();
+		FileChangesCollector collector = new FileChangesCollector(100);
+		collector.setDeleteQuietMillis(100);
+		collector.setDeleteListener(deleted::add);
+		FolderScanner scanner = new FolderScanner(root, syncedFiles::get, collector);
+		scanner.setSyncedFiles(syncedFiles);
+		FolderScanner.ScanResult result = scanner.scan();
+
+		assertEquals(3, result.files);
+		assertEquals(0, result.changedFiles);
+		assertEquals(1, result.missingFiles);
+		assertEquals(Arrays.asList(root.resolve("folder/file1.txt")), deleted);
+		FileInfo tombstone = collector.getNextChangedFile(5000);
+		assertTrue(FileChangesCollector.isDeleted(tombstone));
+		assertEquals(root.resolve("folder/file1.txt"), tombstone.file);
+
+		// the seen marks of the first scan must not hide files deleted before the next one
+		syncedFiles.remove(Paths.get("folder/file1.txt"));
+		Files.delete(root.resolve("folder/file2.txt"));
+		deleted.clear();
+		result = scanner.scan();
+		assertEquals(1, result.missingFiles);
+		assertEquals(Arrays.asList(root.resolve("folder/file2.txt")), deleted);
+	}
+
+	private static Path write(Path file, String content) throws IOException {
+		Files.createDirectories(file.getParent());
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+	
+}
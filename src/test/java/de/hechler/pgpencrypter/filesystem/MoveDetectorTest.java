@@ -0,0 +1,58 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+class MoveDetectorTest {
+
+	@Test
+	void testDeletedFileIsMovedOnce() {
+		MoveDetector moves = new MoveDetector();
+		moves.fileDeleted(new FileInfo(Paths.get("old/a.jpg"), 1, 2, 1000, "hash-a", "target-a"));
+		moves.fileDeleted(new FileInfo(Paths.get("old/b.jpg"), 1, 2, 1000, "hash-b", "target-b"));
+		assertTrue(moves.hasCandidates(1000));
+		assertFalse(moves.hasCandidates(999));
+		assertNull(moves.takeMoveSource(1000, "hash-c"));
+		assertEquals(Paths.get("old/b.jpg"), moves.takeMoveSource(1000, "hash-b"));
+		assertNull(moves.takeMoveSource(1000, "hash-b"));
+		assertEquals(Paths.get("old/a.jpg"), moves.takeMoveSource(1000, "hash-a"));
+		assertFalse(moves.hasCandidates(1000));
+	}
+
+	@Test
+	void testPendingMovesHoldBackFolderDeletion() {
+		MoveDetector moves = new MoveDetector();
+		moves.fileDeleted(new FileInfo(Paths.get("old/sub/a.jpg"), 1, 2, 1000, "hash-a", "target-a"));
+		moves.fileDeleted(new FileInfo(Paths.get("old/b.jpg"), 1, 2, 2000, "hash-b", "target-b"));
+		assertTrue(moves.hasPendingMoves(Paths.get("old")));
+		assertTrue(moves.hasPendingMoves(Paths.get("old/sub/a.jpg")));
+		assertFalse(moves.hasPendingMoves(Paths.get("other")));
+		assertFalse(moves.hasPendingMoves(Paths.get("ol")));
+		Path source = moves.takeMoveSource(1000, "hash-a");
+		moves.takeMoveSource(2000, "hash-b");
+		// the move is running
+		assertTrue(moves.hasPendingMoves(Paths.get("old")));
+		moves.moveDone(source);
+		assertTrue(moves.hasPendingMoves(Paths.get("old")));
+		moves.moveDone(Paths.get("old/b.jpg"));
+		assertFalse(moves.hasPendingMoves(Paths.get("old")));
+	}
+
+	@Test
+	void testCandidatesExpire() throws InterruptedException {
+		MoveDetector moves = new MoveDetector(50);
+		moves.fileDeleted(new FileInfo(Paths.get("a.jpg"), 1, 2, 1000, "hash-a", "target-a"));
+		Thread.sleep(100);
+		moves.fileDeleted(new FileInfo(Paths.get("b.jpg"), 1, 2, 2000, "hash-b", "target-b"));
+		assertFalse(moves.hasCandidates(1000));
+		assertEquals(1, moves.size());
+	}
+
+}
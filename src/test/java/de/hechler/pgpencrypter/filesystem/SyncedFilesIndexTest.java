@@ -0,0 +1,129 @@
+package de.hechler.pgpencrypter.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class SyncedFilesIndexTest {
+
+	private final static String SHA = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+	
+	@Test
+	void testPutGetRemove() {
+		SyncedFilesIndex index = new SyncedFilesIndex();
+		Path file = Paths.get("folder/sub/file.txt");
+		FileInfo fi = new FileInfo(file, 1, 2, 3, SHA, null);
+		index.put(file, fi);
+		fi.fileSize = 99;
+		assertEquals(1, index.size());
+		assertEquals(new FileInfo(file, 1, 2, 3, SHA, null).toString(), index.get(file).toString());
+		assertNull(index.get(Paths.get("folder/sub/other.txt")));
+		assertNull(index.get(Paths.get("file.txt")));
+
+		index.put(file, new FileInfo(file, 4, 5, 6, "", SHA.toUpperCase()));
+		assertEquals(1, index.size());
+		assertEquals(new FileInfo(file, 4, 5, 6, "", SHA.toUpperCase()).toString(), index.get(file).toString());
+
+		index.remove(file);
+		assertEquals(0, index.size());
+		assertNull(index.get(file));
+	}
+
+	@Test
+	void testSameContentAsHashMap() {
+		SyncedFilesIndex index = new SyncedFilesIndex();
+		Map<Path, FileInfo> expected = new HashMap<>();
+		for (int i=0; i<50000; i++) {
+			Path file = Paths.get("folder"+(i%101), "file "+i+".txt");
+			String hash = Integer.toHexString(i) + SHA.substring(Integer.toHexString(i).length());
+			FileInfo fi = new FileInfo(file, i, 2L*i, 3L*i, hash, (i%7 == 0) ? null : hash);
+			index.put(file, fi);
+			expected.put(file, fi);
+			if (i%3 == 0) {
+				Path removed = Paths.get("folder"+((i/2)%101), "file "+(i/2)+".txt");
+				index.remove(removed);
+				expected.remove(removed);
+			}
+		}
+		Path toplevel = Paths.get("toplevel.txt");
+		index.put(toplevel, new FileInfo(toplevel, 1, 1, 1, null, null));
+		expected.put(toplevel, new FileInfo(toplevel, 1, 1, 1, null, null));
+		
+		assertEquals(expected.size(), index.size());
+		int cnt = 0;
+		for (FileInfo fi:index.values()) {
+			assertEquals(expected.get(fi.file).toString(), fi.toString());
+			cnt++;
+		}
+		assertEquals(expected.size(), cnt);
+	}
+
+	@Test
+	void testChurnDoesNotGrowTable() {
+		SyncedFilesIndex index = new SyncedFilesIndex();
+		for (int i=0; i<1000; i++) {
+			Path file = Paths.get("folder/file"+i+".txt");
+			index.put(file, new FileInfo(file, 1, 2, 3, SHA, null));
+		}
+		// moves and deletes: each new path leaves a deleted table entry behind
+		churn(index, 0, 10000);
+		int tableLength = index.getTableLength();
+		churn(index, 10000, 200000);
+		assertEquals(1000, index.size());
+		assertEquals(tableLength, index.getTableLength());
+		assertEquals(3, index.get(Paths.get("folder/file200500.txt")).fileSize);
+	}
+
+	private static void churn(SyncedFilesIndex index, int from, int to) {
+		for (int i=from; i<to; i++) {
+			Path file = Paths.get("folder/file"+i+".txt");
+			Path moved = Paths.get("folder/file"+(i+1000)+".txt");
+			index.remove(file);
+			index.put(moved, new FileInfo(moved, 1, 2, 3, SHA, null));
+		}
+	}
+
+	@Test
+	void testValuesBelow() {
+		SyncedFilesIndex index = new SyncedFilesIndex();
+		for (String name:new String[] {"photos/a.jpg", "photos/2020/b.jpg", "photos2/c.jpg", "d.jpg"}) {
+			Path file = Paths.get(name);
+			index.put(file, new FileInfo(file, 1, 2, 3, SHA, SHA));
+		}
+		Set<Path> below = new HashSet<>();
+		for (FileInfo fi:index.valuesBelow(Paths.get("photos"))) {
+			below.add(fi.file);
+		}
+		assertEquals(new HashSet<>(Arrays.asList(Paths.get("photos/a.jpg"), Paths.get("photos/2020/b.jpg"))), below);
+		assertEquals(0, index.valuesBelow(Paths.get("videos")).size());
+	}
+
+	@Test
+	void testSeenMarks() {
+		SyncedFilesIndex index = new SyncedFilesIndex();
+		for (String name:new String[] {"a.txt", "b.txt", "folder/c.txt"}) {
+			Path file = Paths.get(name);
+			index.put(file, new FileInfo(file, 1, 2, 3, SHA, SHA));
+		}
+		index.clearSeen();
+		assertTrue(index.markSeen(Paths.get("a.txt")));
+		assertFalse(index.markSeen(Paths.get("missing.txt")));
+		// an update during the scan keeps the mark
+		index.put(Paths.get("a.txt"), new FileInfo(Paths.get("a.txt"), 4, 5, 6, SHA, SHA));
+		assertEquals(new HashSet<>(Arrays.asList(Paths.get("b.txt"), Paths.get("folder/c.txt"))), new HashSet<>(index.unseenFiles()));
+		index.clearSeen();
+		assertEquals(3, index.unseenFiles().size());
+	}
+
+}
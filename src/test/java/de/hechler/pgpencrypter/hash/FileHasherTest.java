@@ -0,0 +1,82 @@
+package de.hechler.pgpencrypter.hash;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.utils.Hex;
+
+class FileHasherTest {
+
+	@Test
+	void testHex() {
+		assertEquals("00017f80ff", Hex.toHex(new byte[] {0, 1, 127, -128, -1}));
+		assertEquals("7f80", Hex.toHex(new byte[] {0, 1, 127, -128, -1}, 2, 2));
+		assertEquals("", Hex.toHex(new byte[0]));
+		byte[] bytes = new byte[6];
+		assertTrue(Hex.fromHex("00017f80ff", bytes, 1));
+		assertArrayEquals(new byte[] {0, 0, 1, 127, -128, -1}, bytes);
+		assertFalse(Hex.fromHex("7F", bytes, 0));
+		assertFalse(Hex.fromHex("7f8", bytes, 0));
+	}
+
+	@Test
+	void testSha256() throws IOException, NoSuchAlgorithmException {
+		Path folder = Files.createTempDirectory("filehashertest");
+		FileHasher hasher = new Sha256FileHasher(1000);
+		for (int size:new int[] {0, 1, 999, 1000, 1001, 123456}) {
+			byte[] content = randomBytes(size);
+			Path file = folder.resolve("f"+size);
+			Files.write(file, content);
+			String expected = Hex.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+			assertEquals(expected, hasher.hash(file), "size "+size);
+			// the reused buffer and digest start clean
+			assertEquals(expected, hasher.hash(file), "size "+size);
+		}
+	}
+
+	@Test
+	void testTree() throws IOException, NoSuchAlgorithmException {
+		Path folder = Files.createTempDirectory("filehashertest");
+		byte[] content = randomBytes(10*1024+17);
+		Path file = folder.resolve("tree");
+		Files.write(file, content);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			String hash = new TreeFileHasher(1024, 1024, executor).hash(file);
+			assertEquals(hash, new TreeFileHasher(1024, 100, executor).hash(file));
+			assertEquals(hash, new TreeFileHasher(1024, 1024, Runnable::run).hash(file));
+			assertNotEquals(hash, new TreeFileHasher(2048, 1024, executor).hash(file));
+			assertNotEquals(Hex.toHex(MessageDigest.getInstance("SHA-256").digest(content)), hash);
+			content[5000] ^= 1;
+			Files.write(file, content);
+			assertNotEquals(hash, new TreeFileHasher(1024, 1024, executor).hash(file));
+			Path empty = folder.resolve("empty");
+			Files.write(empty, new byte[0]);
+			assertEquals(64, new TreeFileHasher(1024, 1024, executor).hash(empty).length());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] result = new byte[size];
+		new Random(size).nextBytes(result);
+		return result;
+	}
+
+}
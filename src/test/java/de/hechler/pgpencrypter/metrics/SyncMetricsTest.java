@@ -0,0 +1,120 @@
+package de.hechler.pgpencrypter.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.metrics.SyncMetrics.Stage;
+
+class SyncMetricsTest {
+
+	@Test
+	void testCounters() {
+		SyncMetrics metrics = new SyncMetrics();
+		metrics.fileSynced(100, 150);
+		metrics.fileSynced(100, -1);
+		metrics.fileUnchanged();
+		metrics.filesDeleted(3);
+		metrics.error();
+		metrics.preCheck(true);
+		metrics.preCheck(true);
+		metrics.preCheck(true);
+		metrics.preCheck(false);
+		assertEquals(2, metrics.getFilesSynced());
+		assertEquals(1, metrics.getFilesUnchanged());
+		assertEquals(3, metrics.getFilesDeleted());
+		assertEquals(1, metrics.getErrors());
+		// the copy did not read or write content
+		assertEquals(100, metrics.getBytesIn());
+		assertEquals(150, metrics.getBytesOut());
+		assertEquals(0.75, metrics.getPreCheckHitRate());
+	}
+
+	@Test
+	void testStages() {
+		SyncMetrics metrics = new SyncMetrics();
+		metrics.record(Stage.HASH, System.nanoTime() - 2_000_000_000L);
+		metrics.record(Stage.HASH, System.nanoTime() - 1_000_000_000L);
+		assertEquals(2, metrics.getStageCount(Stage.HASH));
+		assertEquals(0, metrics.getStageCount(Stage.UPLOAD));
+		assertTrue(metrics.getStageSeconds(Stage.HASH) >= 3.0);
+		assertTrue(metrics.getStageMaxSeconds(Stage.HASH) >= 2.0);
+		assertTrue(metrics.getStageMaxSeconds(Stage.HASH) < 3.0);
+		assertEquals(Long.valueOf(2), metrics.getStageCounts().get("hash"));
+	}
+
+	@Test
+	void testPrometheusText() {
+		SyncMetrics metrics = new SyncMetrics();
+		metrics.setGauges(() -> 7, () -> 2);
+		metrics.fileSynced(10, 20);
+		String text = new PrometheusEndpoint(metrics, 0).render();
+		assertTrue(text.contains("# TYPE pgpencrypter_files_synced_total counter\npgpencrypter_files_synced_total 1\n"), text);
+		assertTrue(text.contains("\npgpencrypter_queue_depth 7\n"), text);
+		assertTrue(text.contains("\npgpencrypter_active_uploads 2\n"), text);
+		assertTrue(text.contains("\npgpencrypter_stage_seconds_count{stage=\"cache_save\"} 0\n"), text);
+		assertTrue(text.contains("\npgpencrypter_stage_seconds_sum{stage=\"write\"} 0.000000\n"), text);
+	}
+
+	@Test
+	void testEndpoint() throws IOException {
+		SyncMetrics metrics = new SyncMetrics();
+		metrics.error();
+		PrometheusEndpoint endpoint = new PrometheusEndpoint(metrics, 0);
+		endpoint.start();
+		try {
+			URL url = new URL("http://127.0.0.1:"+endpoint.getPort()+"/metrics");
+			HttpURLConnection con = (HttpURLConnection) url.openConnection();
+			assertEquals(200, con.getResponseCode());
+			assertTrue(con.getContentType().startsWith("text/plain"));
+			try (InputStream in = con.getInputStream()) {
+				String text = new String(readAll(in), StandardCharsets.UTF_8);
+				assertTrue(text.contains("\npgpencrypter_errors_total 1\n"), text);
+			}
+		}
+		finally {
+			endpoint.stop();
+		}
+	}
+
+	@Test
+	void testMBean() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(SyncMetrics.OBJECT_NAME);
+		SyncMetrics first = new SyncMetrics();
+		first.registerMBean();
+		SyncMetrics second = new SyncMetrics();
+		second.filesDeleted(5);
+		// a restarted sync replaces the registration
+		second.registerMBean();
+		assertEquals(5L, server.getAttribute(name, "FilesDeleted"));
+		first.unregisterMBean();
+		assertTrue(server.isRegistered(name));
+		second.unregisterMBean();
+		assertFalse(server.isRegistered(name));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int cnt;
+		while ((cnt = in.read(buffer)) != -1) {
+			result.write(buffer, 0, cnt);
+		}
+		return result.toByteArray();
+	}
+
+}
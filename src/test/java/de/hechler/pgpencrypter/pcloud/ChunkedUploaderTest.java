@@ -0,0 +1,138 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.pcloud.sdk.ApiError;
+
+import de.hechler.pgpencrypter.encrypt.Encrypter.EncryptResult;
+import de.hechler.pgpencrypter.pcloud.ChunkedUploader.ChunkedUpload;
+
+class ChunkedUploaderTest {
+
+	private final static int CHUNK_SIZE = 1000;
+	
+	/** local upload API which fails after a number of written chunks */
+	static class FlakyUploadApi extends LocalChunkedUploadApi {
+		AtomicInteger writesLeft;
+		AtomicInteger writes = new AtomicInteger();
+		FlakyUploadApi(Path rootFolder, int failAfterWrites) {
+			super(rootFolder);
+			this.writesLeft = new AtomicInteger(failAfterWrites);
+		}
+		@Override
+		public void writeChunk(long uploadId, long offset, byte[] data, int length) throws IOException, ApiError {
+			if (writesLeft.decrementAndGet() < 0) {
+				throw new IOException("connection reset");
+			}
+			writes.incrementAndGet();
+			super.writeChunk(uploadId, offset, data, length);
+		}
+	}
+	
+	@Test
+	void testResumeAfterRestart() throws IOException {
+		Path tempDir = Files.createTempDirectory("chunkeduploadtest");
+		Path cloudRoot = tempDir.resolve("cloud");
+		Path stateFolder = tempDir.resolve("uploads");
+		Path relSource = Paths.get("videos/big.mp4");
+		Path cloudFile = Paths.get("/crypt/videos/big-1234.mp4.pgp");
+		byte[] ciphertext = new byte[10*CHUNK_SIZE+123];
+		new Random(42).nextBytes(ciphertext);
+
+		// first run: connection lost after 5 chunks
+		FlakyUploadApi api = new FlakyUploadApi(cloudRoot, 5);
+		ChunkedUploader uploader = new ChunkedUploader(api, stateFolder, CHUNK_SIZE, 1);
+		Files.write(uploader.getStagingFile(relSource), ciphertext);
+		EncryptResult encryptResult = new EncryptResult(10000, "sourcehash", ciphertext.length, "targethash");
+		ChunkedUpload upload = uploader.start(relSource, 4711, encryptResult);
+		assertEquals(11, upload.getChunkCount());
+		assertEquals(-1, uploader.upload(upload, cloudFile));
+		assertEquals(5, upload.getDoneChunkCount());
+		uploader.shutdown();
+
+		// restart, source modified -> no resume
+		uploader = new ChunkedUploader(new LocalChunkedUploadApi(cloudRoot), stateFolder, CHUNK_SIZE, 1);
+		assertNull(uploader.resume(relSource, 10000, 4712));
+		
+		// upload again, connection lost after 5 chunks
+		uploader.shutdown();
+		api = new FlakyUploadApi(cloudRoot, 5);
+		uploader = new ChunkedUploader(api, stateFolder, CHUNK_SIZE, 1);
+		Files.write(uploader.getStagingFile(relSource), ciphertext);
+		upload = uploader.start(relSource, 4711, encryptResult);
+		assertEquals(-1, uploader.upload(upload, cloudFile));
+		uploader.shutdown();
+		
+		// restart, continue with the missing chunks
+		api = new FlakyUploadApi(cloudRoot, 100);
+		uploader = new ChunkedUploader(api, stateFolder, CHUNK_SIZE, 3);
+		upload = uploader.resume(relSource, 10000, 4711);
+		assertNotNull(upload);
+		assertEquals(5, upload.getDoneChunkCount());
+		assertTrue(uploader.upload(upload, cloudFile) != -1);
+		assertEquals(6, api.writes.get());
+		uploader.shutdown();
+
+		assertArrayEquals(ciphertext, Files.readAllBytes(api.resolve(cloudFile)));
+		// progress and staging file are removed
+		try (java.util.stream.Stream<Path> files = Files.list(stateFolder)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	void testApiErrors() throws IOException, ApiError {
+		Path tempDir = Files.createTempDirectory("chunkeduploadtest");
+		Path cloudRoot = tempDir.resolve("cloud");
+		Path stateFolder = tempDir.resolve("uploads");
+		Path relSource = Paths.get("videos/big.mp4");
+		Path cloudFile = Paths.get("/crypt/videos/big-1234.mp4.pgp");
+		byte[] ciphertext = new byte[10*CHUNK_SIZE];
+		new Random(42).nextBytes(ciphertext);
+		AtomicInteger writesLeft = new AtomicInteger(5);
+		LocalChunkedUploadApi api = new LocalChunkedUploadApi(cloudRoot) {
+			@Override
+			public void writeChunk(long uploadId, long offset, byte[] data, int length) throws IOException, ApiError {
+				if (writesLeft.decrementAndGet() < 0) {
+					throw new ApiError(2008, "User is over quota.");
+				}
+				super.writeChunk(uploadId, offset, data, length);
+			}
+		};
+		ChunkedUploader uploader = new ChunkedUploader(api, stateFolder, CHUNK_SIZE, 1);
+		Files.write(uploader.getStagingFile(relSource), ciphertext);
+		EncryptResult encryptResult = new EncryptResult(10000, "sourcehash", ciphertext.length, "targethash");
+		ChunkedUpload upload = uploader.start(relSource, 4711, encryptResult);
+
+		// other API errors keep the progress
+		assertEquals(-1, uploader.upload(upload, cloudFile));
+		upload = uploader.resume(relSource, 10000, 4711);
+		assertNotNull(upload);
+		assertEquals(5, upload.getDoneChunkCount());
+
+		// upload expired on the server, starts over from the staging file
+		api.deleteUpload(upload.getUploadId());
+		writesLeft.set(100);
+		assertEquals(-1, uploader.upload(upload, cloudFile));
+		upload = uploader.resume(relSource, 10000, 4711);
+		assertNotNull(upload);
+		assertEquals(0, upload.getDoneChunkCount());
+		assertTrue(uploader.upload(upload, cloudFile) != -1);
+		uploader.shutdown();
+		assertArrayEquals(ciphertext, Files.readAllBytes(api.resolve(cloudFile)));
+	}
+
+}
@@ -0,0 +1,54 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.pcloud.sdk.DataSource;
+import com.pcloud.sdk.RemoteFile;
+
+import de.hechler.pgpencrypter.store.TargetStore.ContentWriter;
+
+class PCloudTargetStoreTest {
+
+	/** uploader without server, uploads and renames are only recorded */
+	static class RecordingUploader extends PCloudUploader {
+		List<String> calls = new ArrayList<>();
+		@Override
+		public RemoteFile uploadFile(Path cloudPath, DataSource data) {
+			calls.add("upload "+rPath(cloudPath));
+			String name = cloudPath.getFileName().toString();
+			return (RemoteFile) Proxy.newProxyInstance(RemoteFile.class.getClassLoader(), new Class<?>[] {RemoteFile.class}, 
+					(proxy, method, args) -> "name".equals(method.getName()) ? name : null);
+		}
+		@Override
+		public boolean renameFile(RemoteFile file, Path cloudPath) {
+			calls.add("rename "+file.name()+" "+rPath(cloudPath));
+			return true;
+		}
+	}
+
+	@Test
+	void testOnlyStagingFilesAreKept() throws IOException {
+		RecordingUploader uploader = new RecordingUploader();
+		PCloudTargetStore store = new PCloudTargetStore(Paths.get("/crypt"), uploader);
+		ContentWriter content = out -> out.write(42);
+		for (int i=0; i<100; i++) {
+			store.put(Paths.get("folder/file"+i+"-1234abcd.txt.pgp"), content);
+		}
+		assertEquals(0, store.getPendingRenameCount());
+		store.putStaging(Paths.get("folder/.new.txt.pgp.part"), content);
+		assertEquals(1, store.getPendingRenameCount());
+		store.rename(Paths.get("folder/.new.txt.pgp.part"), Paths.get("folder/new-5678abcd.txt.pgp"));
+		assertEquals(0, store.getPendingRenameCount());
+		assertEquals("rename .new.txt.pgp.part /crypt/folder/new-5678abcd.txt.pgp", uploader.calls.get(uploader.calls.size()-1));
+	}
+
+}
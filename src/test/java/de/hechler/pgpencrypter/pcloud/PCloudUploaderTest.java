@@ -1,13 +1,12 @@
 package de.hechler.pgpencrypter.pcloud;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import org.junit.jupiter.api.Test;
 
 import com.pcloud.sdk.ApiClient;
+import com.pcloud.sdk.DataSource;
 import com.pcloud.sdk.RemoteFolder;
 
 class PCloudUploaderTest {
@@ -18,9 +17,7 @@ class PCloudUploaderTest {
 		try {
 			PCloudUploader uploader = new PCloudUploader();
 			Path path = Paths.get("src/test/java/de/hechler/pgpencrypter/pcloud/PCloudUploaderTest.java");
-			try (InputStream in = new FileInputStream(path.toFile())) {
-				uploader.uploadFile(path, in);
-			}
+			uploader.uploadFile(path, DataSource.create(path.toFile()));
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw e;
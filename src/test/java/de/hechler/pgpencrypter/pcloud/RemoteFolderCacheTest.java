@@ -0,0 +1,127 @@
+package de.hechler.pgpencrypter.pcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.pcloud.sdk.ApiError;
+
+class RemoteFolderCacheTest {
+
+	/** in memory folder tree, counts the API calls */
+	static class FakeFolderApi implements RemoteFolderCache.FolderApi {
+		Map<String, Long> folders = new ConcurrentHashMap<>();
+		AtomicLong nextId = new AtomicLong(100);
+		AtomicInteger loads = new AtomicInteger();
+		AtomicInteger creates = new AtomicInteger();
+		Map<Long, String> paths = new ConcurrentHashMap<>();
+		FakeFolderApi() {
+			paths.put(0L, "");
+		}
+		@Override
+		public long loadFolderId(String remotePath) throws IOException, ApiError {
+			loads.incrementAndGet();
+			sleep();
+			Long result = folders.get(remotePath);
+			if (result == null) {
+				throw new ApiError(2005, "Directory does not exist.");
+			}
+			return result;
+		}
+		@Override
+		public synchronized long createFolder(long parentFolderId, String name) throws IOException, ApiError {
+			creates.incrementAndGet();
+			String path = paths.get(parentFolderId)+"/"+name;
+			if (folders.containsKey(path)) {
+				throw new ApiError(2004, "File or folder alredy exists.");
+			}
+			long result = nextId.incrementAndGet();
+			folders.put(path, result);
+			paths.put(result, path);
+			return result;
+		}
+		private void sleep() {
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	@Test
+	void testSubtreeIsCreatedOnce() throws Exception {
+		FakeFolderApi api = new FakeFolderApi();
+		RemoteFolderCache cache = new RemoteFolderCache(api);
+		Thread[] threads = new Thread[8];
+		long[] ids = new long[threads.length];
+		for (int t=0; t<threads.length; t++) {
+			int id = t;
+			threads[t] = new Thread(() -> {
+				try {
+					ids[id] = cache.getFolderId(Paths.get("crypt/a/b/c"));
+				} catch (IOException | ApiError e) {
+					throw new RuntimeException(e.toString(), e);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread:threads) {
+			thread.join();
+		}
+		assertEquals(4, api.creates.get());
+		assertEquals(4, api.loads.get());
+		for (long id:ids) {
+			assertEquals(api.folders.get("/crypt/a/b/c").longValue(), id);
+		}
+		// cached, no more API calls
+		cache.getFolderId(Paths.get("crypt/a/b/c"));
+		cache.getFolderId(Paths.get("crypt/a"));
+		assertEquals(4, api.loads.get());
+		// new sub folder in a known folder
+		cache.getFolderId(Paths.get("crypt/a/d"));
+		assertEquals(5, api.loads.get());
+		assertEquals(5, api.creates.get());
+	}
+	
+	@Test
+	void testInvalidate() throws Exception {
+		FakeFolderApi api = new FakeFolderApi();
+		RemoteFolderCache cache = new RemoteFolderCache(api);
+		cache.getFolderId(Paths.get("crypt/a/b"));
+		cache.getFolderId(Paths.get("crypt/ab"));
+		assertEquals(4, cache.size());
+		// folder deleted in the cloud
+		api.folders.remove("/crypt/a/b");
+		api.folders.remove("/crypt/a");
+		cache.invalidate(Paths.get("crypt/a"));
+		assertEquals(2, cache.size());
+		long newId = cache.getFolderId(Paths.get("crypt/a/b"));
+		assertEquals(api.folders.get("/crypt/a/b").longValue(), newId);
+	}
+
+	@Test
+	void testSaveAndLoad() throws Exception {
+		Path cacheFile = Files.createTempDirectory("foldercachetest").resolve("synced-files.folders.csv");
+		FakeFolderApi api = new FakeFolderApi();
+		RemoteFolderCache cache = new RemoteFolderCache(api);
+		cache.getFolderId(Paths.get("crypt/a;b/c"));
+		cache.save(cacheFile);
+		RemoteFolderCache loaded = new RemoteFolderCache(api);
+		loaded.load(cacheFile);
+		assertEquals(3, loaded.size());
+		int calls = api.loads.get();
+		assertEquals(api.folders.get("/crypt/a;b/c").longValue(), loaded.getFolderId(Paths.get("crypt/a;b/c")));
+		assertEquals(calls, api.loads.get());
+	}
+
+}
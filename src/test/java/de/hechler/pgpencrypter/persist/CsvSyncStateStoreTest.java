@@ -0,0 +1,39 @@
+package de.hechler.pgpencrypter.persist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+class CsvSyncStateStoreTest {
+
+	@Test
+	void testRemoveSurvivesReload() throws IOException {
+		Path csvFile = Files.createTempDirectory("csvstoretest").resolve("synced-files.csv");
+		FileInfo a = new FileInfo(Paths.get("a.txt"), 1, 2, 3, "hash-a", "target-a");
+		FileInfo b = new FileInfo(Paths.get("b.txt"), 4, 5, 6, "hash-b", "target-b");
+		try (CsvSyncStateStore store = new CsvSyncStateStore(csvFile)) {
+			assertTrue(store.compact(Arrays.asList(a, b)));
+			assertTrue(store.remove(Paths.get("a.txt")));
+			assertTrue(store.save(new FileInfo(Paths.get("c.txt"), 7, 8, 9, "hash-c", "target-c")));
+		}
+		Map<Path, FileInfo> entries = new HashMap<>();
+		try (CsvSyncStateStore store = new CsvSyncStateStore(csvFile)) {
+			store.load(fi -> entries.put(fi.file, fi), file -> entries.remove(file));
+		}
+		assertEquals(2, entries.size());
+		assertEquals(b.toCSV(), entries.get(Paths.get("b.txt")).toCSV());
+		assertTrue(entries.containsKey(Paths.get("c.txt")));
+	}
+
+}
@@ -0,0 +1,63 @@
+package de.hechler.pgpencrypter.persist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+class FastDeserializerTest {
+
+	@Test
+	void testFields() {
+		FastDeserializer deser = new FastDeserializer("a;\"b;c\";;-42;\r\n\r\n  \n\u00c4\u00f6\"x;123");
+		assertEquals(5, deser.nextRecord());
+		assertEquals("a", deser.nextString());
+		assertEquals("b;c", deser.nextString());
+		assertEquals(null, deser.nextString());
+		assertEquals(-42, deser.nextLong(0));
+		assertEquals(7, deser.nextLong(7));
+		assertEquals(2, deser.nextRecord());
+		assertEquals("\u00c4\u00f6\"x", deser.nextString());
+		assertEquals(123, deser.nextLong(0));
+		assertEquals(FastDeserializer.NO_MORE_RECORDS, deser.nextRecord());
+	}
+
+	@Test
+	void testSameResultAsDeserializer() throws IOException {
+		Path csvFile = Files.createTempDirectory("fastdesertest").resolve("synced-files.csv");
+		try (PrintStream out = new PrintStream(csvFile.toFile(), StandardCharsets.UTF_8.name())) {
+			out.println(FileInfo.headerCSV());
+			// more than one read buffer
+			for (int i=0; i<30000; i++) {
+				out.println(new FileInfo(Paths.get("folder "+(i%17)+"/file;"+i+".txt"), i, 2L*i, 3L*i, "hash"+i, (i%5 == 0) ? null : "target"+i).toCSV());
+			}
+		}
+		int cnt = 0;
+		try (FastDeserializer fast = new FastDeserializer(csvFile);
+				Deserializer slow = new Deserializer(new BufferedReader(Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)))) {
+			fast.nextRecord();
+			slow.nextRecord();
+			while (true) {
+				FileInfo expected = FileInfo.fromCSV(slow);
+				FileInfo actual = FileInfo.fromCSV(fast);
+				if (expected == null) {
+					assertEquals(null, actual);
+					break;
+				}
+				assertEquals(expected.toString(), actual.toString());
+				cnt++;
+			}
+		}
+		assertEquals(30000, cnt);
+	}
+
+}
@@ -0,0 +1,88 @@
+package de.hechler.pgpencrypter.persist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+class GroupCommitSyncStateStoreTest {
+
+	@Test
+	void testConcurrentSavesAlways() throws IOException, InterruptedException {
+		for (SyncStateStore.Format format:SyncStateStore.Format.values()) {
+			Path csvFile = Files.createTempDirectory("groupcommittest").resolve("synced-files.csv");
+			try (PrintStream out = new PrintStream(csvFile.toFile(), StandardCharsets.UTF_8.name())) {
+				out.println(FileInfo.headerCSV());
+			}
+			Thread[] threads = new Thread[8];
+			try (SyncStateStore store = SyncStateStore.open(csvFile, format, SyncStateStore.Durability.ALWAYS)) {
+				for (int t=0; t<threads.length; t++) {
+					int id = t;
+					threads[t] = new Thread(() -> {
+						for (int i=0; i<200; i++) {
+							Path file = Paths.get("t"+id, "file"+i+".txt");
+							store.save(new FileInfo(file, i, i, i, "hash"+i, null));
+						}
+					});
+					threads[t].start();
+				}
+				for (Thread thread:threads) {
+					thread.join();
+				}
+			}
+			assertEquals(threads.length*200, load(csvFile, format).size(), format.name());
+		}
+	}
+
+	@Test
+	void testBatchIsWrittenOnClose() throws IOException {
+		Path csvFile = Files.createTempDirectory("groupcommittest").resolve("synced-files.csv");
+		Path file = Paths.get("folder/file.txt");
+		try (SyncStateStore store = SyncStateStore.open(csvFile, SyncStateStore.Format.LOG, SyncStateStore.Durability.BATCH)) {
+			store.save(new FileInfo(file, 1, 2, 3, "a", null));
+			store.save(new FileInfo(file, 4, 5, 6, "b", null));
+			store.save(new FileInfo(Paths.get("removed.txt"), 1, 2, 3, "c", null));
+			store.remove(Paths.get("removed.txt"));
+		}
+		Map<Path, FileInfo> loaded = load(csvFile, SyncStateStore.Format.LOG);
+		assertEquals(1, loaded.size());
+		assertEquals("b", loaded.get(file).sourceHash);
+	}
+
+	@Test
+	void testBatchIsWrittenWithinInterval() throws IOException, InterruptedException {
+		Path csvFile = Files.createTempDirectory("groupcommittest").resolve("synced-files.csv");
+		Path logFile = csvFile.resolveSibling("synced-files.synclog");
+		try (SyncStateStore store = SyncStateStore.open(csvFile, SyncStateStore.Format.LOG, SyncStateStore.Durability.BATCH)) {
+			long emptySize = Files.size(logFile);
+			// the writer is idle when the first change arrives
+			Thread.sleep(200);
+			store.save(new FileInfo(Paths.get("folder/file.txt"), 1, 2, 3, "a", null));
+			long deadline = System.currentTimeMillis() + 2500;
+			while ((Files.size(logFile) == emptySize) && (System.currentTimeMillis() < deadline)) {
+				Thread.sleep(50);
+			}
+			assertTrue(Files.size(logFile) > emptySize, "batch not written without close()");
+		}
+	}
+
+	private Map<Path, FileInfo> load(Path csvFile, SyncStateStore.Format format) {
+		Map<Path, FileInfo> result = new HashMap<>();
+		try (SyncStateStore store = SyncStateStore.open(csvFile, format, SyncStateStore.Durability.NONE)) {
+			store.load(fi -> result.put(fi.file, fi), file -> result.remove(file));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,164 @@
+package de.hechler.pgpencrypter.persist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.pgpencrypter.filesystem.FileInfo;
+
+class LogSyncStateStoreTest {
+
+	private static final String HASH1 = "46e33ffc6555cd559d7fc89e339ccd52d3bacb20153a3db7c650419d594f11e8";
+	private static final String HASH2 = "7921b521c7ead7519296d8d3c2a2df0bd34b659bd639dd79448d6b50e1e2102a";
+
+	@Test
+	void testSaveRemoveAndReload() throws IOException {
+		Path logFile = Files.createTempDirectory("synclogtest").resolve("synced-files.synclog");
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			store.save(new FileInfo(Paths.get("a/b.txt"), 1, 2, 3, HASH1, HASH2));
+			store.save(new FileInfo(Paths.get("a/c.txt"), 4, 5, 6, "", null));
+			store.save(new FileInfo(Paths.get("a/b.txt"), 7, 8, 9, HASH2, HASH1));
+			store.remove(Paths.get("a/c.txt"));
+		}
+		Map<Path, FileInfo> entries = load(logFile);
+		assertEquals(1, entries.size());
+		FileInfo fi = entries.get(Paths.get("a/b.txt"));
+		assertEquals(fi.toCSV(), new FileInfo(Paths.get("a/b.txt"), 7, 8, 9, HASH2, HASH1).toCSV());
+	}
+
+	@Test
+	void testTornRecordIsCutOff() throws IOException {
+		Path logFile = Files.createTempDirectory("synclogtest").resolve("synced-files.synclog");
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			store.save(new FileInfo(Paths.get("a.txt"), 1, 2, 3, HASH1, HASH2));
+			store.save(new FileInfo(Paths.get("b.txt"), 1, 2, 3, HASH1, HASH2));
+		}
+		long size = Files.size(logFile);
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+			channel.truncate(size-5);
+		}
+		Map<Path, FileInfo> entries = load(logFile);
+		assertEquals(1, entries.size());
+		assertTrue(entries.containsKey(Paths.get("a.txt")));
+		// appending after the repaired end works
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			store.load(fi -> {}, file -> {});
+			store.save(new FileInfo(Paths.get("c.txt"), 1, 2, 3, null, null));
+		}
+		assertEquals(2, load(logFile).size());
+	}
+
+	@Test
+	void testCorruptedRecordStopsLoading() throws IOException {
+		Path logFile = Files.createTempDirectory("synclogtest").resolve("synced-files.synclog");
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			store.save(new FileInfo(Paths.get("a.txt"), 1, 2, 3, HASH1, HASH2));
+		}
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] {'X'}), Files.size(logFile)-1);
+		}
+		assertEquals(0, load(logFile).size());
+	}
+
+	@Test
+	void testCompaction() throws IOException {
+		Path logFile = Files.createTempDirectory("synclogtest").resolve("synced-files.synclog");
+		Map<Path, FileInfo> live = new HashMap<>();
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			for (int i=0; i<20000; i++) {
+				FileInfo fi = new FileInfo(Paths.get("file"+(i%100)), i, i, i, HASH1, HASH2);
+				live.put(fi.file, fi);
+				store.save(fi);
+			}
+			assertTrue(store.needsCompaction(live.size()));
+			long sizeBefore = Files.size(logFile);
+			assertTrue(store.compact(live.values()));
+			assertFalse(store.needsCompaction(live.size()));
+			assertTrue(Files.size(logFile) < sizeBefore/100);
+		}
+		Map<Path, FileInfo> entries = load(logFile);
+		assertEquals(100, entries.size());
+		assertEquals(19999, entries.get(Paths.get("file99")).fileSize);
+	}
+
+	@Test
+	void testImportCSV() throws IOException {
+		Path csvFile = Files.createTempDirectory("synclogtest").resolve("synced-files.csv");
+		try (PrintStream out = new PrintStream(csvFile.toFile(), StandardCharsets.UTF_8.name())) {
+			out.println(FileInfo.headerCSV());
+			out.println(new FileInfo(Paths.get("x;y.txt"), 1, 2, 3, HASH1, HASH2).toCSV());
+			out.println(new FileInfo(Paths.get("z.txt"), 1, 2, 3, HASH1, null).toCSV());
+			out.println(new FileInfo(Paths.get("x;y.txt"), 4, 5, 6, HASH2, HASH1).toCSV());
+		}
+		Map<Path, FileInfo> entries = new HashMap<>();
+		try (SyncStateStore store = SyncStateStore.open(csvFile, SyncStateStore.Format.LOG)) {
+			store.load(fi -> entries.put(fi.file, fi), file -> entries.remove(file));
+		}
+		assertTrue(Files.exists(csvFile.resolveSibling("synced-files.synclog")));
+		assertEquals(2, entries.size());
+		assertEquals(6, entries.get(Paths.get("x;y.txt")).fileSize);
+		assertNull(entries.get(Paths.get("z.txt")).targetHash);
+	}
+
+	@Test
+	void testLongTextHashes() throws IOException {
+		Path logFile = Files.createTempDirectory("synclogtest").resolve("synced-files.synclog");
+		String longHash = repeat("0123456789ABCDEF", 4000);
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			for (int i=0; i<20; i++) {
+				assertTrue(store.save(new FileInfo(Paths.get("file"+i), 1, 2, i, longHash+i, longHash)));
+			}
+		}
+		Map<Path, FileInfo> entries = load(logFile);
+		assertEquals(20, entries.size());
+		assertEquals(longHash+"19", entries.get(Paths.get("file19")).sourceHash);
+		assertEquals(longHash, entries.get(Paths.get("file19")).targetHash);
+	}
+
+	@Test
+	void testTooLongPathIsRejected() throws IOException {
+		Path logFile = Files.createTempDirectory("synclogtest").resolve("synced-files.synclog");
+		Path longPath = Paths.get(repeat("folder/", 10000));
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			store.save(new FileInfo(Paths.get("a.txt"), 1, 2, 3, HASH1, HASH2));
+			assertFalse(store.save(new FileInfo(longPath, 1, 2, 3, HASH1, HASH2)));
+			assertFalse(store.remove(longPath));
+			store.save(new FileInfo(Paths.get("b.txt"), 1, 2, 3, HASH1, HASH2));
+		}
+		Map<Path, FileInfo> entries = load(logFile);
+		assertEquals(2, entries.size());
+		assertTrue(entries.containsKey(Paths.get("b.txt")));
+	}
+
+	private static String repeat(String text, int count) {
+		StringBuilder result = new StringBuilder();
+		for (int i=0; i<count; i++) {
+			result.append(text);
+		}
+		return result.toString();
+	}
+
+	private static Map<Path, FileInfo> load(Path logFile) {
+		Map<Path, FileInfo> result = new HashMap<>();
+		try (LogSyncStateStore store = new LogSyncStateStore(logFile)) {
+			store.load(fi -> result.put(fi.file, fi), file -> result.remove(file));
+		}
+		return result;
+	}
+	
+}
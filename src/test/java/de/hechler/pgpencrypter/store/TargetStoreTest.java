@@ -0,0 +1,115 @@
+package de.hechler.pgpencrypter.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class TargetStoreTest {
+
+	@Test
+	void testLocalStore() throws IOException {
+		Path root = Files.createTempDirectory("targetstoretest").resolve("out");
+		LocalTargetStore store = new LocalTargetStore(root);
+		checkStore(store);
+		assertArrayEquals(bytes("hello"), Files.readAllBytes(root.resolve("sub/b.txt.pgp")));
+	}
+
+	@Test
+	void testInMemoryStore() throws IOException {
+		InMemoryTargetStore store = new InMemoryTargetStore();
+		checkStore(store);
+		assertArrayEquals(bytes("hello"), store.get(Paths.get("sub/b.txt.pgp")));
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	void testFailedPutLeavesNoFile() throws IOException {
+		Path root = Files.createTempDirectory("targetstoretest").resolve("out");
+		LocalTargetStore store = new LocalTargetStore(root);
+		store.open();
+		Path file = Paths.get("sub/.a.txt.pgp.part");
+		assertThrows(IOException.class, () -> store.put(file, out -> {
+			out.write(bytes("partial"));
+			throw new IOException("source vanished");
+		}));
+		assertFalse(store.exists(file));
+		store.close();
+	}
+
+	@Test
+	void testPreallocatedFileIsTruncated() throws IOException {
+		Path root = Files.createTempDirectory("targetstoretest").resolve("out");
+		LocalTargetStore store = new LocalTargetStore(root);
+		store.open();
+		store.put(Paths.get("a.txt.pgp"), new TargetStore.ContentWriter() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(bytes("hello"));
+			}
+			@Override
+			public long getExpectedSize() {
+				return 1 << 20;
+			}
+		});
+		assertArrayEquals(bytes("hello"), Files.readAllBytes(root.resolve("a.txt.pgp")));
+		store.close();
+	}
+
+	@Test
+	void testSimulatedLatency() throws IOException {
+		// 10ms round trip, 100KB/s
+		InMemoryTargetStore store = new InMemoryTargetStore(10, 100000);
+		long start = System.currentTimeMillis();
+		store.put(Paths.get("a.pgp"), out -> out.write(new byte[5000]));
+		long duration = System.currentTimeMillis() - start;
+		assertTrue(duration >= 60, "duration "+duration);
+	}
+
+	private void checkStore(TargetStore store) throws IOException {
+		store.open();
+		Path part = Paths.get("sub/.b.txt.pgp.part");
+		Path target = Paths.get("sub/b.txt.pgp");
+		assertFalse(store.exists(target));
+		assertEquals(Collections.emptyList(), store.list(Paths.get("sub")));
+		store.put(part, out -> out.write(bytes("hello")));
+		assertTrue(store.exists(part));
+		store.rename(part, target);
+		assertFalse(store.exists(part));
+		assertTrue(store.exists(target));
+		assertEquals(Collections.singletonList(target), store.list(Paths.get("sub")));
+		Path copy = Paths.get("other/b.txt.pgp");
+		assertTrue(store.copy(target, copy));
+		assertTrue(store.exists(copy));
+		assertTrue(store.delete(copy));
+		assertTrue(store.exists(target));
+		store.put(Paths.get("sub/c.txt.pgp"), out -> out.write(bytes("bye")));
+		assertTrue(store.delete(Paths.get("sub/c.txt.pgp")));
+		assertFalse(store.delete(Paths.get("sub/c.txt.pgp")));
+		store.put(Paths.get("del/x/d.txt.pgp"), out -> out.write(bytes("d")));
+		store.put(Paths.get("del/e.txt.pgp"), out -> out.write(bytes("e")));
+		assertEquals(1, store.deleteAll(Arrays.asList(Paths.get("del/e.txt.pgp"), Paths.get("del/missing.pgp"))));
+		assertTrue(store.deleteFolder(Paths.get("del")));
+		assertFalse(store.exists(Paths.get("del/x/d.txt.pgp")));
+		assertFalse(store.deleteFolder(Paths.get("del")));
+		assertTrue(store.exists(target));
+		store.close();
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+}